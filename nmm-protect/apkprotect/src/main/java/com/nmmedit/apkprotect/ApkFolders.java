@@ -40,6 +40,21 @@ public class ApkFolders {
         return new File(outRootDir, "dex_output");
     }
 
+    //每个阶段耗时等统计报告
+    public File getMetricsFile() {
+        return new File(outRootDir, "metrics.json");
+    }
+
+    //因为在启动路径上没有转换的方法
+    public File getStartupReportFile() {
+        return new File(outRootDir, "startup_excluded.txt");
+    }
+
+    //增量编译时保存opcode随机种子,和保留的cmake编译目录(.cxx)放在一起
+    public File getOpcodeSeedFile() {
+        return new File(outRootDir, ".cxx/opcode_seed");
+    }
+
     public File getOutputApk() {
         String name = inApk.getName();
         final int i = name.lastIndexOf('.');
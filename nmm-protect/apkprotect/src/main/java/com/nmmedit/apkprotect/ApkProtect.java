@@ -1,45 +1,87 @@
 package com.nmmedit.apkprotect;
 
+import com.google.common.io.ByteStreams;
 import com.nmmedit.apkprotect.andres.AxmlEdit;
+import com.nmmedit.apkprotect.data.ConfigSnapshot;
 import com.nmmedit.apkprotect.data.Prefs;
 import com.nmmedit.apkprotect.dex2c.Dex2c;
 import com.nmmedit.apkprotect.dex2c.DexConfig;
+import com.nmmedit.apkprotect.dex2c.DexConvertCache;
+import com.nmmedit.apkprotect.dex2c.DexConvertOptions;
+import com.nmmedit.apkprotect.dex2c.DexPacker;
 import com.nmmedit.apkprotect.dex2c.GlobalDexConfig;
+import com.nmmedit.apkprotect.dex2c.NativeCodeOptions;
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+import com.nmmedit.apkprotect.dex2c.converter.StartupCallGraph;
 import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
 import com.nmmedit.apkprotect.dex2c.converter.structs.RegisterNativesUtilClassDef;
 import com.nmmedit.apkprotect.dex2c.filters.ClassAndMethodFilter;
+import com.nmmedit.apkprotect.dex2c.filters.StartupFilter;
+import com.nmmedit.apkprotect.metrics.ProtectMetrics;
 import com.nmmedit.apkprotect.sign.ApkVerifyCodeGenerator;
 import com.nmmedit.apkprotect.util.ApkUtils;
+import com.nmmedit.apkprotect.util.ConcurrentUtils;
 import com.nmmedit.apkprotect.util.FileUtils;
+import com.nmmedit.apkprotect.util.RawZipFile;
+import com.nmmedit.apkprotect.util.RawZipWriter;
 import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedClassDef;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.ClassDef;
-import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.writer.io.FileDataStore;
 import org.jf.dexlib2.writer.pool.DexPool;
 
+import javax.annotation.Nullable;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class ApkProtect {
 
     public static final String ANDROID_MANIFEST_XML = "AndroidManifest.xml";
     public static final String ANDROID_APP_APPLICATION = "android.app.Application";
+    private static final String LOAD_LIB_APP = "com.nmmedit.protect.LoadLibApp";
     private final ApkFolders apkFolders;
     private final InstructionRewriter instructionRewriter;
     private final ApkVerifyCodeGenerator apkVerifyCodeGenerator;
     private final ClassAndMethodFilter filter;
+    //不为null时多个dex同时转换
+    private final ExecutorService executor;
+    //使用executor同时生成及写入输出的dex
+    private final boolean parallelDexWrite;
+    private final NativeBuildScheduler buildScheduler;
+    //不为null时跳过没有改变的dex
+    private final DexConvertCache convertCache;
+    //生成c代码的方式,分片及是否使用二进制数据文件
+    private final NativeCodeOptions codeOptions;
+    //保留上次编译目录,只编译改变了的c文件
+    private final boolean incrementalBuild;
+    private final String compilerLauncher;
+    //sdk,ndk路径及默认abi等配置
+    private final ConfigSnapshot config;
+    //不为null时启动路径上的方法不转换,必须是filter的一部分
+    private final StartupFilter startupFilter;
 
     private ApkProtect(ApkFolders apkFolders,
                        InstructionRewriter instructionRewriter,
                        ApkVerifyCodeGenerator apkVerifyCodeGenerator,
-                       ClassAndMethodFilter filter
+                       ClassAndMethodFilter filter,
+                       ExecutorService executor,
+                       boolean parallelDexWrite,
+                       NativeBuildScheduler buildScheduler,
+                       DexConvertCache convertCache,
+                       NativeCodeOptions codeOptions,
+                       boolean incrementalBuild,
+                       String compilerLauncher,
+                       ConfigSnapshot config,
+                       StartupFilter startupFilter
     ) {
         this.apkFolders = apkFolders;
 
@@ -47,38 +89,113 @@ public class ApkProtect {
 
         this.apkVerifyCodeGenerator = apkVerifyCodeGenerator;
         this.filter = filter;
+        this.executor = executor;
+        this.parallelDexWrite = parallelDexWrite;
+        this.buildScheduler = buildScheduler;
+        this.convertCache = convertCache;
+        this.codeOptions = codeOptions;
+        this.incrementalBuild = incrementalBuild;
+        this.compilerLauncher = compilerLauncher;
+        this.config = config;
+        this.startupFilter = startupFilter;
 
     }
 
     public void run() throws IOException {
         final File apkFile = apkFolders.getInApk();
         final File zipExtractDir = apkFolders.getZipExtractTempDir();
+        //记录每个阶段耗时等,最后输出json报告
+        final ProtectMetrics metrics = new ProtectMetrics(apkFile.getAbsolutePath());
 
         try {
-            byte[] manifestBytes = ApkUtils.getFile(apkFile, ANDROID_MANIFEST_XML);
-            if (manifestBytes == null) {
-                //错误apk文件
-                throw new RuntimeException("Not is apk");
-            }
-            String applicationClass = AxmlEdit.getApplicationName(manifestBytes);
-            if (applicationClass.equals("")) {
-                applicationClass = ANDROID_APP_APPLICATION;
+            final byte[] manifestBytes;
+            String applicationClass;
+            final String packageName;
+            try (ProtectMetrics.Stage stage = metrics.stage("manifest")) {
+                manifestBytes = ApkUtils.getFile(apkFile, ANDROID_MANIFEST_XML);
+                if (manifestBytes == null) {
+                    //错误apk文件
+                    throw new RuntimeException("Not is apk");
+                }
+                stage.addBytesRead(manifestBytes.length);
+                applicationClass = AxmlEdit.getApplicationName(manifestBytes);
+                if (applicationClass.equals("")) {
+                    applicationClass = ANDROID_APP_APPLICATION;
+                }
+                packageName = AxmlEdit.getPackageName(manifestBytes);
             }
-            final String packageName = AxmlEdit.getPackageName(manifestBytes);
 
             //生成一些需要改变的c代码(随机opcode后的头文件及apk验证代码等)
-            generateCSources(packageName);
+            try (ProtectMetrics.Stage stage = metrics.stage("generateCSources")) {
+                stage.addBytesWritten(generateCSources(packageName));
+            }
 
             //解压得到所有classesN.dex
-            List<File> files = getClassesFiles(apkFile, zipExtractDir);
-            if (files.isEmpty()) {
-                throw new RuntimeException("No classes.dex");
+            final List<File> files;
+            try (ProtectMetrics.Stage stage = metrics.stage("extractDexes")) {
+                files = getClassesFiles(apkFile, zipExtractDir);
+                if (files.isEmpty()) {
+                    throw new RuntimeException("No classes.dex");
+                }
+                stage.addBytesWritten(totalLength(files));
             }
+            DexConvertCache convertCache = this.convertCache;
+            //启动时执行的方法保留为dex代码
+            if (startupFilter != null) {
+                try (ProtectMetrics.Stage stage = metrics.stage("startupMethods")) {
+                    final List<String> componentTypes = new ArrayList<>();
+                    for (String component : AxmlEdit.getStartupComponents(manifestBytes)) {
+                        componentTypes.add(classDotNameToType(component));
+                    }
+                    final StartupCallGraph callGraph = StartupCallGraph.load(files, componentTypes,
+                            startupFilter.getMaxDepth());
+                    startupFilter.setCallGraph(callGraph);
+                    //dex里的启动方法依赖所有dex,也是这个dex缓存key的一部分
+                    if (convertCache != null) {
+                        convertCache = convertCache.withDexDependency(callGraph::getFingerprint);
+                    }
+                    stage.addBytesRead(totalLength(files));
+                    stage.addClasses(componentTypes.size())
+                            .addMethods(callGraph.size());
+                }
+            }
+
             //globalConfig里面configs顺序和classesN.dex文件列表一样
-            final GlobalDexConfig globalConfig = Dex2c.handleDexes(files,
-                    filter,
-                    instructionRewriter,
-                    apkFolders.getCodeGeneratedDir());
+            final GlobalDexConfig globalConfig;
+            try (ProtectMetrics.Stage stage = metrics.stage("handleDexes")) {
+                globalConfig = Dex2c.handleDexes(files,
+                        filter,
+                        instructionRewriter,
+                        apkFolders.getCodeGeneratedDir(),
+                        new DexConvertOptions.Builder()
+                                .setExecutor(executor)
+                                .setCache(convertCache)
+                                .setCodeOptions(codeOptions)
+                                .build());
+                //删除以前生成但这次没有的c文件,防止被编译进so
+                deleteStaleSources(apkFolders.getCodeGeneratedDir(), globalConfig.getGeneratedSourceFiles());
+
+                stage.addBytesRead(totalLength(files));
+                for (DexConfig dexConfig : globalConfig.getConfigs()) {
+                    stage.addClasses(dexConfig.getHandledNativeClasses().size())
+                            .addMethods(dexConfig.getNativeMethodCount())
+                            .addBytesWritten(dexConfig.getShellDexFile().length()
+                                    + dexConfig.getImplDexFile().length()
+                                    + totalLength(dexConfig.getGeneratedSourceFiles()));
+                }
+                stage.addBytesWritten(globalConfig.getInitCodeFile().length());
+            }
+            if (codeOptions.isGlobalPool() && !globalConfig.isGlobalPool()) {
+                final String warning = "Global constant pool is too large, use constant pool per dex";
+                System.err.println(warning);
+                metrics.addWarning(warning);
+            }
+            if (startupFilter != null) {
+                try (Writer writer = new OutputStreamWriter(
+                        new FileOutputStream(apkFolders.getStartupReportFile()), StandardCharsets.UTF_8)) {
+                    startupFilter.writeReport(writer);
+                }
+            }
 
 
             //需要放在主dex里的类
@@ -86,21 +203,14 @@ public class ApkProtect {
             //todo 可能需要通过外部配置来保留主dex需要的class
 
             //application class 继承关系
-            final List<String> appClassTypes = getApplicationClassesFromMainDex(globalConfig, applicationClass);
+            final List<String> appClassTypes;
+            try (ProtectMetrics.Stage stage = metrics.stage("mainDexClasses")) {
+                appClassTypes = getApplicationClassesFromMainDex(globalConfig, applicationClass);
+                stage.addClasses(appClassTypes.size());
+            }
 
             mainDexClassTypeSet.addAll(appClassTypes);
 
-            //在处理过的class的静态初始化方法里插入调用注册本地方法的指令
-            //static {
-            //    NativeUtils.initClass(0);
-            //}
-
-            final ArrayList<File> outDexFiles = injectInstructionAndWriteToFile(
-                    globalConfig,
-                    mainDexClassTypeSet,
-                    60000,
-                    apkFolders.getTempDexDir());
-
             //Application对应的
             final String appName;
             if (appClassTypes.isEmpty()) {
@@ -109,95 +219,145 @@ public class ApkProtect {
                 final String s = appClassTypes.get(appClassTypes.size() - 1);
                 appName = s.substring(1, s.length() - 1).replace('/', '.');
             }
+            //没有自定义application时添加一个新的application加载so
+            final String newAppName = appName.equals(ANDROID_APP_APPLICATION) ? LOAD_LIB_APP : appName;
 
+            //在处理过的class的静态初始化方法里插入调用注册本地方法的指令
+            //static {
+            //    NativeUtils.initClass(0);
+            //}
+            //主dex里同时添加加载so的代码
+
+            final ArrayList<File> outDexFiles;
+            try (ProtectMetrics.Stage stage = metrics.stage("injectInstructions")) {
+                outDexFiles = injectInstructionAndWriteToFile(
+                        globalConfig,
+                        mainDexClassTypeSet,
+                        classDotNameToType(newAppName),
+                        60000,
+                        apkFolders.getTempDexDir(),
+                        parallelDexWrite ? executor : null);
+                stage.addBytesWritten(totalLength(outDexFiles));
+            }
 
-            //处理AndroidManifest.xml文件
-            final File newManifestFile = handleApplicationClass(
-                    manifestBytes,
-                    appName,
-                    outDexFiles,
-                    globalConfig,
-                    apkFolders.getOutRootDir());
-
-            final Map<String, List<File>> nativeLibs = generateNativeLibs(apkFolders);
 
+            //处理AndroidManifest.xml文件
+            final File newManifestFile;
+            try (ProtectMetrics.Stage stage = metrics.stage("handleApplicationClass")) {
+                newManifestFile = handleApplicationClass(
+                        manifestBytes,
+                        newAppName,
+                        apkFolders.getOutRootDir());
+                stage.addBytesWritten(newManifestFile.length());
+            }
 
-            try (
-                    final ZipInputStream zipInput = new ZipInputStream(new FileInputStream(apkFile));
-                    final ZipOutputStream zipOutput = new ZipOutputStream(new FileOutputStream(apkFolders.getOutputApk()));
-            ) {
-                zipCopy(zipInput, apkFolders.getZipExtractTempDir(), zipOutput);
+            //每个abi的编译在NativeBuildScheduler里单独统计
+            final Map<String, List<File>> nativeLibs;
+            try (ProtectMetrics.Stage stage = metrics.stage("nativeBuild")) {
+                nativeLibs = generateNativeLibs(apkFolders, config, buildScheduler,
+                        incrementalBuild, compilerLauncher, metrics);
+                for (List<File> libs : nativeLibs.values()) {
+                    stage.addBytesWritten(totalLength(libs));
+                }
+            }
 
-                //add AndroidManifest.xml
-                addFileToZip(zipOutput, newManifestFile, new ZipEntry(ANDROID_MANIFEST_XML));
 
-                //add classesX.dex
-                for (File file : outDexFiles) {
-                    final ZipEntry zipEntry = new ZipEntry(file.getName());
+            try (ProtectMetrics.Stage stage = metrics.stage("zip")) {
+                stage.addBytesRead(apkFile.length());
+                try (
+                        final RawZipFile zipInput = new RawZipFile(apkFile);
+                        final RawZipWriter zipOutput = new RawZipWriter(apkFolders.getOutputApk())
+                ) {
+                    zipCopy(zipInput, zipOutput);
 
-                    addFileToZip(zipOutput, file, zipEntry);
-                }
+                    //add AndroidManifest.xml
+                    zipOutput.putFile(ANDROID_MANIFEST_XML, newManifestFile);
 
-                //add native libs
-                for (Map.Entry<String, List<File>> entry : nativeLibs.entrySet()) {
-                    final String abi = entry.getKey();
-                    for (File file : entry.getValue()) {
-                        final ZipEntry zipEntry = new ZipEntry("lib/" + abi + "/" + file.getName());
+                    //add classesX.dex
+                    for (File file : outDexFiles) {
+                        zipOutput.putFile(file.getName(), file);
+                    }
 
-                        addFileToZip(zipOutput, file, zipEntry);
+                    //add native libs
+                    for (Map.Entry<String, List<File>> entry : nativeLibs.entrySet()) {
+                        final String abi = entry.getKey();
+                        for (File file : entry.getValue()) {
+                            zipOutput.putFile("lib/" + abi + "/" + file.getName(), file);
+                        }
                     }
                 }
+                //zip写完后才是最终大小
+                stage.addBytesWritten(apkFolders.getOutputApk().length());
             }
         } finally {
             //删除解压缓存目录
             deleteFile(zipExtractDir);
+            //失败时也输出已完成阶段的统计
+            try {
+                metrics.writeJson(apkFolders.getMetricsFile());
+            } catch (IOException e) {
+                System.err.println("Write metrics failed: " + e);
+            }
         }
     }
 
-    private void addFileToZip(ZipOutputStream zipOutput, File file, ZipEntry zipEntry) throws IOException {
-        zipOutput.putNextEntry(zipEntry);
-        try (FileInputStream input = new FileInputStream(file);) {
-            FileUtils.copyStream(input, zipOutput);
+    private static long totalLength(List<File> files) {
+        long length = 0;
+        for (File file : files) {
+            length += file.length();
         }
-        zipOutput.closeEntry();
+        return length;
     }
 
-    private static Map<String, List<File>> generateNativeLibs(ApkFolders apkFolders) throws IOException {
+    private static Map<String, List<File>> generateNativeLibs(ApkFolders apkFolders,
+                                                         ConfigSnapshot config,
+                                                         NativeBuildScheduler buildScheduler,
+                                                         boolean incrementalBuild,
+                                                         String compilerLauncher,
+                                                         ProtectMetrics metrics) throws IOException {
         String cmakePath = System.getenv("CMAKE_PATH");
         if (isEmpty(cmakePath)) {
             System.err.println("No CMAKE_PATH");
-            cmakePath = Prefs.cmakePath();
+            cmakePath = config.cmakePath();
         }
         String sdkHome = System.getenv("ANDROID_SDK_HOME");
         if (isEmpty(sdkHome)) {
-            sdkHome = Prefs.sdkPath();
+            sdkHome = config.sdkPath();
             System.err.println("No ANDROID_SDK_HOME. Default is " + sdkHome);
         }
         String ndkHome = System.getenv("ANDROID_NDK_HOME");
         if (isEmpty(ndkHome)) {
-            ndkHome = Prefs.ndkPath();
+            ndkHome = config.ndkPath();
             System.err.println("No ANDROID_NDK_HOME. Default is " + ndkHome);
         }
 
         final File outRootDir = apkFolders.getOutRootDir();
         final File apkFile = apkFolders.getInApk();
 
-        final Map<String, List<File>> allLibs = new HashMap<>();
-
-        final List<String> abis = getAbis(apkFile);
+        final List<String> abis = getAbis(apkFile, config);
+        final List<BuildNativeLib.CMakeOptions> optionsList = new ArrayList<>();
         for (String abi : abis) {
             final BuildNativeLib.CMakeOptions cmakeOptions = new BuildNativeLib.CMakeOptions(cmakePath,
                     sdkHome,
                     ndkHome, 21,
                     outRootDir.getAbsolutePath(),
                     BuildNativeLib.CMakeOptions.BuildType.RELEASE,
-                    abi);
+                    abi,
+                    compilerLauncher,
+                    config);
+
+            if (!incrementalBuild) {
+                //删除上次创建的目录
+                deleteFile(new File(cmakeOptions.getBuildPath()));
+            }
 
-            //删除上次创建的目录
-            deleteFile(new File(cmakeOptions.getBuildPath()));
+            optionsList.add(cmakeOptions);
+        }
 
-            final List<File> files = BuildNativeLib.build(cmakeOptions);
-            allLibs.put(abi, files);
+        //所有abi同时编译
+        final Map<String, List<File>> allLibs = new HashMap<>();
+        for (NativeBuildScheduler.AbiResult result : buildScheduler.build(optionsList, metrics)) {
+            allLibs.put(result.abi, result.files);
         }
         return allLibs;
 
@@ -208,16 +368,17 @@ public class ApkProtect {
     }
 
     //根据apk里文件得到abi，如果没有本地库则返回所有
-    private static List<String> getAbis(File apk) throws IOException {
+    private static List<String> getAbis(File apk, ConfigSnapshot config) throws IOException {
         final Pattern pattern = Pattern.compile("lib/(.*)/.*\\.so");
-        final ZipFile zipFile = new ZipFile(apk);
-        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
         Set<String> abis = new HashSet<>();
-        while (entries.hasMoreElements()) {
-            final ZipEntry entry = entries.nextElement();
-            final Matcher matcher = pattern.matcher(entry.getName());
-            if (matcher.matches()) {
-                abis.add(matcher.group(1));
+        try (ZipFile zipFile = new ZipFile(apk)) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final Matcher matcher = pattern.matcher(entry.getName());
+                if (matcher.matches()) {
+                    abis.add(matcher.group(1));
+                }
             }
         }
         //不支持armeabi，可能还要删除mips相关
@@ -225,18 +386,18 @@ public class ApkProtect {
         if (abis.isEmpty()) {
             //默认只生成armeabi-v7a
             ArrayList<String> abi = new ArrayList<>();
-            if (Prefs.isArm()) {
+            if (config.isArm()) {
                 abi.add("armeabi-v7a");
             }
-            if (Prefs.isArm64()) {
+            if (config.isArm64()) {
                 abi.add("arm64-v8a");
             }
 
-            if (Prefs.isX86()) {
+            if (config.isX86()) {
                 abi.add("x86");
             }
 
-            if (Prefs.isX64()) {
+            if (config.isX64()) {
                 abi.add("x86_64");
             }
             return abi;
@@ -244,7 +405,54 @@ public class ApkProtect {
         return new ArrayList<>(abis);
     }
 
-    private void generateCSources(String packageName) throws IOException {
+    //返回实际写入的字节数
+    private long generateCSources(String packageName) throws IOException {
+        long written = 0;
+        final File dex2cSrcDir = apkFolders.getDex2cSrcDir();
+        for (Map.Entry<String, byte[]> entry : getVmSources().entrySet()) {
+            final File source = new File(dex2cSrcDir, entry.getKey());
+            final byte[] content = entry.getValue();
+            //处理指令及apk验证,生成新的c文件
+            //在内存中修改后再写入,内容没变的文件不覆盖,增量编译时不用重新编译
+            final byte[] newContent;
+            if (source.getName().endsWith("DexOpcodes.h")) {
+                //根据指令重写规则重新生成DexOpcodes.h文件
+                newContent = generateOpcodeHeader(content, instructionRewriter);
+            } else if (source.getName().endsWith("apk_verifier.c")) {
+                //根据公钥数据生成签名验证代码
+                newContent = generateApkVerifier(packageName, content, apkVerifyCodeGenerator);
+            } else if (codeOptions.isDataBlob() && entry.getKey().equals("CMakeLists.txt")) {
+                //.incbin需要数据文件的绝对路径
+                newContent = generateCMakeLists(content);
+            } else {
+                newContent = content;
+            }
+            if (FileUtils.writeIfChanged(source, newContent)) {
+                written += newContent.length;
+            }
+        }
+        return written;
+    }
+
+    private static byte[] generateCMakeLists(byte[] content) {
+        final String cmake = new String(content, StandardCharsets.UTF_8);
+        final int start = cmake.indexOf("add_library(nmmp ");
+        if (start == -1) {
+            throw new RuntimeException("add_library(nmmp) not found in CMakeLists.txt");
+        }
+        final int end = cmake.indexOf(')', start) + 1;
+        return (cmake.substring(0, end) +
+                "\ntarget_compile_definitions(nmmp PRIVATE NMMP_GENERATED_DIR=\"${CMAKE_CURRENT_SOURCE_DIR}/generated\")" +
+                cmake.substring(end)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    //vmsrc.zip里所有文件内容,只读取一次,同一进程里多个ApkProtect共用
+    private static Map<String, byte[]> vmSources;
+
+    private static synchronized Map<String, byte[]> getVmSources() throws IOException {
+        if (vmSources != null) {
+            return vmSources;
+        }
         final File vmsrcFile = new File(FileUtils.getHomePath(), "tools/vmsrc.zip");
         if (!vmsrcFile.exists()) {
             vmsrcFile.getParentFile().mkdirs();
@@ -256,16 +464,36 @@ public class ApkProtect {
                 FileUtils.copyStream(inputStream, outputStream);
             }
         }
-        final List<File> cSources = ApkUtils.extractFiles(vmsrcFile, ".*", apkFolders.getDex2cSrcDir());
+        final Map<String, byte[]> sources = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(vmsrcFile)) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream input = zipFile.getInputStream(entry)) {
+                    sources.put(entry.getName(), ByteStreams.toByteArray(input));
+                }
+            }
+        }
+        vmSources = Collections.unmodifiableMap(sources);
+        return vmSources;
+    }
 
-        //处理指令及apk验证,生成新的c文件
-        for (File source : cSources) {
-            if (source.getName().endsWith("DexOpcodes.h")) {
-                //根据指令重写规则重新生成DexOpcodes.h文件
-                writeOpcodeHeaderFile(source, instructionRewriter);
-            } else if (source.getName().endsWith("apk_verifier.c")) {
-                //根据公钥数据生成签名验证代码
-                writeApkVerifierFile(packageName, source, apkVerifyCodeGenerator);
+    private static void deleteStaleSources(File generatedDir, List<File> sources) {
+        final File[] files = generatedDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final Set<String> names = new HashSet<>();
+        for (File source : sources) {
+            names.add(source.getName());
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if ((name.endsWith(".c") || name.endsWith(".h")) && !names.contains(name)) {
+                file.delete();
             }
         }
     }
@@ -293,9 +521,9 @@ public class ApkProtect {
     }
 
     //根据指令重写规则,重新生成新的opcode
-    private static void writeOpcodeHeaderFile(File source, InstructionRewriter instructionRewriter) throws IOException {
+    private static byte[] generateOpcodeHeader(byte[] source, InstructionRewriter instructionRewriter) throws IOException {
         final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(source), StandardCharsets.UTF_8));
+                new ByteArrayInputStream(source), StandardCharsets.UTF_8));
 
         final String collect = bufferedReader.lines().collect(Collectors.joining("\n"));
         final Pattern opcodePattern = Pattern.compile(
@@ -316,18 +544,16 @@ public class ApkProtect {
                 .matcher(headerContent)
                 .replaceAll(String.format("_name[kNumPackedOpcodes] = {        \\\\\n%s};\n", gotoTableContent));
 
-        try (FileWriter fileWriter = new FileWriter(source)) {
-            fileWriter.write(headerContent);
-        }
+        return headerContent.getBytes(StandardCharsets.UTF_8);
     }
 
     //读取证书信息,并把公钥写入签名验证文件里,运行时对apk进行签名校验
-    private static void writeApkVerifierFile(String packageName, File source, ApkVerifyCodeGenerator apkVerifyCodeGenerator) throws IOException {
+    private static byte[] generateApkVerifier(String packageName, byte[] source, ApkVerifyCodeGenerator apkVerifyCodeGenerator) throws IOException {
         if (apkVerifyCodeGenerator == null) {
-            return;
+            return source;
         }
         final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(source), StandardCharsets.UTF_8));
+                new ByteArrayInputStream(source), StandardCharsets.UTF_8));
 
         final String lines = bufferedReader.lines().collect(Collectors.joining("\n"));
         String dataPlaceHolder = "#define publicKeyPlaceHolder";
@@ -335,195 +561,171 @@ public class ApkProtect {
         String content = lines.replaceAll(dataPlaceHolder, dataPlaceHolder + apkVerifyCodeGenerator.generate());
         content = content.replaceAll("(#define PACKAGE_NAME) .*\n", "$1 \"" + packageName + "\"\n");
 
-        try (FileWriter fileWriter = new FileWriter(source)) {
-            fileWriter.write(content);
-        }
+        return content.getBytes(StandardCharsets.UTF_8);
     }
 
-    private static File dexWriteToFile(DexPool dexPool, int index, File dexOutDir) throws IOException {
-        if (!dexOutDir.exists()) dexOutDir.mkdirs();
-
-        File outDexFile;
+    private static String getDexFileName(int index) {
         if (index == 0) {
-            outDexFile = new File(dexOutDir, "classes.dex");
-        } else {
-            outDexFile = new File(dexOutDir, String.format("classes%d.dex", index + 1));
+            return "classes.dex";
+        }
+        return String.format("classes%d.dex", index + 1);
+    }
+
+    /**
+     * 生成一个分区的dex,估算的引用数量不包括注解等,实际溢出时剩下的类放到新的dex,
+     * 所以一个分区可能有多个dex.先写入临时文件,所有分区完成后再按顺序命名
+     */
+    private static List<File> writePartition(List<ClassDef> partition, int partitionIndex,
+                                             int maxPoolSize, File dexOutDir) throws IOException {
+        final List<File> files = new ArrayList<>();
+        DexPool dexPool = new DexPool(Opcodes.getDefault());
+        boolean empty = true;
+        for (ClassDef classDef : partition) {
+            dexPool.internClass(classDef);
+            empty = false;
+            if (dexPool.hasOverflowed(maxPoolSize)) {
+                files.add(writeTempDex(dexPool, partitionIndex, files.size(), dexOutDir));
+                dexPool = new DexPool(Opcodes.getDefault());
+                empty = true;
+            }
         }
-        dexPool.writeTo(new FileDataStore(outDexFile));
+        if (!empty) {
+            files.add(writeTempDex(dexPool, partitionIndex, files.size(), dexOutDir));
+        }
+        return files;
+    }
 
-        return outDexFile;
+    private static File writeTempDex(DexPool dexPool, int partitionIndex, int index, File dexOutDir) throws IOException {
+        final File file = new File(dexOutDir, String.format("partition%d_%d.dex.tmp", partitionIndex, index));
+        dexPool.writeTo(new FileDataStore(file));
+        return file;
     }
 
-    private static List<String> getApplicationClassesFromMainDex(GlobalDexConfig globalConfig, String applicationClass) throws IOException {
+    private static List<String> getApplicationClassesFromMainDex(GlobalDexConfig globalConfig, String applicationClass) {
         final List<String> mainDexClassList = new ArrayList<>();
         String tmpType = classDotNameToType(applicationClass);
         mainDexClassList.add(tmpType);
-        for (DexConfig config : globalConfig.getConfigs()) {
-            DexBackedDexFile dexFile = DexBackedDexFile.fromInputStream(
-                    Opcodes.getDefault(),
-                    new BufferedInputStream(new FileInputStream(config.getShellDexFile())));
-            final Set<? extends DexBackedClassDef> classes = dexFile.getClasses();
-            ClassDef classDef;
-            while (true) {
-                classDef = getClassDefFromType(classes, tmpType);
-                if (classDef == null) {
-                    break;
-                }
-                if (classDotNameToType(ANDROID_APP_APPLICATION).equals(classDef.getSuperclass())) {
-                    return mainDexClassList;
-                }
-                tmpType = classDef.getSuperclass();
-                mainDexClassList.add(tmpType);
+        final ClassHierarchy hierarchy = globalConfig.getClassHierarchy();
+        for (String superclass : hierarchy.getSuperclasses(tmpType)) {
+            if (!hierarchy.contains(tmpType)) {
+                break;
             }
-
-
-        }
-        return mainDexClassList;
-    }
-
-    private static ClassDef getClassDefFromType(Set<? extends ClassDef> classDefSet, String type) {
-        for (ClassDef classDef : classDefSet) {
-            if (classDef.getType().equals(type)) {
-                return classDef;
+            if (classDotNameToType(ANDROID_APP_APPLICATION).equals(superclass)) {
+                break;
             }
+            mainDexClassList.add(superclass);
+            tmpType = superclass;
         }
-        return null;
+        return mainDexClassList;
     }
 
     /**
      * 给处理过的class注入静态初始化方法,同时dex适当拆分防止dex索引异常
-     * 不缓存写好的dexpool,每次切换dexpool时马上把失效的dexpool写入文件,减小内存占用
+     * 先根据每个类的引用数量确定每个dex包含哪些类,再生成dexpool写入文件.
+     * 主dex里同时处理so加载问题,不用写入后再重新生成
      *
      * @param globalConfig
      * @param mainClassSet
+     * @param appType      manifest里application对应的类型,它或者它的父类加载so
      * @param maxPoolSize
      * @param dexOutDir
+     * @param executor     不为null时所有dex同时生成,否则逐个生成,同时只有一个dexpool在内存中
      * @return
      * @throws IOException
      */
     private static ArrayList<File> injectInstructionAndWriteToFile(GlobalDexConfig globalConfig,
                                                                    Set<String> mainClassSet,
+                                                                   String appType,
                                                                    int maxPoolSize,
-                                                                   File dexOutDir
+                                                                   File dexOutDir,
+                                                                   @Nullable ExecutorService executor
     ) throws IOException {
-
-        final ArrayList<File> dexFiles = new ArrayList<>();
-
-        DexPool lastDexPool = new DexPool(Opcodes.getDefault());
-
+        final DexPacker packer = new DexPacker(maxPoolSize);
         final List<DexConfig> configs = globalConfig.getConfigs();
         //第一个dex为main dex
         //提前处理主dex里的类
         for (DexConfig config : configs) {
-
-            DexBackedDexFile dexNativeFile = DexBackedDexFile.fromInputStream(
-                    Opcodes.getDefault(),
-                    new BufferedInputStream(new FileInputStream(config.getShellDexFile())));
-
-            for (ClassDef classDef : dexNativeFile.getClasses()) {
+            for (ClassDef classDef : config.getShellDex().getClasses()) {
                 if (mainClassSet.contains(classDef.getType())) {
-                    Dex2c.internClass(config, lastDexPool, classDef);
+                    packer.addMainClass(Dex2c.getRegisterNativesClassDef(config, classDef));
                 }
             }
-
         }
-
-        for (int i = 0; i < configs.size(); i++) {
-            DexConfig config = configs.get(i);
-            final List<DexPool> retPools = Dex2c.injectCallRegisterNativeInsns(config, lastDexPool, mainClassSet, maxPoolSize);
-            if (retPools.isEmpty()) {
-                throw new RuntimeException("Dex inject instruction error");
-            }
-            if (retPools.size() > 1) {
-                for (int k = 0; k < retPools.size() - 1; k++) {
-                    final int size = dexFiles.size();
-                    final File file = dexWriteToFile(retPools.get(k), size, dexOutDir);
-                    dexFiles.add(file);
-                }
-
-                lastDexPool = retPools.get(retPools.size() - 1);
-                if (i == configs.size() - 1) {
-                    final int size = dexFiles.size();
-                    final File file = dexWriteToFile(lastDexPool, size, dexOutDir);
-                    dexFiles.add(file);
+        for (DexConfig config : configs) {
+            for (ClassDef classDef : config.getShellDex().getClasses()) {
+                if (!mainClassSet.contains(classDef.getType())) {
+                    packer.addClass(Dex2c.getRegisterNativesClassDef(config, classDef));
                 }
-            } else {
-                final int size = dexFiles.size();
-                final File file = dexWriteToFile(retPools.get(0), size, dexOutDir);
-                dexFiles.add(file);
+            }
+        }
+        final List<List<ClassDef>> partitions = new ArrayList<>(packer.pack());
+        partitions.set(0, getMainDexClasses(partitions.get(0), appType, globalConfig));
 
+        if (!dexOutDir.exists()) dexOutDir.mkdirs();
+        final List<List<File>> partitionFiles;
+        if (executor == null) {
+            partitionFiles = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                partitionFiles.add(writePartition(partitions.get(i), i, maxPoolSize, dexOutDir));
+            }
+        } else {
+            final List<Future<List<File>>> futures = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> writePartition(partitions.get(index), index, maxPoolSize, dexOutDir)));
+            }
+            partitionFiles = ConcurrentUtils.getAll(futures);
+        }
 
-                lastDexPool = new DexPool(Opcodes.getDefault());
+        //按分区顺序命名,和是否并行无关
+        final ArrayList<File> dexFiles = new ArrayList<>();
+        for (List<File> files : partitionFiles) {
+            for (File file : files) {
+                final File dexFile = new File(dexOutDir, getDexFileName(dexFiles.size()));
+                Files.move(file.toPath(), dexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                dexFiles.add(dexFile);
             }
         }
+        if (dexFiles.isEmpty()) {
+            throw new RuntimeException("Dex inject instruction error");
+        }
 
         return dexFiles;
     }
 
+    //主dex里添加android.app.Application的子类加载so,及注册本地方法的工具类
+    private static List<ClassDef> getMainDexClasses(List<ClassDef> classes, String appType, GlobalDexConfig globalConfig) {
+        final ArrayList<String> nativeMethodNames = new ArrayList<>();
+        for (DexConfig config : globalConfig.getConfigs()) {
+            nativeMethodNames.add(config.getRegisterNativesMethodName());
+        }
+        final List<ClassDef> mainClasses = new ArrayList<>(classes.size() + 2);
+        //放在最前面,实际溢出时也在主dex里
+        mainClasses.add(new RegisterNativesUtilClassDef("L" + globalConfig.getConfigs().get(0).getRegisterNativesClassName() + ";",
+                nativeMethodNames));
+        mainClasses.addAll(Dex2c.addApplicationClass(classes, appType));
+        return mainClasses;
+    }
+
     /**
-     * @param manifestBytes        二进制androidManifest.xml文件内容
-     * @param applicationClassName application对应的class全限定名
-     * @param dexList              dex列表，索引0为主dex,索引0位置会被修改
-     * @param outDir               处理后输出androidManifest.xml的目录
+     * @param manifestBytes      二进制androidManifest.xml文件内容
+     * @param applicationClassName application对应的class全限定名,和原来不同时修改manifest
+     * @param outDir             处理后输出androidManifest.xml的目录
      * @return 返回新二进制xml文件
      * @throws IOException
      */
     private static File handleApplicationClass(byte[] manifestBytes,
                                                String applicationClassName,
-                                               ArrayList<File> dexList,
-                                               GlobalDexConfig globalConfig,
                                                File outDir) throws IOException {
-        String newAppClassName;
         byte[] newManifest = manifestBytes;
-        if (applicationClassName.equals(ANDROID_APP_APPLICATION)) {
-            newAppClassName = "com.nmmedit.protect.LoadLibApp";
-
+        if (applicationClassName.equals(LOAD_LIB_APP)) {
             //修改AndroidManifest.xml里application对应的class路径
-            byte[] bytes = AxmlEdit.renameApplicationName(manifestBytes, newAppClassName);
+            byte[] bytes = AxmlEdit.renameApplicationName(manifestBytes, applicationClassName);
             if (bytes != null) {
                 newManifest = bytes;
             }
-        } else {
-            newAppClassName = applicationClassName;
-        }
-
-        //添加android.app.Application的子类
-
-        //主dex里处理so加载问题
-        File mainDex = dexList.get(0);
-
-        DexFile mainDexFile = DexBackedDexFile.fromInputStream(
-                Opcodes.getDefault(),
-                new BufferedInputStream(new FileInputStream(mainDex)));
-
-        DexPool newDex = new DexPool(Opcodes.getDefault());
-
-        Dex2c.addApplicationClass(
-                mainDexFile,
-                newDex,
-                classDotNameToType(newAppClassName));
-
-        final ArrayList<String> nativeMethodNames = new ArrayList<>();
-        for (DexConfig config : globalConfig.getConfigs()) {
-            nativeMethodNames.add(config.getRegisterNativesMethodName());
         }
 
-
-        newDex.internClass(
-                new RegisterNativesUtilClassDef("L" + globalConfig.getConfigs().get(0).getRegisterNativesClassName() + ";",
-                        nativeMethodNames));
-
-        //不知道为什么windows下删除mainDex会报错，所以改为不删除mainDex，而是把新的dex写入新文件，之后再替换原本mainDex文件
-        //处理后的dex写入新的文件中，同时替换主dex，dexList索引0为主dex
-
-        final File injectLoadLib = new File(mainDex.getParent(), "injectLoadLib");
-        if (!injectLoadLib.exists()) injectLoadLib.mkdirs();
-
-        final File newFile = new File(injectLoadLib, mainDex.getName());
-        newDex.writeTo(new FileDataStore(newFile));
-        //替换原本的mainDex文件
-        dexList.set(0, newFile);
-
         //写入新manifest文件
         File newManifestFile = new File(outDir, ANDROID_MANIFEST_XML);
         try (
@@ -534,73 +736,22 @@ public class ApkProtect {
         return newManifestFile;
     }
 
-    //只解压不需要处理的文件
-    private static HashMap<ZipEntry, File> zipExtractNeedCopy(ZipInputStream zipInputStream, File outDir) throws IOException {
+    //不需要处理的文件直接复制压缩后的数据,不用解压再压缩
+    private static void zipCopy(RawZipFile zipInput, RawZipWriter zipOutput) throws IOException {
         //除去一些需要修改的文件
         final Pattern regex = Pattern.compile(
                 "classes(\\d)*\\.dex" +
                         "|META-INF/.*\\.(RSA|DSA|EC|SF|MF)" +
                         "|AndroidManifest\\.xml");
-        final HashMap<ZipEntry, File> entryNameFileMap = new HashMap<>();
-        ZipEntry entry;
-        while ((entry = zipInputStream.getNextEntry()) != null) {
+        for (RawZipFile.Entry entry : zipInput.getEntries()) {
             if (entry.isDirectory()
-                    || "".equals(entry.getName())) {
+                    || "".equals(entry.name)) {
                 continue;
             }
-            if (regex.matcher(entry.getName()).matches()) {
+            if (regex.matcher(entry.name).matches()) {
                 continue;
             }
-
-            final File file = new File(outDir, entry.getName());
-            if (!file.getParentFile().exists()) {
-                file.getParentFile().mkdirs();
-            }
-            try (final FileOutputStream out = new FileOutputStream(file)) {
-                FileUtils.copyStream(zipInputStream, out);
-                entryNameFileMap.put(entry, file);
-            }
-        }
-
-        return entryNameFileMap;
-    }
-
-    private static void zipCopy(ZipInputStream zipInputStream, File tempDir, ZipOutputStream zipOutputStream) throws IOException {
-
-        //解压需要从旧zip复制到新zip的文件
-        final HashMap<ZipEntry, File> entries = zipExtractNeedCopy(zipInputStream, tempDir);
-        for (Map.Entry<ZipEntry, File> entryFile : entries.entrySet()) {
-            final ZipEntry entry = entryFile.getKey();
-            final File file = entryFile.getValue();
-
-
-            final ZipEntry zipEntry = new ZipEntry(entry.getName());
-            if (entry.getMethod() == ZipEntry.STORED) {//不压缩只储存数据
-                final long length = file.length();
-                zipEntry.setMethod(ZipEntry.STORED);
-                zipEntry.setCrc(calcCrc32(file));
-                zipEntry.setSize(length);
-                zipEntry.setCompressedSize(length);
-            }
-
-            zipOutputStream.putNextEntry(zipEntry);
-
-            try (final FileInputStream fileIn = new FileInputStream(file)) {
-                FileUtils.copyStream(fileIn, zipOutputStream);
-            }
-            zipOutputStream.closeEntry();
-        }
-    }
-
-    private static long calcCrc32(File file) throws IOException {
-        try (InputStream inputStream = new FileInputStream(file)) {
-            final byte[] buf = new byte[1024 * 4];
-            final CRC32 crc32 = new CRC32();
-            int len;
-            while ((len = inputStream.read(buf, 0, buf.length)) != -1) {
-                crc32.update(buf, 0, len);
-            }
-            return crc32.getValue();
+            zipOutput.copyEntry(zipInput, entry);
         }
     }
 
@@ -630,6 +781,18 @@ public class ApkProtect {
         private InstructionRewriter instructionRewriter;
         private ApkVerifyCodeGenerator apkVerifyCodeGenerator;
         private ClassAndMethodFilter filter;
+        private ExecutorService executor;
+        private boolean parallelDexWrite;
+        private int nativeBuildJobs = Runtime.getRuntime().availableProcessors();
+        private NativeBuildScheduler buildScheduler;
+        private DexConvertCache convertCache;
+        private int nativeShards = 1;
+        private boolean dataBlob;
+        private boolean globalPool;
+        private boolean incrementalBuild;
+        private String compilerLauncher;
+        private ConfigSnapshot config;
+        private StartupFilter startupFilter;
 
 
         public Builder(ApkFolders apkFolders) {
@@ -651,11 +814,124 @@ public class ApkProtect {
             return this;
         }
 
+        /**
+         * 设置后多个dex并行转换,线程池由调用者负责关闭
+         * 并行时filter会被多个线程同时调用
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 确定每个输出dex包含的类后,在executor里同时生成及写入所有dex,需要同时设置executor.
+         * 同时存在多个DexPool,内存占用更大
+         */
+        public Builder setParallelDexWrite(boolean parallelDexWrite) {
+            this.parallelDexWrite = parallelDexWrite;
+            return this;
+        }
+
+        /**
+         * 编译本地库时所有abi加起来最多同时运行的编译任务数,默认为cpu核数
+         */
+        public Builder setNativeBuildJobs(int nativeBuildJobs) {
+            this.nativeBuildJobs = nativeBuildJobs;
+            return this;
+        }
+
+        /**
+         * 多个ApkProtect共用同一个编译调度器,同时运行时总编译任务数也不超过它的上限,
+         * 设置后忽略{@link #setNativeBuildJobs(int)}
+         */
+        public Builder setNativeBuildScheduler(NativeBuildScheduler buildScheduler) {
+            this.buildScheduler = buildScheduler;
+            return this;
+        }
+
+        /**
+         * 缓存每个dex的转换结果,多次保护同一个apk时只需转换改变了的dex
+         */
+        public Builder setConvertCache(DexConvertCache convertCache) {
+            this.convertCache = convertCache;
+            return this;
+        }
+
+        /**
+         * 每个dex的本地方法分散到多个c文件,大dex可以利用多核并行编译,默认为1
+         */
+        public Builder setNativeShards(int nativeShards) {
+            this.nativeShards = nativeShards;
+            return this;
+        }
+
+        /**
+         * 字节码及常量池不生成c数组,写入二进制文件通过.incbin链接,大幅减少编译时间及内存
+         */
+        public Builder setDataBlob(boolean dataBlob) {
+            this.dataBlob = dataBlob;
+            return this;
+        }
+
+        /**
+         * 所有dex共用一个常量池及符号解析器,减小so大小,相同的方法和域在运行时只解析一次.
+         * 生成的代码依赖所有dex,不使用转换缓存
+         */
+        public Builder setGlobalPool(boolean globalPool) {
+            this.globalPool = globalPool;
+            return this;
+        }
+
+        /**
+         * 增量编译,保留上次的cmake编译目录,只有内容改变了的c文件才会重新编译.
+         * 指令重写器需要使用固定的随机种子,否则opcode表每次不同,所有c文件都会重新编译,
+         * 可以把种子保存在{@link ApkFolders#getOpcodeSeedFile()}
+         */
+        public Builder setIncrementalBuild(boolean incrementalBuild) {
+            this.incrementalBuild = incrementalBuild;
+            return this;
+        }
+
+        /**
+         * 编译器启动器,比如ccache路径,用于缓存编译出的目标文件
+         */
+        public Builder setCompilerLauncher(String compilerLauncher) {
+            this.compilerLauncher = compilerLauncher;
+            return this;
+        }
+
+        /**
+         * 使用指定的配置,没有设置则使用{@link Prefs#snapshot()}
+         */
+        public Builder setConfig(ConfigSnapshot config) {
+            this.config = config;
+            return this;
+        }
+
+        /**
+         * 从manifest里冷启动时创建的组件(application,provider,启动activity)的入口方法开始,
+         * 最多经过{@link StartupFilter#getMaxDepth()}层调用能执行到的方法不转换.默认为null,不分析启动路径.
+         * startupFilter必须已经在{@link #setFilter(ClassAndMethodFilter)}设置的过滤规则里
+         */
+        public Builder setStartupFilter(StartupFilter startupFilter) {
+            this.startupFilter = startupFilter;
+            return this;
+        }
+
         public ApkProtect build() {
             if (instructionRewriter == null) {
                 throw new RuntimeException("instructionRewriter == null");
             }
-            return new ApkProtect(apkFolders, instructionRewriter, apkVerifyCodeGenerator, filter);
+            if (nativeShards < 1) {
+                throw new RuntimeException("nativeShards < 1");
+            }
+            return new ApkProtect(apkFolders, instructionRewriter, apkVerifyCodeGenerator, filter, executor, parallelDexWrite,
+                    buildScheduler != null ? buildScheduler : new NativeBuildScheduler(nativeBuildJobs),
+                    convertCache,
+                    new NativeCodeOptions(nativeShards, dataBlob, globalPool),
+                    incrementalBuild, compilerLauncher,
+                    config != null ? config : Prefs.snapshot(),
+                    startupFilter);
         }
     }
 }
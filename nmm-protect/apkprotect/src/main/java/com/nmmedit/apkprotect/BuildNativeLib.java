@@ -1,35 +1,53 @@
 package com.nmmedit.apkprotect;
 
+import com.nmmedit.apkprotect.data.ConfigSnapshot;
 import com.nmmedit.apkprotect.data.Prefs;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 public class BuildNativeLib {
 
     //编译出native lib，同时返回最后的so文件
     public static List<File> build(@NotNull CMakeOptions options) throws IOException {
+        return build(options, 0);
+    }
+
+    /**
+     * 编译出native lib，同时返回最后的so文件
+     *
+     * @param options cmake配置
+     * @param jobs    ninja并行任务数,小于等于0则使用ninja默认值
+     */
+    public static List<File> build(@NotNull CMakeOptions options, int jobs) throws IOException {
+        final String tag = options.getAbi();
 
         final List<String> cmakeArguments = options.getCmakeArguments();
         //cmake
-        execCmd(cmakeArguments);
+        execCmd(tag, cmakeArguments, Collections.emptyMap());
 
-        //cmake --build <dir>
-        execCmd(Arrays.asList(
+        //cmake --build <dir> [-- -j<jobs>]
+        final List<String> buildCmds = new ArrayList<>(Arrays.asList(
                 options.getCmakeBinaryPath(),
                 "--build",
                 options.getBuildPath()
         ));
+        if (jobs > 0) {
+            buildCmds.add("--");
+            buildCmds.add("-j" + jobs);
+        }
+        execCmd(tag, buildCmds, options.getBuildEnvironment());
         //strip
         final List<File> sharedObjectPath = options.getSharedObjectFile();
         for (File file : sharedObjectPath) {
-            execCmd(Arrays.asList(
+            execCmd(tag, Arrays.asList(
                     options.getStripBinaryPath(),
                     "--strip-unneeded",
                     file.getAbsolutePath()
-                    )
+                    ),
+                    Collections.emptyMap()
             );
         }
 
@@ -37,32 +55,45 @@ public class BuildNativeLib {
         return sharedObjectPath;
     }
 
-    private static void execCmd(List<String> cmds) throws IOException {
+    private static void execCmd(String tag, List<String> cmds, Map<String, String> env) throws IOException {
         System.out.println(cmds);
         final ProcessBuilder builder = new ProcessBuilder()
                 .command(cmds);
+        builder.environment().putAll(env);
 
         final Process process = builder.start();
 
-        printOutput(process.getInputStream());
-        printOutput(process.getErrorStream());
+        //分别在不同线程读取stdout和stderr,防止某个输出缓冲区满了导致进程卡住
+        final Thread stdout = printOutput(tag, process.getInputStream(), System.out);
+        final Thread stderr = printOutput(tag, process.getErrorStream(), System.err);
 
         try {
             final int exitStatus = process.waitFor();
+            stdout.join();
+            stderr.join();
             if (exitStatus != 0) {
                 throw new IOException(String.format("Cmd '%s' exec failed", cmds.toString()));
             }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Cmd '%s' interrupted", cmds.toString()));
         }
     }
 
-    private static void printOutput(InputStream inputStream) throws IOException {
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            System.out.println(line);
-        }
+    private static Thread printOutput(String tag, InputStream inputStream, PrintStream out) {
+        final Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    out.println("[" + tag + "] " + line);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "output-" + tag);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
     }
 
     /**
@@ -81,6 +112,13 @@ public class BuildNativeLib {
 
         private final String abi;
 
+        //编译器启动器,比如ccache,为null则直接调用编译器
+        @Nullable
+        private final String compilerLauncher;
+
+        //ndk主机系统名等配置
+        private final ConfigSnapshot config;
+
         public CMakeOptions(String cmakePath,
                             String sdkHome,
                             String ndkHome,
@@ -88,6 +126,29 @@ public class BuildNativeLib {
                             String projectHome,
                             BuildType buildType,
                             String abi) {
+            this(cmakePath, sdkHome, ndkHome, apiLevel, projectHome, buildType, abi, null);
+        }
+
+        public CMakeOptions(String cmakePath,
+                            String sdkHome,
+                            String ndkHome,
+                            int apiLevel,
+                            String projectHome,
+                            BuildType buildType,
+                            String abi,
+                            @Nullable String compilerLauncher) {
+            this(cmakePath, sdkHome, ndkHome, apiLevel, projectHome, buildType, abi, compilerLauncher, Prefs.snapshot());
+        }
+
+        public CMakeOptions(String cmakePath,
+                            String sdkHome,
+                            String ndkHome,
+                            int apiLevel,
+                            String projectHome,
+                            BuildType buildType,
+                            String abi,
+                            @Nullable String compilerLauncher,
+                            @NotNull ConfigSnapshot config) {
             this.cmakePath = cmakePath;
             this.sdkHome = sdkHome;
             this.ndkHome = ndkHome;
@@ -95,6 +156,8 @@ public class BuildNativeLib {
             this.projectHome = projectHome;
             this.buildType = buildType;
             this.abi = abi;
+            this.compilerLauncher = compilerLauncher;
+            this.config = config;
         }
 
         public String getCmakePath() {
@@ -125,6 +188,11 @@ public class BuildNativeLib {
             return abi;
         }
 
+        @Nullable
+        public String getCompilerLauncher() {
+            return compilerLauncher;
+        }
+
         public String getLibOutputDir() {
             return new File(new File(getProjectHome(), "obj"), abi).getAbsolutePath();
         }
@@ -141,16 +209,16 @@ public class BuildNativeLib {
             switch (abi) {
                 case "armeabi-v7a":
                     return new File(getNdkHome(), "/toolchains/arm-linux-androideabi-4.9/prebuilt/" +
-                            Prefs.osName() + "/bin/arm-linux-androideabi-strip").getAbsolutePath();
+                            config.osName() + "/bin/arm-linux-androideabi-strip").getAbsolutePath();
                 case "arm64-v8a":
                     return new File(getNdkHome(), "/toolchains/aarch64-linux-android-4.9/prebuilt/" +
-                            Prefs.osName() + "/bin/aarch64-linux-android-strip").getAbsolutePath();
+                            config.osName() + "/bin/aarch64-linux-android-strip").getAbsolutePath();
                 case "x86":
                     return new File(getNdkHome(), "/toolchains/x86-4.9/prebuilt/" +
-                            Prefs.osName() + "/bin/i686-linux-android-strip").getAbsolutePath();
+                            config.osName() + "/bin/i686-linux-android-strip").getAbsolutePath();
                 case "x86_64":
                     return new File(getNdkHome(), "/toolchains/x86_64-4.9/prebuilt/" +
-                            Prefs.osName() + "/bin/x86_64-linux-android-strip").getAbsolutePath();
+                            config.osName() + "/bin/x86_64-linux-android-strip").getAbsolutePath();
             }
             //不支持arm和x86以外的abi
             throw new RuntimeException("Unsupported abi " + abi);
@@ -165,7 +233,7 @@ public class BuildNativeLib {
         }
 
         public List<String> getCmakeArguments() {
-            return Arrays.asList(
+            final List<String> arguments = new ArrayList<>(Arrays.asList(
                     getCmakeBinaryPath(),
                     String.format("-H%s", new File(getProjectHome(), "dex2c").getAbsoluteFile()),
                     String.format("-DCMAKE_TOOLCHAIN_FILE=%s", new File(getNdkHome(), "/build/cmake/android.toolchain.cmake").getAbsoluteFile()),
@@ -181,7 +249,31 @@ public class BuildNativeLib {
                     "-DCMAKE_SYSTEM_NAME=Android",
                     String.format("-DCMAKE_SYSTEM_VERSION=%d", getApiLevel()),
                     String.format("-B%s", getBuildPath()),
-                    "-GNinja");
+                    "-GNinja"));
+            if (compilerLauncher != null) {
+                //ccache根据预处理后的代码及编译参数缓存目标文件,多个项目及abi可以共用
+                arguments.add(String.format("-DCMAKE_C_COMPILER_LAUNCHER=%s", compilerLauncher));
+                arguments.add(String.format("-DCMAKE_CXX_COMPILER_LAUNCHER=%s", compilerLauncher));
+            }
+            return arguments;
+        }
+
+        /**
+         * cmake --build 需要额外设置的环境变量
+         */
+        public Map<String, String> getBuildEnvironment() {
+            if (compilerLauncher == null) {
+                return Collections.emptyMap();
+            }
+            final Map<String, String> env = new HashMap<>();
+            //使用相对路径计算hash,不同输出目录的项目也能命中缓存
+            if (System.getenv("CCACHE_BASEDIR") == null) {
+                env.put("CCACHE_BASEDIR", new File(getProjectHome()).getAbsolutePath());
+            }
+            if (System.getenv("CCACHE_NOHASHDIR") == null) {
+                env.put("CCACHE_NOHASHDIR", "true");
+            }
+            return env;
         }
 
         //最后输出的so文件
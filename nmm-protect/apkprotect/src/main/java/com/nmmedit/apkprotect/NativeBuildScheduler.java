@@ -0,0 +1,153 @@
+package com.nmmedit.apkprotect;
+
+import com.nmmedit.apkprotect.metrics.ProtectMetrics;
+import com.nmmedit.apkprotect.util.ConcurrentUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 同时编译多个abi的本地库,所有abi共用一个并行任务数上限,
+ * 平均分给每个abi的ninja(-j),避免abi数乘以cpu数个编译进程同时运行
+ * 多个任务共用同一个实例时,每个abi编译前从共用的任务数里取得自己的份额,取得几个-j就是几,
+ * 空闲的任务数可以给其他任务使用,总任务数同样不超过上限
+ */
+public class NativeBuildScheduler {
+    private final int maxJobs;
+    //剩余的编译任务数,按等待顺序分配
+    private final Semaphore tokens;
+
+    /**
+     * @param maxJobs 所有abi加起来最多同时运行的编译任务数
+     */
+    public NativeBuildScheduler(int maxJobs) {
+        if (maxJobs < 1) {
+            throw new RuntimeException("maxJobs < 1");
+        }
+        this.maxJobs = maxJobs;
+        this.tokens = new Semaphore(maxJobs, true);
+    }
+
+    public NativeBuildScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getMaxJobs() {
+        return maxJobs;
+    }
+
+    /**
+     * 同时编译所有abi,返回结果顺序和optionsList一致
+     */
+    @Nonnull
+    public List<AbiResult> build(@Nonnull List<BuildNativeLib.CMakeOptions> optionsList) throws IOException {
+        return build(optionsList, null);
+    }
+
+    /**
+     * @param metrics 不为null时记录每个abi编译的统计数据
+     */
+    @Nonnull
+    public List<AbiResult> build(@Nonnull List<BuildNativeLib.CMakeOptions> optionsList,
+                                 @Nullable ProtectMetrics metrics) throws IOException {
+        final int abiCount = optionsList.size();
+        if (abiCount == 0) {
+            return new ArrayList<>();
+        }
+        //abi数超过任务数上限时后面的abi排队等待
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(abiCount, maxJobs));
+        try {
+            final List<Future<AbiResult>> futures = new ArrayList<>();
+            for (int i = 0; i < abiCount; i++) {
+                final BuildNativeLib.CMakeOptions options = optionsList.get(i);
+                final int wantedJobs = jobsForAbi(i, abiCount);
+                futures.add(executor.submit(() -> {
+                    final int jobs = acquireJobs(wantedJobs);
+                    try {
+                        return buildAbi(options, jobs, metrics);
+                    } finally {
+                        releaseJobs(jobs);
+                    }
+                }));
+            }
+            return ConcurrentUtils.getAll(futures);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 至少等到一个任务数,再取得剩余的,最多wanted个,不等其他编译释放
+     *
+     * @return 取得的任务数, 用完后必须调用{@link #releaseJobs(int)}
+     */
+    int acquireJobs(int wanted) throws InterruptedIOException {
+        try {
+            tokens.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for native build");
+        }
+        int acquired = 1;
+        //有其他编译在等待时不再多拿
+        while (acquired < wanted && !tokens.hasQueuedThreads() && tokens.tryAcquire()) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    void releaseJobs(int jobs) {
+        tokens.release(jobs);
+    }
+
+    //任务数平均分配给同时编译的abi,余数分给前面的abi;abi数超过上限时每个abi一个任务,同时只编译maxJobs个abi
+    int jobsForAbi(int index, int abiCount) {
+        final int concurrent = Math.min(abiCount, maxJobs);
+        final int jobs = maxJobs / concurrent;
+        final int remainder = maxJobs % concurrent;
+        return jobs + (index < remainder ? 1 : 0);
+    }
+
+    private static AbiResult buildAbi(BuildNativeLib.CMakeOptions options, int jobs,
+                                      @Nullable ProtectMetrics metrics) throws IOException {
+        final ProtectMetrics.Stage stage = metrics != null ? metrics.stage("nativeBuild:" + options.getAbi()) : null;
+        final long start = System.nanoTime();
+        final List<File> files;
+        try {
+            files = BuildNativeLib.build(options, jobs);
+            if (stage != null) {
+                for (File file : files) {
+                    stage.addBytesWritten(file.length());
+                }
+            }
+        } finally {
+            if (stage != null) stage.close();
+        }
+        final long wallTimeMillis = (System.nanoTime() - start) / 1000000;
+        System.out.printf("Build %s (-j%d) finished in %d ms%n", options.getAbi(), jobs, wallTimeMillis);
+        return new AbiResult(options.getAbi(), files, wallTimeMillis);
+    }
+
+    public static class AbiResult {
+        public final String abi;
+        //编译得到的so
+        public final List<File> files;
+        //configure,build及strip总耗时
+        public final long wallTimeMillis;
+
+        AbiResult(String abi, List<File> files, long wallTimeMillis) {
+            this.abi = abi;
+            this.files = files;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+    }
+}
@@ -3,8 +3,12 @@ package com.nmmedit.apkprotect.andres;
 import apk.arsc.*;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class AxmlEdit {
 
@@ -51,6 +55,88 @@ public class AxmlEdit {
         return "";
     }
 
+    /**
+     * 应用冷启动时会执行的组件类名:application,所有provider及启动activity(包括activity-alias指向的activity).
+     * 相对类名会加上包名
+     */
+    @Nonnull
+    public static List<String> getStartupComponents(@Nonnull byte[] manifestBytes) {
+        final String packageName = getPackageName(manifestBytes);
+        final Set<String> components = new LinkedHashSet<>();
+        ResourceFile file = new ResourceFile(manifestBytes);
+        for (Chunk chunk : file.getChunks()) {
+            if (!(chunk instanceof XmlChunk)) {
+                continue;
+            }
+            //当前所在的activity及intent-filter是否为启动入口
+            String activity = null;
+            boolean main = false;
+            boolean launcher = false;
+            for (Chunk subChunk : ((XmlChunk) chunk).getChunks().values()) {
+                if (subChunk instanceof XmlStartElementChunk) {
+                    final XmlStartElementChunk element = (XmlStartElementChunk) subChunk;
+                    final String name = getStringAttribute(element, "name");
+                    switch (element.getName()) {
+                        case "application":
+                        case "provider":
+                            if (name != null) {
+                                components.add(fullClassName(packageName, name));
+                            }
+                            break;
+                        case "activity":
+                            activity = name;
+                            break;
+                        case "activity-alias":
+                            activity = getStringAttribute(element, "targetActivity");
+                            break;
+                        case "intent-filter":
+                            main = false;
+                            launcher = false;
+                            break;
+                        case "action":
+                            main |= "android.intent.action.MAIN".equals(name);
+                            break;
+                        case "category":
+                            launcher |= "android.intent.category.LAUNCHER".equals(name);
+                            break;
+                    }
+                } else if (subChunk instanceof XmlEndElementChunk) {
+                    final String elementName = ((XmlEndElementChunk) subChunk).getName();
+                    if ("intent-filter".equals(elementName)) {
+                        if (activity != null && main && launcher) {
+                            components.add(fullClassName(packageName, activity));
+                        }
+                    } else if ("activity".equals(elementName) || "activity-alias".equals(elementName)) {
+                        activity = null;
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(components);
+    }
+
+    @Nullable
+    private static String getStringAttribute(@Nonnull XmlStartElementChunk element, @Nonnull String attrName) {
+        for (XmlAttribute attribute : element.getAttributes()) {
+            if (attribute.name().equals(attrName) &&
+                    attribute.typedValue().type() == ResourceValue.Type.STRING) {
+                return attribute.rawValue();
+            }
+        }
+        return null;
+    }
+
+    //".Foo"及"Foo"这样的类名需要加上包名
+    private static String fullClassName(String packageName, String className) {
+        if (className.startsWith(".")) {
+            return packageName + className;
+        }
+        if (className.indexOf('.') == -1) {
+            return packageName + "." + className;
+        }
+        return className;
+    }
+
     /**
      * 修改manifest.xml同时返回修改后的字节数组
      *
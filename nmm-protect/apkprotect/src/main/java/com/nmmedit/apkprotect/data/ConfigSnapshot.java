@@ -0,0 +1,77 @@
+package com.nmmedit.apkprotect.data;
+
+import com.nmmedit.apkprotect.data.config.Config;
+
+import javax.annotation.Nonnull;
+
+/**
+ * config.json的不可变快照,读取解析一次后多个任务及线程共用
+ */
+public final class ConfigSnapshot {
+    private final boolean arm;
+    private final boolean arm64;
+    private final boolean x86;
+    private final boolean x64;
+    private final String sdkPath;
+    private final String cmakePath;
+    private final String ndkPath;
+    private final String osName;
+
+    public ConfigSnapshot(boolean arm, boolean arm64, boolean x86, boolean x64,
+                          String sdkPath, String cmakePath, String ndkPath, String osName) {
+        this.arm = arm;
+        this.arm64 = arm64;
+        this.x86 = x86;
+        this.x64 = x64;
+        this.sdkPath = sdkPath;
+        this.cmakePath = cmakePath;
+        this.ndkPath = ndkPath;
+        this.osName = osName;
+    }
+
+    public static ConfigSnapshot of(@Nonnull Config config) {
+        final boolean hasAbi = config.abi != null;
+        final boolean hasPath = config.path != null;
+        return new ConfigSnapshot(
+                hasAbi && config.abi.arm,
+                hasAbi && config.abi.arm64,
+                hasAbi && config.abi.x86,
+                hasAbi && config.abi.x64,
+                hasPath ? config.path.sdk : null,
+                hasPath ? config.path.cmake : null,
+                hasPath ? config.path.ndk : null,
+                config.ndk != null ? config.ndk.osName : null);
+    }
+
+    public boolean isArm() {
+        return arm;
+    }
+
+    public boolean isArm64() {
+        return arm64;
+    }
+
+    public boolean isX86() {
+        return x86;
+    }
+
+    public boolean isX64() {
+        return x64;
+    }
+
+    public String sdkPath() {
+        return sdkPath;
+    }
+
+    public String cmakePath() {
+        return cmakePath;
+    }
+
+    public String ndkPath() {
+        return ndkPath;
+    }
+
+    public String osName() {
+        return osName;
+    }
+}
@@ -37,35 +37,56 @@ public class Prefs {
         }
     }
 
+    //最近一次读取的快照及对应config.json的修改时间和大小,文件改变时重新读取
+    private static ConfigSnapshot snapshot;
+    private static long snapshotModified;
+    private static long snapshotLength;
+
+    /**
+     * 返回缓存的配置快照,只有config.json改变后才会重新读取解析
+     */
+    public static synchronized ConfigSnapshot snapshot() {
+        final File configFile = new File(CONFIG_PATH);
+        if (snapshot == null
+                || configFile.lastModified() != snapshotModified
+                || configFile.length() != snapshotLength) {
+            final Config config = config();
+            snapshot = ConfigSnapshot.of(config);
+            snapshotModified = configFile.lastModified();
+            snapshotLength = configFile.length();
+        }
+        return snapshot;
+    }
+
     public static boolean isArm() {
-        return config().abi.arm;
+        return snapshot().isArm();
     }
 
     public static boolean isArm64() {
-        return config().abi.arm64;
+        return snapshot().isArm64();
     }
 
     public static boolean isX86() {
-        return config().abi.x86;
+        return snapshot().isX86();
     }
 
     public static boolean isX64() {
-        return config().abi.x64;
+        return snapshot().isX64();
     }
 
     public static String sdkPath() {
-        return config().path.sdk;
+        return snapshot().sdkPath();
     }
 
     public static String cmakePath() {
-        return config().path.cmake;
+        return snapshot().cmakePath();
     }
 
     public static String ndkPath() {
-        return config().path.ndk;
+        return snapshot().ndkPath();
     }
 
     public static String osName() {
-        return config().ndk.osName;
+        return snapshot().osName();
     }
 }
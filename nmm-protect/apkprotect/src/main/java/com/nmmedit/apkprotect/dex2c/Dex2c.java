@@ -1,26 +1,37 @@
 package com.nmmedit.apkprotect.dex2c;
 
-import com.google.common.collect.Maps;
 import com.nmmedit.apkprotect.dex2c.converter.ClassAnalyzer;
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+import com.nmmedit.apkprotect.dex2c.converter.DataBlob;
 import com.nmmedit.apkprotect.dex2c.converter.JniCodeGenerator;
+import com.nmmedit.apkprotect.dex2c.converter.References;
 import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
 import com.nmmedit.apkprotect.dex2c.converter.structs.ClassMethodToNative;
 import com.nmmedit.apkprotect.dex2c.converter.structs.ClassToSymDex;
 import com.nmmedit.apkprotect.dex2c.converter.structs.LoadLibClassDef;
 import com.nmmedit.apkprotect.dex2c.converter.structs.RegisterNativesCallerClassDef;
 import com.nmmedit.apkprotect.dex2c.filters.ClassAndMethodFilter;
+import com.nmmedit.apkprotect.util.ChangedFileWriter;
+import com.nmmedit.apkprotect.util.ConcurrentUtils;
+import com.nmmedit.apkprotect.util.DexLoader;
+import com.nmmedit.apkprotect.util.FileUtils;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.ClassDef;
-import org.jf.dexlib2.iface.DexFile;
-import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
 import org.jf.dexlib2.writer.pool.DexPool;
 
+import javax.annotation.Nullable;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class Dex2c {
 
@@ -41,16 +52,102 @@ public class Dex2c {
                                               ClassAndMethodFilter filter,
                                               InstructionRewriter instructionRewriter,
                                               File outDir) throws IOException {
+        return handleDexes(dexFiles, filter, instructionRewriter, outDir, DexConvertOptions.DEFAULT);
+    }
+
+    /**
+     * 处理多个dex文件,先建立所有dex的类继承关系,之后每个dex单独处理,设置了线程池时同时处理所有dex
+     *
+     * @param dexFiles dex文件列表
+     * @param outDir   生成c文件等输出目录
+     * @param options  线程池,缓存及生成c代码的方式等
+     * @return 输出结果配置, configs顺序和dex文件列表一致
+     * @throws IOException
+     */
+    public static GlobalDexConfig handleDexes(List<File> dexFiles,
+                                              ClassAndMethodFilter filter,
+                                              InstructionRewriter instructionRewriter,
+                                              File outDir,
+                                              DexConvertOptions options) throws IOException {
         if (!outDir.exists()) outDir.mkdirs();
         final GlobalDexConfig globalConfig = new GlobalDexConfig(outDir);
-        for (File file : dexFiles) {
-            final DexConfig config = handleDex(file, filter, instructionRewriter, outDir);
-            globalConfig.addDexConfig(config);
+        final ClassHierarchy hierarchy = options.getHierarchy() != null ? options.getHierarchy() : ClassHierarchy.load(dexFiles);
+        globalConfig.setClassHierarchy(hierarchy);
+        filter.setClassHierarchy(hierarchy);
+        final ExecutorService executor = options.getExecutor();
+        final NativeCodeOptions codeOptions = options.getCodeOptions();
+        final DexConvertOptions dexOptions = new DexConvertOptions.Builder(options)
+                .setHierarchy(hierarchy)
+                .build();
+        if (codeOptions.isGlobalPool()) {
+            handleDexesWithGlobalPool(dexFiles, filter, instructionRewriter, outDir, executor, codeOptions, globalConfig);
+        } else {
+            final List<DexConfig> configs = runAll(executor, dexFiles.size(),
+                    i -> handleDex(dexFiles.get(i), filter, instructionRewriter, outDir, dexOptions));
+            //按dex顺序添加,保证和顺序处理时生成的jni_init.c一样
+            for (DexConfig config : configs) {
+                globalConfig.addDexConfig(config);
+            }
         }
         globalConfig.generateJniInitCode();
         return globalConfig;
     }
 
+    /**
+     * 先拆分所有dex,再根据所有符号dex建立共用的常量池,最后生成每个dex的c代码.
+     * 生成的代码依赖所有dex,不使用转换缓存.常量池索引超过u2范围时每个dex单独使用自己的常量池,
+     * 这时{@link GlobalDexConfig#isGlobalPool()}返回false,由调用者报告
+     */
+    private static void handleDexesWithGlobalPool(List<File> dexFiles,
+                                                  ClassAndMethodFilter filter,
+                                                  InstructionRewriter instructionRewriter,
+                                                  File outDir,
+                                                  @Nullable ExecutorService executor,
+                                                  NativeCodeOptions codeOptions,
+                                                  GlobalDexConfig globalConfig) throws IOException {
+        final List<DexConfig> configs = new ArrayList<>();
+        for (File file : dexFiles) {
+            configs.add(new DexConfig(outDir, file.getName(), codeOptions));
+        }
+        final List<DexBackedDexFile> implDexes = runAll(executor, dexFiles.size(),
+                i -> splitDex(DexLoader.load(dexFiles.get(i)), filter, configs.get(i)));
+
+        final ClassAnalyzer classAnalyzer = new ClassAnalyzer(globalConfig.getClassHierarchy());
+        final References globalReferences = new References(implDexes, classAnalyzer);
+        final References references = globalReferences.fitsShortIndex() ? globalReferences : null;
+        runAll(executor, configs.size(), i -> {
+            generateNativeCode(configs.get(i), implDexes.get(i), classAnalyzer, instructionRewriter, references);
+            return configs.get(i);
+        });
+        for (DexConfig config : configs) {
+            globalConfig.addDexConfig(config);
+        }
+        if (references != null) {
+            globalConfig.generateGlobalPool(references, codeOptions.isDataBlob());
+        }
+    }
+
+    private interface IndexedTask<T> {
+        T call(int index) throws IOException;
+    }
+
+    //executor为null时按顺序执行,结果和任务顺序一致
+    private static <T> List<T> runAll(@Nullable ExecutorService executor, int count, IndexedTask<T> task) throws IOException {
+        if (executor == null) {
+            final List<T> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(task.call(i));
+            }
+            return results;
+        }
+        final List<Future<T>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> task.call(index)));
+        }
+        return ConcurrentUtils.getAll(futures);
+    }
+
     /**
      * 处理单个dex文件
      *
@@ -63,11 +160,57 @@ public class Dex2c {
                                       ClassAndMethodFilter filter,
                                       InstructionRewriter instructionRewriter,
                                       File outDir) throws IOException {
-        return handleDex(new BufferedInputStream(new FileInputStream(dexFile)),
-                dexFile.getName(),
-                filter,
-                instructionRewriter,
-                outDir);
+        return handleDex(dexFile, filter, instructionRewriter, outDir, DexConvertOptions.DEFAULT);
+    }
+
+    /**
+     * 处理单个dex文件,缓存命中时直接复制缓存的文件,跳过转换
+     *
+     * @param dexFile dex文件
+     * @param outDir  输出目录
+     * @param options 缓存,生成c代码的方式及类继承关系,不使用线程池
+     * @return 输出配置
+     * @throws IOException
+     */
+    public static DexConfig handleDex(File dexFile,
+                                      ClassAndMethodFilter filter,
+                                      InstructionRewriter instructionRewriter,
+                                      File outDir,
+                                      DexConvertOptions options) throws IOException {
+        final NativeCodeOptions codeOptions = options.getCodeOptions();
+        final ClassHierarchy hierarchy = options.getHierarchy();
+        DexConvertCache cache = options.getCache();
+        final DexBackedDexFile dex = DexLoader.load(dexFile);
+        if (cache == null) {
+            return handleDex(dex, dexFile.getName(), filter, instructionRewriter, outDir, codeOptions, hierarchy);
+        }
+        if (hierarchy != null) {
+            //转换结果和其他dex里的父类,接口及静态域相关
+            cache = cache.withDexDependency(hierarchy::getFingerprint);
+        }
+        final String key = cache.getKey(dexFile, dex, codeOptions);
+        final DexConfig cached = cache.restore(key, dexFile.getName(), outDir, codeOptions);
+        if (cached != null) {
+            replayFilter(dex, filter);
+            return cached;
+        }
+        final DexConfig config = handleDex(dex, dexFile.getName(), filter, instructionRewriter, outDir, codeOptions, hierarchy);
+        cache.store(key, config);
+        return config;
+    }
+
+    /**
+     * 缓存命中时跳过了转换,对所有类及方法重新执行过滤规则,
+     * 这样记录被排除方法的规则(比如profile,开销估算,启动路径)输出的结果包括命中缓存的dex
+     */
+    private static void replayFilter(DexBackedDexFile dexFile, ClassAndMethodFilter filter) {
+        for (ClassDef classDef : dexFile.getClasses()) {
+            if (filter.acceptClass(classDef)) {
+                for (Method method : classDef.getMethods()) {
+                    filter.acceptMethod(method);
+                }
+            }
+        }
     }
 
     /**
@@ -84,55 +227,27 @@ public class Dex2c {
                                       ClassAndMethodFilter filter,
                                       InstructionRewriter instructionRewriter,
                                       File outDir) throws IOException {
-        DexBackedDexFile originDexFile = DexBackedDexFile.fromInputStream(
-                Opcodes.getDefault(),
-                dex);
-
-        //把方法变为本地方法,用它替换掉原本的dex
-        DexPool shellDexPool = new DexPool(Opcodes.getDefault());
-
-        DexPool nativeImplDexPool = new DexPool(Opcodes.getDefault());
-
-
-        for (final ClassDef classDef : originDexFile.getClasses()) {
-            if (filter.acceptClass(classDef)) {
-                //把需要转换的方法设为native
-                shellDexPool.internClass(new ClassMethodToNative(classDef, filter));
-                //收集所有需要转换的方法生成新dex
-                nativeImplDexPool.internClass(new ClassToSymDex(classDef, filter));
-            } else {
-                //不需要处理的class,直接复制
-                shellDexPool.internClass(classDef);
-            }
-        }
-        DexConfig config = new DexConfig(outDir, dexFileName);
-
-
-        //写入需要运行的dex
-        shellDexPool.writeTo(new FileDataStore(config.getShellDexFile()));
-        //写入符号dex
-        nativeImplDexPool.writeTo(new FileDataStore(config.getImplDexFile()));
-
-
-        final DexBackedDexFile nativeImplDexFile = DexBackedDexFile.fromInputStream(Opcodes.getDefault(),
-                new BufferedInputStream(new FileInputStream(config.getImplDexFile())));
+        return handleDex(DexBackedDexFile.fromInputStream(Opcodes.getDefault(), dex),
+                dexFileName,
+                filter,
+                instructionRewriter,
+                outDir,
+                NativeCodeOptions.DEFAULT,
+                null);
+    }
 
-        //根据符号dex生成c代码
-        try (FileWriter nativeCodeWriter = new FileWriter(config.getNativeFunctionsFile());
-             FileWriter resolverWriter = new FileWriter(config.getResolverFile());
-        ) {
-            final ClassAnalyzer classAnalyzer = new ClassAnalyzer(originDexFile);
-            JniCodeGenerator codeGenerator = new JniCodeGenerator(nativeImplDexFile,
-                    classAnalyzer,
-                    instructionRewriter);
+    private static DexConfig handleDex(DexBackedDexFile originDexFile,
+                                       String dexFileName,
+                                       ClassAndMethodFilter filter,
+                                       InstructionRewriter instructionRewriter,
+                                       File outDir,
+                                       NativeCodeOptions codeOptions,
+                                       @Nullable ClassHierarchy hierarchy) throws IOException {
+        DexConfig config = new DexConfig(outDir, dexFileName, codeOptions);
+        final DexBackedDexFile nativeImplDexFile = splitDex(originDexFile, filter, config);
 
-            codeGenerator.generate(
-                    config,
-                    resolverWriter,
-                    nativeCodeWriter
-            );
-            config.setResult(codeGenerator);
-        }
+        final ClassAnalyzer classAnalyzer = hierarchy != null ? new ClassAnalyzer(hierarchy) : new ClassAnalyzer(originDexFile);
+        generateNativeCode(config, nativeImplDexFile, classAnalyzer, instructionRewriter, null);
 
 
         //可以不用产生头文件，直接使用extern
@@ -160,103 +275,151 @@ public class Dex2c {
         return config;
     }
 
-    //在处理过的class的static{}块最前面添加注册本地方法代码,如果不存在static{}块则新增<clinit>方法
-    public static List<DexPool> injectCallRegisterNativeInsns(DexConfig config,
-                                                              DexPool lastDexPool,
-                                                              Set<String> mainClassSet,
-                                                              int maxPoolSize) throws IOException {
+    /**
+     * 拆分为壳dex及符号dex,壳dex保存在config里
+     *
+     * @return 符号dex, 用于生成c代码
+     */
+    private static DexBackedDexFile splitDex(DexBackedDexFile originDexFile,
+                                             ClassAndMethodFilter filter,
+                                             DexConfig config) throws IOException {
+        //把方法变为本地方法,用它替换掉原本的dex
+        DexPool shellDexPool = new DexPool(Opcodes.getDefault());
 
-        DexBackedDexFile dexNativeFile = DexBackedDexFile.fromInputStream(
-                Opcodes.getDefault(),
-                new BufferedInputStream(new FileInputStream(config.getShellDexFile())));
+        DexPool nativeImplDexPool = new DexPool(Opcodes.getDefault());
 
-        List<DexPool> dexPools = new ArrayList<>();
-        dexPools.add(lastDexPool);
 
+        for (final ClassDef classDef : originDexFile.getClasses()) {
+            if (filter.acceptClass(classDef)) {
+                //把需要转换的方法设为native
+                shellDexPool.internClass(filter.rewriteShellClass(new ClassMethodToNative(classDef, filter)));
+                //收集所有需要转换的方法生成新dex
+                nativeImplDexPool.internClass(new ClassToSymDex(classDef, filter));
+            } else {
+                //不需要处理的class,直接复制
+                shellDexPool.internClass(filter.rewriteShellClass(classDef));
+            }
+        }
 
-        for (ClassDef classDef : dexNativeFile.getClasses()) {
-            if (mainClassSet.contains(classDef.getType())) {//提前处理过的class,不用再处理
-                continue;
+        //写入需要运行的dex,同时保留在内存中给后面注入指令等使用
+        config.setShellDex(writeDex(shellDexPool, config.getShellDexFile()));
+        //写入符号dex
+        return writeDex(nativeImplDexPool, config.getImplDexFile());
+    }
+
+    /**
+     * 根据符号dex生成c代码
+     *
+     * @param globalReferences 所有dex共用的常量池,为null则使用当前dex的常量池
+     */
+    private static void generateNativeCode(DexConfig config,
+                                           DexBackedDexFile nativeImplDexFile,
+                                           ClassAnalyzer classAnalyzer,
+                                           InstructionRewriter instructionRewriter,
+                                           @Nullable References globalReferences) throws IOException {
+        //内容没有改变的c文件不重新写入,增量编译时不用重新编译
+        final List<Writer> nativeCodeWriters = new ArrayList<>();
+        try (Writer resolverWriter = new ChangedFileWriter(config.getResolverFile());
+             Writer headerWriter = config.getNativeShards() > 1 ? new ChangedFileWriter(config.getNativeSharedHeaderFile()) : null
+        ) {
+            for (File file : config.getNativeFunctionsFiles()) {
+                nativeCodeWriters.add(new ChangedFileWriter(file));
             }
-            internClass(config, lastDexPool, classDef);
+            JniCodeGenerator codeGenerator = new JniCodeGenerator(nativeImplDexFile,
+                    classAnalyzer,
+                    instructionRewriter,
+                    globalReferences);
+            final DataBlob dataBlob = config.getCodeOptions().isDataBlob() ? new DataBlob(config.getDexName() + "_data") : null;
+            codeGenerator.setDataBlob(dataBlob);
 
-            if (lastDexPool.hasOverflowed(maxPoolSize)) {
-                lastDexPool = new DexPool(Opcodes.getDefault());
-                dexPools.add(lastDexPool);
+            codeGenerator.generate(
+                    config,
+                    resolverWriter,
+                    nativeCodeWriters,
+                    headerWriter
+            );
+            if (dataBlob != null) {
+                FileUtils.writeIfChanged(config.getDataBlobFile(), dataBlob.toByteArray());
             }
+            config.setResult(codeGenerator);
+        } finally {
+            for (Writer writer : nativeCodeWriters) {
+                writer.close();
+            }
+        }
+    }
+
+    //先写入内存再保存到文件,直接使用内存中的数据解析dex,不需要再从文件读取
+    private static DexBackedDexFile writeDex(DexPool dexPool, File file) throws IOException {
+        final MemoryDataStore dataStore = new MemoryDataStore();
+        dexPool.writeTo(dataStore);
+        final byte[] data = dataStore.getData();
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(data);
         }
-        return dexPools;
+        return new DexBackedDexFile(Opcodes.getDefault(), data);
     }
 
-    public static void internClass(DexConfig config, DexPool dexPool, ClassDef classDef) {
+    //处理过的class返回添加了注册本地方法代码的class,其他的原样返回
+    public static ClassDef getRegisterNativesClassDef(DexConfig config, ClassDef classDef) {
         final Set<String> classes = config.getHandledNativeClasses();
         final String type = classDef.getType();
         final String className = type.substring(1, type.length() - 1);
         if (classes.contains(className)) {
-            final RegisterNativesCallerClassDef nativeClassDef = new RegisterNativesCallerClassDef(
+            return new RegisterNativesCallerClassDef(
                     classDef,
                     config.getOffsetFromClassName(className),
                     "L" + config.getRegisterNativesClassName() + ";",
                     config.getRegisterNativesMethodName());
-            dexPool.internClass(nativeClassDef);
-        } else {
-            dexPool.internClass(classDef);
         }
+        return classDef;
     }
 
     /**
      * 在自定义application的类继承关系上增加一个新类用于加载so库
      *
-     * @param dexFile
+     * @param classes 主dex里的类
      * @param newType
+     * @return 新的类列表, 加载so的类放在最前面
      */
-    public static void addApplicationClass(DexFile dexFile,
-                                           DexPool newDex,
-                                           final String newType) {
-
+    public static List<ClassDef> addApplicationClass(List<? extends ClassDef> classes,
+                                                     final String newType) {
+        final String appDirectSubType = getApplicationDirectSubclass(
+                new ClassHierarchy(Collections.singletonList(new ImmutableDexFile(Opcodes.getDefault(), classes))),
+                newType);
+
+        final List<ClassDef> newClasses = new ArrayList<>(classes.size() + 1);
+        newClasses.add(null);
         ClassDef appDirectSubClassDef = null;
-        List<ClassDef> parents = getClassDefParents(dexFile.getClasses(), newType, LANDROID_APP_APPLICATION);
-        if (!parents.isEmpty()) {
-            appDirectSubClassDef = parents.get(parents.size() - 1);
-        }
-
-        for (ClassDef classDef : dexFile.getClasses()) {
-            if (classDef.equals(appDirectSubClassDef)) {
+        for (ClassDef classDef : classes) {
+            if (classDef.getType().equals(appDirectSubType)) {
+                appDirectSubClassDef = classDef;
                 continue;
             }
-            newDex.internClass(classDef);
+            newClasses.add(classDef);
         }
 
         final LoadLibClassDef libClassDef = new LoadLibClassDef(appDirectSubClassDef,
                 appDirectSubClassDef != null ? appDirectSubClassDef.getType() : newType, "nmmp");
-        newDex.internClass(libClassDef);
-
+        newClasses.set(0, libClassDef);
+        return newClasses;
     }
 
-    //查找某个类所有父类
-    private static List<ClassDef> getClassDefParents(final Set<? extends ClassDef> classes, String type, String rootType) {
-        String tmpType = type;
-        final ArrayList<ClassDef> parents = new ArrayList<>();
-
-        //创建类型名和classDef对应关系
-        final Map<String, ClassDef> classDefMap = Maps.newHashMap();
-        for (ClassDef classDef : classes) {
-            classDefMap.put(classDef.getType(), classDef);
-        }
-
-        while (true) {//一直查找父类直到是父类rootType返回对应的classDef
-            final ClassDef classDef = classDefMap.get(tmpType);
-            if (classDef == null) {
+    //查找继承关系上android.app.Application的直接子类,父类不全在dex里时返回dex里最上层的父类
+    @Nullable
+    private static String getApplicationDirectSubclass(ClassHierarchy hierarchy, String type) {
+        String found = null;
+        String subType = type;
+        for (String superclass : hierarchy.getSuperclasses(type)) {
+            if (!hierarchy.contains(subType)) {
                 break;
             }
-            //只处理rootType的直接子类
-            if (rootType.equals(classDef.getSuperclass())) {
-                parents.add(classDef);
+            found = subType;
+            if (LANDROID_APP_APPLICATION.equals(superclass)) {
                 break;
             }
-            tmpType = classDef.getSuperclass();
-            parents.add(classDef);
+            subType = superclass;
         }
-        return parents;
+        return found;
     }
 }
\ No newline at end of file
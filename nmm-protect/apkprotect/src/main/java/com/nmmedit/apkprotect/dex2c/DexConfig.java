@@ -1,9 +1,14 @@
 package com.nmmedit.apkprotect.dex2c;
 
 import com.nmmedit.apkprotect.dex2c.converter.JniCodeGenerator;
+import com.nmmedit.apkprotect.util.DexLoader;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 
 import javax.annotation.Nonnull;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,13 +18,24 @@ import java.util.Set;
 public class DexConfig {
     private final File outputDir;
     private final String dexName;
+    //生成c代码的方式
+    private final NativeCodeOptions codeOptions;
 
     //jnicodegenerator 处理完成后,缓存已处理的类及方法
     private Set<String> handledNativeClasses;
     private Map<String, Integer> nativeMethodOffsets;
+    private int nativeMethodCount;
+
+    //解析好的壳dex,后续处理都使用它,不用再从文件读取解析
+    private DexBackedDexFile shellDex;
 
     public DexConfig(File outputDir, String dexFileName) {
+        this(outputDir, dexFileName, NativeCodeOptions.DEFAULT);
+    }
+
+    public DexConfig(File outputDir, String dexFileName, NativeCodeOptions codeOptions) {
         this.outputDir = outputDir;
+        this.codeOptions = codeOptions;
         int i = dexFileName.lastIndexOf('.');
         if (i != -1) {
             this.dexName = dexFileName.substring(0, i);
@@ -55,8 +71,44 @@ public class DexConfig {
     }
 
     public void setResult(JniCodeGenerator codeGenerator) {
-        handledNativeClasses = codeGenerator.getHandledNativeClasses();
-        nativeMethodOffsets = codeGenerator.getNativeMethodOffsets();
+        setResult(codeGenerator.getHandledNativeClasses(), codeGenerator.getNativeMethodOffsets(),
+                codeGenerator.getHandledNativeMethodCount());
+    }
+
+    /**
+     * 从缓存恢复处理结果,不需要重新生成代码
+     */
+    public void setResult(@Nonnull Set<String> handledNativeClasses,
+                          @Nonnull Map<String, Integer> nativeMethodOffsets,
+                          int nativeMethodCount) {
+        this.handledNativeClasses = handledNativeClasses;
+        this.nativeMethodOffsets = nativeMethodOffsets;
+        this.nativeMethodCount = nativeMethodCount;
+    }
+
+    //转换为本地方法的方法数
+    public int getNativeMethodCount() {
+        return nativeMethodCount;
+    }
+
+    @Nonnull
+    public Map<String, Integer> getNativeMethodOffsets() {
+        return nativeMethodOffsets;
+    }
+
+    public synchronized void setShellDex(@Nonnull DexBackedDexFile shellDex) {
+        this.shellDex = shellDex;
+    }
+
+    /**
+     * 内存中的壳dex,没有设置时从{@link #getShellDexFile()}读取一次
+     */
+    @Nonnull
+    public synchronized DexBackedDexFile getShellDex() throws IOException {
+        if (shellDex == null) {
+            shellDex = DexLoader.load(getShellDexFile());
+        }
+        return shellDex;
     }
 
     /**
@@ -74,12 +126,48 @@ public class DexConfig {
     }
 
     /**
-     * 本地方法实现
+     * 本地方法实现,分片时还包含符号解析器及注册代码
      */
     public File getNativeFunctionsFile() {
         return new File(outputDir, dexName + "_native_functions.c");
     }
 
+    public NativeCodeOptions getCodeOptions() {
+        return codeOptions;
+    }
+
+    public int getNativeShards() {
+        return codeOptions.getShards();
+    }
+
+    /**
+     * 所有本地方法实现文件,第一个为{@link #getNativeFunctionsFile()}.
+     * 文件名需要以_functions.c结尾,CMakeLists.txt根据它查找源文件
+     */
+    public List<File> getNativeFunctionsFiles() {
+        final int nativeShards = getNativeShards();
+        final List<File> files = new ArrayList<>(nativeShards);
+        files.add(getNativeFunctionsFile());
+        for (int i = 1; i < nativeShards; i++) {
+            files.add(new File(outputDir, dexName + "_native" + i + "_functions.c"));
+        }
+        return files;
+    }
+
+    /**
+     * 字节码及常量池数据,主文件通过.incbin链接它
+     */
+    public File getDataBlobFile() {
+        return new File(outputDir, dexName + "_data.bin");
+    }
+
+    /**
+     * 分片共用的头文件,声明寄存器宏及符号解析器
+     */
+    public File getNativeSharedHeaderFile() {
+        return new File(outputDir, dexName + "_native_shared.h");
+    }
+
     /**
      * 初始化代码头文件及初始化函数名,提供函数给外部调用
      */
@@ -97,6 +185,21 @@ public class DexConfig {
         return new File(outputDir, dexName + "_resolver.c");
     }
 
+    /**
+     * 需要编译的c源文件及它们使用的数据文件
+     */
+    public List<File> getGeneratedSourceFiles() {
+        final List<File> files = new ArrayList<>(getNativeFunctionsFiles());
+        files.add(getResolverFile());
+        if (getNativeShards() > 1) {
+            files.add(getNativeSharedHeaderFile());
+        }
+        if (codeOptions.isDataBlob()) {
+            files.add(getDataBlobFile());
+        }
+        return files;
+    }
+
     public static class HeaderFileAndSetupFuncName {
         public final File headerFile;
         public final String setupFunctionName;
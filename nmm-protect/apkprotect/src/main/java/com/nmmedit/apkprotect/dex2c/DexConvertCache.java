@@ -0,0 +1,261 @@
+package com.nmmedit.apkprotect.dex2c;
+
+import com.google.gson.Gson;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
+import com.nmmedit.apkprotect.util.DexLoader;
+import com.nmmedit.apkprotect.util.FileUtils;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 缓存单个dex转换结果(_shell.dex, _impl.dex, 生成的c文件及注册本地方法需要的数据),
+ * 以dex内容,dex名,生成c代码的方式,过滤规则及指令重写表的hash作为key,只有某个dex改变时才需要重新转换它
+ * <p>
+ * 指令重写表也是key的一部分,使用{@link com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter}
+ * 时需要固定随机种子才会命中缓存
+ */
+public class DexConvertCache {
+    //代码生成逻辑改变时需要修改,让旧缓存失效
+    private static final int CACHE_VERSION = 4;
+
+    private static final String RESULT_FILE = "result.json";
+    private static final String SHELL_DEX = "shell.dex";
+    private static final String IMPL_DEX = "impl.dex";
+    //生成的c文件保存在这个子目录,文件名不变
+    private static final String SOURCES = "sources";
+
+    private final File cacheDir;
+    private final byte[] configDigest;
+    //dex转换结果依赖的其他dex里的信息,每个dex分别计算
+    private final List<Function<DexBackedDexFile, String>> dexDependencies;
+
+    /**
+     * @param cacheDir            缓存目录,可以多次运行共用
+     * @param instructionRewriter 指令重写规则,它生成的opcode表参与计算key
+     * @param filterConfigs       过滤规则相关内容,比如规则文件及mapping.txt,参与计算key
+     */
+    public DexConvertCache(@Nonnull File cacheDir,
+                           @Nonnull InstructionRewriter instructionRewriter,
+                           @Nonnull byte[]... filterConfigs) throws IOException {
+        this.cacheDir = cacheDir;
+
+        final MessageDigest digest = newDigest();
+        digest.update(Integer.toString(CACHE_VERSION).getBytes(StandardCharsets.UTF_8));
+        for (byte[] config : filterConfigs) {
+            updateWithLength(digest, config);
+        }
+        final StringWriter opcodeContent = new StringWriter();
+        final StringWriter gotoTableContent = new StringWriter();
+        instructionRewriter.generateConfig(opcodeContent, gotoTableContent);
+        updateWithLength(digest, opcodeContent.toString().getBytes(StandardCharsets.UTF_8));
+        this.configDigest = digest.digest();
+        this.dexDependencies = Collections.emptyList();
+    }
+
+    private DexConvertCache(File cacheDir, byte[] configDigest, List<Function<DexBackedDexFile, String>> dexDependencies) {
+        this.cacheDir = cacheDir;
+        this.configDigest = configDigest;
+        this.dexDependencies = dexDependencies;
+    }
+
+    /**
+     * 返回使用同一缓存目录的新缓存,dependency返回dex依赖的其他dex里的信息摘要,也参与计算这个dex的key.
+     * 只包括dex实际用到的信息,无关的dex改变时不会让缓存失效
+     */
+    @Nonnull
+    public DexConvertCache withDexDependency(@Nonnull Function<DexBackedDexFile, String> dependency) {
+        final List<Function<DexBackedDexFile, String>> dependencies = new ArrayList<>(dexDependencies);
+        dependencies.add(dependency);
+        return new DexConvertCache(cacheDir, configDigest, dependencies);
+    }
+
+    /**
+     * 计算dex对应的缓存key
+     */
+    @Nonnull
+    public String getKey(@Nonnull File dexFile) throws IOException {
+        return getKey(dexFile, NativeCodeOptions.DEFAULT);
+    }
+
+    /**
+     * 计算dex对应的缓存key,生成c代码的方式不同输出的文件不同
+     */
+    @Nonnull
+    public String getKey(@Nonnull File dexFile, @Nonnull NativeCodeOptions codeOptions) throws IOException {
+        return getKey(dexFile, DexLoader.load(dexFile), codeOptions);
+    }
+
+    /**
+     * @param dex 已经加载的dexFile,计算依赖的其他dex里的信息
+     */
+    @Nonnull
+    public String getKey(@Nonnull File dexFile, @Nonnull DexBackedDexFile dex,
+                         @Nonnull NativeCodeOptions codeOptions) throws IOException {
+        final MessageDigest digest = newDigest();
+        digest.update(configDigest);
+        updateWithLength(digest, codeOptions.toString().getBytes(StandardCharsets.UTF_8));
+        for (Function<DexBackedDexFile, String> dependency : dexDependencies) {
+            updateWithLength(digest, dependency.apply(dex).getBytes(StandardCharsets.UTF_8));
+        }
+        //生成的c代码里函数名等和dex名相关
+        updateWithLength(digest, dexFile.getName().getBytes(StandardCharsets.UTF_8));
+        try (InputStream input = new FileInputStream(dexFile)) {
+            final byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = input.read(buf)) != -1) {
+                digest.update(buf, 0, len);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 命中缓存时把缓存文件复制到输出目录,同时恢复已处理的类及方法数据
+     *
+     * @return 未命中返回null
+     */
+    @Nullable
+    public DexConfig restore(@Nonnull String key, @Nonnull String dexFileName, @Nonnull File outDir) throws IOException {
+        return restore(key, dexFileName, outDir, NativeCodeOptions.DEFAULT);
+    }
+
+    /**
+     * 命中缓存时把缓存文件复制到输出目录,同时恢复已处理的类及方法数据
+     *
+     * @param codeOptions 必须和计算key时一样
+     * @return 未命中返回null
+     */
+    @Nullable
+    public DexConfig restore(@Nonnull String key, @Nonnull String dexFileName, @Nonnull File outDir,
+                             @Nonnull NativeCodeOptions codeOptions) throws IOException {
+        final File entryDir = new File(cacheDir, key);
+        final File resultFile = new File(entryDir, RESULT_FILE);
+        if (!resultFile.exists()) {
+            return null;
+        }
+        final CacheResult result;
+        try (Reader reader = new InputStreamReader(new FileInputStream(resultFile), StandardCharsets.UTF_8)) {
+            result = new Gson().fromJson(reader, CacheResult.class);
+        }
+        if (result == null || result.handledNativeClasses == null || result.nativeMethodOffsets == null) {
+            return null;
+        }
+
+        final DexConfig config = new DexConfig(outDir, dexFileName, codeOptions);
+        //壳dex读取一次,同时写入输出目录及解析
+        final byte[] shellDex = Files.readAllBytes(new File(entryDir, SHELL_DEX).toPath());
+        FileUtils.writeIfChanged(config.getShellDexFile(), shellDex);
+        config.setShellDex(new DexBackedDexFile(Opcodes.getDefault(), shellDex));
+        copy(new File(entryDir, IMPL_DEX), config.getImplDexFile());
+        //c文件内容没变时不覆盖,增量编译时不用重新编译
+        final File sourcesDir = new File(entryDir, SOURCES);
+        for (File source : config.getGeneratedSourceFiles()) {
+            FileUtils.copyIfChanged(new File(sourcesDir, source.getName()), source);
+        }
+
+        config.setResult(new HashSet<>(result.handledNativeClasses), new HashMap<>(result.nativeMethodOffsets),
+                result.nativeMethodCount);
+        return config;
+    }
+
+    /**
+     * 保存转换结果,先写入临时目录再重命名,防止其他进程读到不完整的缓存
+     */
+    public void store(@Nonnull String key, @Nonnull DexConfig config) throws IOException {
+        final File entryDir = new File(cacheDir, key);
+        if (entryDir.exists()) {
+            return;
+        }
+        if (!cacheDir.exists()) cacheDir.mkdirs();
+        final File tempDir = Files.createTempDirectory(cacheDir.toPath(), key + ".tmp").toFile();
+        try {
+            copy(config.getShellDexFile(), new File(tempDir, SHELL_DEX));
+            copy(config.getImplDexFile(), new File(tempDir, IMPL_DEX));
+            final File sourcesDir = new File(tempDir, SOURCES);
+            sourcesDir.mkdirs();
+            for (File source : config.getGeneratedSourceFiles()) {
+                copy(source, new File(sourcesDir, source.getName()));
+            }
+
+            final CacheResult result = new CacheResult();
+            result.handledNativeClasses = new ArrayList<>(config.getHandledNativeClasses());
+            result.nativeMethodOffsets = new HashMap<>(config.getNativeMethodOffsets());
+            result.nativeMethodCount = config.getNativeMethodCount();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(tempDir, RESULT_FILE)), StandardCharsets.UTF_8)) {
+                new Gson().toJson(result, writer);
+            }
+            try {
+                Files.move(tempDir.toPath(), entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempDir.toPath(), entryDir.toPath());
+            }
+        } catch (IOException e) {
+            //其他线程或进程已经写入相同缓存
+            if (!entryDir.exists()) {
+                throw e;
+            }
+        } finally {
+            deleteDir(tempDir);
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void deleteDir(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //加上长度,防止不同内容拼接后结果一样
+    private static void updateWithLength(MessageDigest digest, byte[] data) {
+        final int length = data.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(data);
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class CacheResult {
+        List<String> handledNativeClasses;
+        Map<String, Integer> nativeMethodOffsets;
+        int nativeMethodCount;
+    }
+}
@@ -0,0 +1,108 @@
+package com.nmmedit.apkprotect.dex2c;
+
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * dex转换的可选参数,没有设置的使用默认值:按顺序处理,不使用缓存,每个dex一个c文件
+ */
+public class DexConvertOptions {
+    public static final DexConvertOptions DEFAULT = new Builder().build();
+
+    private final ExecutorService executor;
+    private final DexConvertCache cache;
+    private final NativeCodeOptions codeOptions;
+    private final ClassHierarchy hierarchy;
+
+    private DexConvertOptions(ExecutorService executor,
+                              DexConvertCache cache,
+                              NativeCodeOptions codeOptions,
+                              ClassHierarchy hierarchy) {
+        this.executor = executor;
+        this.cache = cache;
+        this.codeOptions = codeOptions;
+        this.hierarchy = hierarchy;
+    }
+
+    @Nullable
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Nullable
+    public DexConvertCache getCache() {
+        return cache;
+    }
+
+    @Nonnull
+    public NativeCodeOptions getCodeOptions() {
+        return codeOptions;
+    }
+
+    @Nullable
+    public ClassHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    public static class Builder {
+        private ExecutorService executor;
+        private DexConvertCache cache;
+        private NativeCodeOptions codeOptions = NativeCodeOptions.DEFAULT;
+        private ClassHierarchy hierarchy;
+
+        public Builder() {
+        }
+
+        /**
+         * 复制已有的参数,修改部分参数
+         */
+        public Builder(@Nonnull DexConvertOptions options) {
+            this.executor = options.executor;
+            this.cache = options.cache;
+            this.codeOptions = options.codeOptions;
+            this.hierarchy = options.hierarchy;
+        }
+
+        /**
+         * 同时处理多个dex的线程池,为null则按顺序处理.并行处理时filter会被多个线程同时调用,必须是线程安全的
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * dex转换结果缓存,为null则不使用缓存
+         */
+        public Builder setCache(DexConvertCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * 生成c代码的方式
+         */
+        public Builder setCodeOptions(NativeCodeOptions codeOptions) {
+            this.codeOptions = codeOptions;
+            return this;
+        }
+
+        /**
+         * 所有dex的类继承关系,为null时处理多个dex会根据所有dex建立,处理单个dex只分析当前dex
+         */
+        public Builder setHierarchy(ClassHierarchy hierarchy) {
+            this.hierarchy = hierarchy;
+            return this;
+        }
+
+        public DexConvertOptions build() {
+            if (codeOptions == null) {
+                throw new RuntimeException("codeOptions == null");
+            }
+            return new DexConvertOptions(executor, cache, codeOptions, hierarchy);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.nmmedit.apkprotect.dex2c;
+
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodProtoReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * 根据每个类引用的方法,域及类型(dex里会溢出的三种索引),把所有类装进尽量少的dex.
+ * <p>
+ * 先计算每个类的引用集合,再按原顺序首次适应装箱:每个类放进第一个加入后引用数不超过上限的dex,
+ * 主dex的类必须放在第一个dex里.
+ * 和逐个加入DexPool直到溢出的方式相比,前面dex剩余的空间会被后面的小类填满,不同classesN.dex的类也可以放在一起.
+ * 引用集合是估算的(不包括注解里的引用),写入时还需要检查DexPool是否溢出
+ */
+public class DexPacker {
+    private final int maxPoolSize;
+
+    //引用转为整数id,每个类只保存id数组
+    private final Map<String, Integer> methodIds = new HashMap<>();
+    private final Map<String, Integer> fieldIds = new HashMap<>();
+    private final Map<String, Integer> typeIds = new HashMap<>();
+
+    private final List<Footprint> mainClasses = new ArrayList<>();
+    private final List<Footprint> classes = new ArrayList<>();
+
+    /**
+     * @param maxPoolSize 每个dex方法,域及类型引用的最大数量
+     */
+    public DexPacker(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * 必须放在主dex里的类
+     */
+    public void addMainClass(@Nonnull ClassDef classDef) {
+        mainClasses.add(footprint(classDef));
+    }
+
+    public void addClass(@Nonnull ClassDef classDef) {
+        classes.add(footprint(classDef));
+    }
+
+    /**
+     * @return 每个dex包含的类,第一个为主dex
+     */
+    @Nonnull
+    public List<List<ClassDef>> pack() {
+        final List<Bin> bins = new ArrayList<>();
+        final Bin mainBin = new Bin();
+        bins.add(mainBin);
+        //主dex的类不管是否超出都放在第一个dex
+        for (Footprint footprint : mainClasses) {
+            mainBin.add(footprint);
+        }
+        for (Footprint footprint : classes) {
+            Bin target = null;
+            for (Bin bin : bins) {
+                if (bin.fits(footprint, maxPoolSize)) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Bin();
+                bins.add(target);
+            }
+            target.add(footprint);
+        }
+
+        final List<List<ClassDef>> partitions = new ArrayList<>(bins.size());
+        for (Bin bin : bins) {
+            if (!bin.classes.isEmpty()) {
+                partitions.add(bin.classes);
+            }
+        }
+        return partitions;
+    }
+
+    private Footprint footprint(ClassDef classDef) {
+        final Set<String> methods = new HashSet<>();
+        final Set<String> fields = new HashSet<>();
+        final Set<String> types = new HashSet<>();
+
+        types.add(classDef.getType());
+        addType(types, classDef.getSuperclass());
+        types.addAll(classDef.getInterfaces());
+        for (Annotation annotation : classDef.getAnnotations()) {
+            types.add(annotation.getType());
+        }
+        for (Field field : classDef.getFields()) {
+            addField(fields, types, field);
+        }
+        for (Method method : classDef.getMethods()) {
+            addMethod(methods, types, method);
+            final MethodImplementation implementation = method.getImplementation();
+            if (implementation == null) {
+                continue;
+            }
+            for (Instruction instruction : implementation.getInstructions()) {
+                if (instruction instanceof ReferenceInstruction) {
+                    addReference(methods, fields, types, ((ReferenceInstruction) instruction).getReference());
+                }
+                if (instruction instanceof DualReferenceInstruction) {
+                    addReference(methods, fields, types, ((DualReferenceInstruction) instruction).getReference2());
+                }
+            }
+            for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+                for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                    addType(types, handler.getExceptionType());
+                }
+            }
+        }
+        return new Footprint(classDef, toIds(methods, methodIds), toIds(fields, fieldIds), toIds(types, typeIds));
+    }
+
+    private static void addReference(Set<String> methods, Set<String> fields, Set<String> types, Reference reference) {
+        if (reference instanceof MethodReference) {
+            addMethod(methods, types, (MethodReference) reference);
+        } else if (reference instanceof FieldReference) {
+            addField(fields, types, (FieldReference) reference);
+        } else if (reference instanceof TypeReference) {
+            types.add(((TypeReference) reference).getType());
+        } else if (reference instanceof MethodProtoReference) {
+            final MethodProtoReference proto = (MethodProtoReference) reference;
+            for (CharSequence type : proto.getParameterTypes()) {
+                types.add(type.toString());
+            }
+            types.add(proto.getReturnType());
+        }
+    }
+
+    private static void addMethod(Set<String> methods, Set<String> types, MethodReference method) {
+        methods.add(DexFormatter.INSTANCE.getMethodDescriptor(method));
+        types.add(method.getDefiningClass());
+        for (CharSequence type : method.getParameterTypes()) {
+            types.add(type.toString());
+        }
+        types.add(method.getReturnType());
+    }
+
+    private static void addField(Set<String> fields, Set<String> types, FieldReference field) {
+        fields.add(DexFormatter.INSTANCE.getFieldDescriptor(field));
+        types.add(field.getDefiningClass());
+        types.add(field.getType());
+    }
+
+    private static void addType(Set<String> types, String type) {
+        if (type != null) {
+            types.add(type);
+        }
+    }
+
+    private static int[] toIds(Set<String> references, Map<String, Integer> ids) {
+        final int[] result = new int[references.size()];
+        int i = 0;
+        for (String reference : references) {
+            Integer id = ids.get(reference);
+            if (id == null) {
+                id = ids.size();
+                ids.put(reference, id);
+            }
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    private static class Footprint {
+        private final ClassDef classDef;
+        private final int[] methods;
+        private final int[] fields;
+        private final int[] types;
+
+        Footprint(ClassDef classDef, int[] methods, int[] fields, int[] types) {
+            this.classDef = classDef;
+            this.methods = methods;
+            this.fields = fields;
+            this.types = types;
+        }
+    }
+
+    private static class Bin {
+        private final List<ClassDef> classes = new ArrayList<>();
+        private final BitSet methods = new BitSet();
+        private final BitSet fields = new BitSet();
+        private final BitSet types = new BitSet();
+        private int methodCount;
+        private int fieldCount;
+        private int typeCount;
+
+        boolean fits(Footprint footprint, int maxPoolSize) {
+            return methodCount + countNew(methods, footprint.methods) <= maxPoolSize
+                    && fieldCount + countNew(fields, footprint.fields) <= maxPoolSize
+                    && typeCount + countNew(types, footprint.types) <= maxPoolSize;
+        }
+
+        void add(Footprint footprint) {
+            classes.add(footprint.classDef);
+            methodCount += addAll(methods, footprint.methods);
+            fieldCount += addAll(fields, footprint.fields);
+            typeCount += addAll(types, footprint.types);
+        }
+
+        private static int countNew(BitSet set, int[] ids) {
+            int count = 0;
+            for (int id : ids) {
+                if (!set.get(id)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int addAll(BitSet set, int[] ids) {
+            int count = 0;
+            for (int id : ids) {
+                if (!set.get(id)) {
+                    set.set(id);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
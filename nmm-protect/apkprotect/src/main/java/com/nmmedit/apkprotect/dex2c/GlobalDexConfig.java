@@ -1,7 +1,13 @@
 package com.nmmedit.apkprotect.dex2c;
 
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+import com.nmmedit.apkprotect.dex2c.converter.DataBlob;
+import com.nmmedit.apkprotect.dex2c.converter.References;
+import com.nmmedit.apkprotect.dex2c.converter.ResolverCodeGenerator;
+import com.nmmedit.apkprotect.util.ChangedFileWriter;
+import com.nmmedit.apkprotect.util.FileUtils;
+
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -13,6 +19,12 @@ public class GlobalDexConfig {
 
     private final File outputDir;
 
+    private ClassHierarchy classHierarchy;
+
+    //生成了所有dex共用的常量池
+    private boolean globalPool;
+    private boolean globalDataBlob;
+
     public GlobalDexConfig(File outputDir) {
         this.outputDir = outputDir;
     }
@@ -21,6 +33,39 @@ public class GlobalDexConfig {
         return new File(outputDir, "jni_init.c");
     }
 
+    /**
+     * 所有dex共用的常量池及符号解析器,文件名以_functions.c结尾,CMakeLists.txt才会编译它
+     */
+    public File getGlobalPoolFile() {
+        return new File(outputDir, "global_pool_functions.c");
+    }
+
+    public File getGlobalDataBlobFile() {
+        return new File(outputDir, "global_pool_data.bin");
+    }
+
+    public boolean isGlobalPool() {
+        return globalPool;
+    }
+
+    /**
+     * 所有生成的c源文件,输出目录中的其他c文件为以前生成的,需要删除
+     */
+    public List<File> getGeneratedSourceFiles() {
+        final List<File> files = new ArrayList<>();
+        for (DexConfig config : configs) {
+            files.addAll(config.getGeneratedSourceFiles());
+        }
+        if (globalPool) {
+            files.add(getGlobalPoolFile());
+            if (globalDataBlob) {
+                files.add(getGlobalDataBlobFile());
+            }
+        }
+        files.add(getInitCodeFile());
+        return files;
+    }
+
     public void addDexConfig(DexConfig config) {
         configs.add(config);
     }
@@ -29,9 +74,43 @@ public class GlobalDexConfig {
         return configs;
     }
 
+    //所有dex的类继承关系
+    public ClassHierarchy getClassHierarchy() {
+        return classHierarchy;
+    }
+
+    public void setClassHierarchy(ClassHierarchy classHierarchy) {
+        this.classHierarchy = classHierarchy;
+    }
+
+    /**
+     * 生成所有dex共用的常量池,每个dex的符号解析器只引用它
+     *
+     * @param references 所有dex的常量池
+     * @param dataBlob   常量池写入数据文件
+     */
+    public void generateGlobalPool(References references, boolean dataBlob) throws IOException {
+        final ResolverCodeGenerator generator = new ResolverCodeGenerator(references);
+        final DataBlob blob = dataBlob ? new DataBlob("global_pool_data") : null;
+        generator.setDataBlob(blob);
+        try (
+                final ChangedFileWriter writer = new ChangedFileWriter(getGlobalPoolFile());
+        ) {
+            generator.generateGlobal(writer);
+            if (blob != null) {
+                blob.writeIncbin(writer, getGlobalDataBlobFile().getName());
+            }
+        }
+        if (blob != null) {
+            FileUtils.writeIfChanged(getGlobalDataBlobFile(), blob.toByteArray());
+        }
+        globalPool = true;
+        globalDataBlob = dataBlob;
+    }
+
     public void generateJniInitCode() throws IOException {
         try (
-                final FileWriter writer = new FileWriter(getInitCodeFile());
+                final ChangedFileWriter writer = new ChangedFileWriter(getInitCodeFile());
         ) {
             generateJniInitCode(writer);
         }
@@ -42,6 +121,12 @@ public class GlobalDexConfig {
 
         final StringBuilder initCallSta = new StringBuilder();
 
+        if (globalPool) {
+            //共用的符号解析器需要在所有dex之前初始化
+            includeStaOrExternFunc.append(String.format("extern void %s(JNIEnv *env);\n", ResolverCodeGenerator.GLOBAL_RESOLVER_INIT));
+            initCallSta.append(String.format("    %s(env);\n", ResolverCodeGenerator.GLOBAL_RESOLVER_INIT));
+        }
+
         for (DexConfig config : configs) {
             final DexConfig.HeaderFileAndSetupFuncName setupFunc = config.getHeaderFileAndSetupFunc();
             includeStaOrExternFunc.append(String.format("extern void %s(JNIEnv *env);\n", setupFunc.setupFunctionName));
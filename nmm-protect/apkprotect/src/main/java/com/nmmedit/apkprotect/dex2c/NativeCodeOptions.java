@@ -0,0 +1,46 @@
+package com.nmmedit.apkprotect.dex2c;
+
+/**
+ * 生成c代码的方式,影响输出的文件,不影响转换结果
+ */
+public class NativeCodeOptions {
+    public static final NativeCodeOptions DEFAULT = new NativeCodeOptions(1, false);
+
+    //每个dex的本地方法分散到几个c文件
+    private final int shards;
+    //字节码及常量池写入二进制文件,通过.incbin链接,c代码里只引用偏移
+    private final boolean dataBlob;
+    //所有dex共用一个常量池及符号解析器
+    private final boolean globalPool;
+
+    public NativeCodeOptions(int shards, boolean dataBlob) {
+        this(shards, dataBlob, false);
+    }
+
+    public NativeCodeOptions(int shards, boolean dataBlob, boolean globalPool) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards < 1");
+        }
+        this.shards = shards;
+        this.dataBlob = dataBlob;
+        this.globalPool = globalPool;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public boolean isDataBlob() {
+        return dataBlob;
+    }
+
+    public boolean isGlobalPool() {
+        return globalPool;
+    }
+
+    //参与计算缓存key
+    @Override
+    public String toString() {
+        return "shards=" + shards + ",dataBlob=" + dataBlob + ",globalPool=" + globalPool;
+    }
+}
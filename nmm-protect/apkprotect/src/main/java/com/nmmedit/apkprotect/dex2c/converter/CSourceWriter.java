@@ -0,0 +1,235 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.util.ModifiedUtf8;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 生成c代码用的Writer,带缓冲,同时提供查表输出十六进制及十进制数字的方法,
+ * 替代每个元素调用一次String.format,输出内容和String.format完全相同
+ */
+public class CSourceWriter extends Writer {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    //每个字节对应的两个十六进制字符
+    private static final char[] BYTE_HEX = new char[256 * 2];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            BYTE_HEX[i * 2] = HEX_DIGITS[i >>> 4];
+            BYTE_HEX[i * 2 + 1] = HEX_DIGITS[i & 0xF];
+        }
+    }
+
+    private final Writer out;
+    private final char[] buf;
+    private int pos;
+
+    public CSourceWriter(@Nonnull Writer out) {
+        this(out, 16 * 1024);
+    }
+
+    public CSourceWriter(@Nonnull Writer out, int bufferSize) {
+        //至少能放下一个long的十进制或十六进制表示
+        this.out = out;
+        this.buf = new char[Math.max(bufferSize, 64)];
+    }
+
+    /**
+     * 已经是CSourceWriter直接返回,否则包装一层,使用后需要flush
+     */
+    @Nonnull
+    public static CSourceWriter wrap(@Nonnull Writer writer) {
+        if (writer instanceof CSourceWriter) {
+            return (CSourceWriter) writer;
+        }
+        return new CSourceWriter(writer);
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensure(1);
+        buf[pos++] = (char) c;
+    }
+
+    @Override
+    public void write(@Nonnull char[] cbuf, int off, int len) throws IOException {
+        if (len > buf.length) {
+            flushBuffer();
+            out.write(cbuf, off, len);
+            return;
+        }
+        ensure(len);
+        System.arraycopy(cbuf, off, buf, pos, len);
+        pos += len;
+    }
+
+    @Override
+    public void write(@Nonnull String str, int off, int len) throws IOException {
+        while (len > 0) {
+            ensure(Math.min(len, buf.length));
+            final int n = Math.min(len, buf.length - pos);
+            str.getChars(off, off + n, buf, pos);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public CSourceWriter append(CharSequence csq) throws IOException {
+        if (csq instanceof String) {
+            write((String) csq);
+        } else if (csq instanceof StringBuilder) {
+            append((StringBuilder) csq);
+        } else {
+            write(String.valueOf(csq));
+        }
+        return this;
+    }
+
+    /**
+     * 直接复制StringBuilder内容,不生成中间字符串
+     */
+    public CSourceWriter append(@Nonnull StringBuilder sb) throws IOException {
+        int off = 0;
+        int len = sb.length();
+        while (len > 0) {
+            ensure(Math.min(len, buf.length));
+            final int n = Math.min(len, buf.length - pos);
+            sb.getChars(off, off + n, buf, pos);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+        return this;
+    }
+
+    /**
+     * 等同于String.format("0x%02x", value &amp; 0xFF)
+     */
+    public void writeHex2(int value) throws IOException {
+        ensure(4);
+        final int i = (value & 0xFF) * 2;
+        buf[pos++] = '0';
+        buf[pos++] = 'x';
+        buf[pos++] = BYTE_HEX[i];
+        buf[pos++] = BYTE_HEX[i + 1];
+    }
+
+    /**
+     * 只输出两个十六进制字符,不带0x前缀
+     */
+    public void writeHex2Digits(int value) throws IOException {
+        ensure(2);
+        final int i = (value & 0xFF) * 2;
+        buf[pos++] = BYTE_HEX[i];
+        buf[pos++] = BYTE_HEX[i + 1];
+    }
+
+    /**
+     * 等同于String.format("0x%04x", value),value为非负数,超过0xffff时输出更多位
+     */
+    public void writeHex4(long value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        int digits = 4;
+        while (digits < 16 && (value >>> (digits * 4)) != 0) {
+            digits++;
+        }
+        ensure(2 + digits);
+        buf[pos++] = '0';
+        buf[pos++] = 'x';
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buf[pos++] = HEX_DIGITS[(int) (value >>> shift) & 0xF];
+        }
+    }
+
+    /**
+     * 等同于String.format("%d", value)
+     */
+    public void writeInt(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                write(Long.toString(value));
+                return;
+            }
+            write('-');
+            value = -value;
+        }
+        ensure(20);
+        //先算出位数再从后往前填充
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int p = pos + digits;
+        pos = p;
+        do {
+            buf[--p] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * 以"0x%02x,"格式输出字符串的modified utf8编码,全为ascii字符时不需要编码
+     *
+     * @return 编码后的字节数
+     */
+    public int writeModifiedUtf8Bytes(@Nonnull String str) throws IOException {
+        final int length = str.length();
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            final char c = str.charAt(i);
+            //0在modified utf8里为两个字节
+            if (c == 0 || c > 0x7F) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            for (int i = 0; i < length; i++) {
+                writeHex2(str.charAt(i));
+                write(',');
+            }
+            return length;
+        }
+        final byte[] bytes = ModifiedUtf8.encode(str);
+        for (byte b : bytes) {
+            writeHex2(b);
+            write(',');
+        }
+        return bytes.length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
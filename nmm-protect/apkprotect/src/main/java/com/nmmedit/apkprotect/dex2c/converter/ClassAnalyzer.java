@@ -1,44 +1,47 @@
 package com.nmmedit.apkprotect.dex2c.converter;
 
-import com.google.common.collect.Maps;
 import org.jf.dexlib2.base.reference.BaseFieldReference;
-import org.jf.dexlib2.dexbacked.DexBackedClassDef;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
-import org.jf.dexlib2.iface.Field;
 import org.jf.dexlib2.iface.reference.FieldReference;
 
 import javax.annotation.Nonnull;
-import java.util.Map;
+import java.util.Collections;
 
 //目前用于分析接口静态域，后面可能其他用途
 public class ClassAnalyzer {
-    private final Map<String, ClassDef> originClasses = Maps.newHashMap();
+    private final ClassHierarchy hierarchy;
 
+    //只能分析当前dex里的类
     public ClassAnalyzer(@Nonnull DexBackedDexFile dexFile) {
+        this(new ClassHierarchy(Collections.singletonList(dexFile)));
+    }
 
-        for (DexBackedClassDef classDef : dexFile.getClasses()) {
-            originClasses.put(classDef.getType(), classDef);
-        }
+    /**
+     * @param hierarchy 整个apk的类继承关系,可以查找其他dex里的接口
+     */
+    public ClassAnalyzer(@Nonnull ClassHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    @Nonnull
+    public ClassHierarchy getHierarchy() {
+        return hierarchy;
     }
 
     //处理接口中静态域无法通过子类获得值问题
     public FieldReference getDirectFieldRef(FieldReference reference) {
-        final ClassDef classDef = originClasses.get(reference.getDefiningClass());
-        if (classDef == null) {//不再当前dex中或者在系统库
-            return null;
-        }
-
         final String fieldName = reference.getName();
         final String fieldType = reference.getType();
 
-        final ClassDef newClassDef = findFieldDefiningClass(classDef, fieldName, fieldType);
-        if (newClassDef != null) {
+        //不在apk中或者在系统库返回null
+        final String definingClass = hierarchy.findStaticFieldDefiningClass(reference.getDefiningClass(),
+                fieldName, fieldType);
+        if (definingClass != null) {
             return new BaseFieldReference() {
                 @Nonnull
                 @Override
                 public String getDefiningClass() {
-                    return newClassDef.getType();
+                    return definingClass;
                 }
 
                 @Nonnull
@@ -58,24 +61,4 @@ public class ClassAnalyzer {
 
         return null;
     }
-
-    private ClassDef findFieldDefiningClass(ClassDef classDef, String fieldName, String fieldType) {
-        if (classDef == null) {
-            return null;
-        }
-        //查找当前类的静态域，如果名称和类型匹配，则返回对应的classDef
-        for (Field field : classDef.getStaticFields()) {
-            if (field.getName().equals(fieldName) && field.getType().equals(fieldType)) {
-                return classDef;
-            }
-        }
-        //查找接口对应的classDef
-        for (String defInterface : classDef.getInterfaces()) {
-            final ClassDef definingClass = findFieldDefiningClass(originClasses.get(defInterface), fieldName, fieldType);
-            if (definingClass != null) {
-                return definingClass;
-            }
-        }
-        return null;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,336 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.util.DexLoader;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.reference.FieldReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 整个apk所有dex的类继承关系,构造一次后只读,多个线程可以同时使用.
+ * 只保存类型名,父类,接口及静态域,不引用dex数据,所有dex的类同时在内存中也不会占用太多内存.
+ * 父类链,接口闭包及子类等查询结果都会缓存
+ */
+public class ClassHierarchy {
+    private final Map<String, ClassInfo> classes = new HashMap<>();
+    //父类型->直接子类型
+    private final Map<String, List<String>> directSubclasses = new HashMap<>();
+
+    private final Map<String, List<String>> superclassesCache = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> interfacesCache = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> subclassesCache = new ConcurrentHashMap<>();
+    //key为"类型->域名:域类型",value为空字符串表示找不到
+    private final Map<String, String> staticFieldCache = new ConcurrentHashMap<>();
+
+    public ClassHierarchy(@Nonnull List<? extends DexFile> dexFiles) {
+        for (DexFile dexFile : dexFiles) {
+            addClasses(dexFile);
+        }
+        buildSubclasses();
+    }
+
+    private ClassHierarchy() {
+    }
+
+    /**
+     * 逐个加载dex文件,提取类信息后不再引用dex数据
+     */
+    @Nonnull
+    public static ClassHierarchy load(@Nonnull List<File> dexFiles) throws IOException {
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        for (File file : dexFiles) {
+            hierarchy.addClasses(DexLoader.load(file));
+        }
+        hierarchy.buildSubclasses();
+        return hierarchy;
+    }
+
+    private void addClasses(DexFile dexFile) {
+        for (ClassDef classDef : dexFile.getClasses()) {
+            //和运行时一样,多个dex有同名类时使用前面的
+            classes.putIfAbsent(classDef.getType(), new ClassInfo(classDef));
+        }
+    }
+
+    private void buildSubclasses() {
+        for (ClassInfo info : classes.values()) {
+            if (info.superclass != null) {
+                directSubclasses.computeIfAbsent(info.superclass, k -> new ArrayList<>()).add(info.type);
+            }
+        }
+        for (List<String> subclasses : directSubclasses.values()) {
+            Collections.sort(subclasses);
+        }
+    }
+
+    @Nullable
+    public ClassInfo getClassInfo(@Nonnull String type) {
+        return classes.get(type);
+    }
+
+    public boolean contains(@Nonnull String type) {
+        return classes.containsKey(type);
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * 所有父类,从直接父类开始,最后一个可能是不在apk里的类型,比如Landroid/app/Activity;
+     */
+    @Nonnull
+    public List<String> getSuperclasses(@Nonnull String type) {
+        final List<String> cached = superclassesCache.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        final List<String> superclasses = new ArrayList<>();
+        final Set<String> visited = new HashSet<>();
+        visited.add(type);
+        ClassInfo info = classes.get(type);
+        while (info != null && info.superclass != null && visited.add(info.superclass)) {
+            superclasses.add(info.superclass);
+            info = classes.get(info.superclass);
+        }
+        final List<String> result = Collections.unmodifiableList(superclasses);
+        superclassesCache.putIfAbsent(type, result);
+        return result;
+    }
+
+    /**
+     * 类及所有父类实现的接口,包括接口继承的接口
+     */
+    @Nonnull
+    public Set<String> getInterfaces(@Nonnull String type) {
+        final Set<String> cached = interfacesCache.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        final Set<String> interfaces = new LinkedHashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        pending.add(type);
+        pending.addAll(getSuperclasses(type));
+        while (!pending.isEmpty()) {
+            final ClassInfo info = classes.get(pending.poll());
+            if (info == null) {
+                continue;
+            }
+            for (String iface : info.interfaces) {
+                if (interfaces.add(iface)) {
+                    pending.add(iface);
+                }
+            }
+        }
+        final Set<String> result = Collections.unmodifiableSet(interfaces);
+        interfacesCache.putIfAbsent(type, result);
+        return result;
+    }
+
+    /**
+     * 所有父类及接口
+     */
+    @Nonnull
+    public Set<String> getSupertypes(@Nonnull String type) {
+        final Set<String> supertypes = new LinkedHashSet<>(getSuperclasses(type));
+        supertypes.addAll(getInterfaces(type));
+        return supertypes;
+    }
+
+    public boolean isSubtypeOf(@Nonnull String type, @Nonnull String supertype) {
+        return getSuperclasses(type).contains(supertype) || getInterfaces(type).contains(supertype);
+    }
+
+    @Nonnull
+    public List<String> getDirectSubclasses(@Nonnull String type) {
+        final List<String> subclasses = directSubclasses.get(type);
+        return subclasses == null ? Collections.emptyList() : Collections.unmodifiableList(subclasses);
+    }
+
+    /**
+     * 所有直接及间接子类,不包括实现接口的类
+     */
+    @Nonnull
+    public Set<String> getSubclasses(@Nonnull String type) {
+        final Set<String> cached = subclassesCache.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        final Set<String> subclasses = new LinkedHashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        pending.add(type);
+        while (!pending.isEmpty()) {
+            for (String subclass : getDirectSubclasses(pending.poll())) {
+                if (subclasses.add(subclass)) {
+                    pending.add(subclass);
+                }
+            }
+        }
+        final Set<String> result = Collections.unmodifiableSet(subclasses);
+        subclassesCache.putIfAbsent(type, result);
+        return result;
+    }
+
+    /**
+     * 查找静态域实际定义的类,先查找当前类,再查找它实现的接口.
+     * 用于处理接口中静态域无法通过子类获得值问题
+     *
+     * @return 类不在apk里或者找不到对应的静态域返回null
+     */
+    @Nullable
+    public String findStaticFieldDefiningClass(@Nonnull String type, @Nonnull String fieldName, @Nonnull String fieldType) {
+        final String key = type + "->" + fieldName + ":" + fieldType;
+        final String cached = staticFieldCache.get(key);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached;
+        }
+        final String definingClass = findStaticField(type, fieldName + ":" + fieldType, new HashSet<>());
+        staticFieldCache.putIfAbsent(key, definingClass == null ? "" : definingClass);
+        return definingClass;
+    }
+
+    private String findStaticField(String type, String field, Set<String> visited) {
+        final ClassInfo info = classes.get(type);
+        if (info == null || !visited.add(type)) {
+            return null;
+        }
+        if (info.staticFields.contains(field)) {
+            return type;
+        }
+        for (String iface : info.interfaces) {
+            final String definingClass = findStaticField(iface, field, visited);
+            if (definingClass != null) {
+                return definingClass;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * dex转换结果依赖的继承关系摘要,作为转换缓存key的一部分.
+     * 只包括dex里的类及引用的域所在的类,和它们所有的父类及接口的类型,父类,接口及静态域,
+     * 其他dex里无关的类改变不影响这个dex的缓存
+     */
+    @Nonnull
+    public String getFingerprint(@Nonnull DexBackedDexFile dexFile) {
+        final Deque<String> pending = new ArrayDeque<>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            pending.add(classDef.getType());
+        }
+        //接口静态域需要通过引用的类查找
+        for (FieldReference field : dexFile.getFieldSection()) {
+            pending.add(field.getDefiningClass());
+        }
+        final Set<String> types = new TreeSet<>();
+        while (!pending.isEmpty()) {
+            final String type = pending.poll();
+            if (!types.add(type)) {
+                continue;
+            }
+            final ClassInfo info = classes.get(type);
+            if (info != null) {
+                if (info.superclass != null) {
+                    pending.add(info.superclass);
+                }
+                pending.addAll(info.interfaces);
+            }
+        }
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (String type : types) {
+            final ClassInfo info = classes.get(type);
+            sb.setLength(0);
+            sb.append(type);
+            if (info == null) {
+                //不在apk里,以后加入时结果会改变
+                sb.append(" ?");
+            } else {
+                //instanceof规则沿父类查找,父类改变也影响匹配结果
+                sb.append(" : ").append(info.superclass);
+                for (String iface : info.interfaces) {
+                    sb.append(' ').append(iface);
+                }
+                sb.append('|');
+                final List<String> fields = new ArrayList<>(info.staticFields);
+                Collections.sort(fields);
+                for (String field : fields) {
+                    sb.append(' ').append(field);
+                }
+            }
+            sb.append('\n');
+            digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public static class ClassInfo {
+        private final String type;
+        @Nullable
+        private final String superclass;
+        private final List<String> interfaces;
+        private final int accessFlags;
+        //"域名:域类型"
+        private final Set<String> staticFields;
+
+        ClassInfo(ClassDef classDef) {
+            this.type = classDef.getType();
+            this.superclass = classDef.getSuperclass();
+            this.interfaces = new ArrayList<>(classDef.getInterfaces());
+            this.accessFlags = classDef.getAccessFlags();
+            Set<String> staticFields = null;
+            for (Field field : classDef.getStaticFields()) {
+                if (staticFields == null) {
+                    staticFields = new HashSet<>();
+                }
+                staticFields.add(field.getName() + ":" + field.getType());
+            }
+            this.staticFields = staticFields == null ? Collections.emptySet() : staticFields;
+        }
+
+        @Nonnull
+        public String getType() {
+            return type;
+        }
+
+        @Nullable
+        public String getSuperclass() {
+            return superclass;
+        }
+
+        @Nonnull
+        public List<String> getInterfaces() {
+            return Collections.unmodifiableList(interfaces);
+        }
+
+        public int getAccessFlags() {
+            return accessFlags;
+        }
+
+        public boolean isInterface() {
+            return AccessFlags.INTERFACE.isSet(accessFlags);
+        }
+    }
+}
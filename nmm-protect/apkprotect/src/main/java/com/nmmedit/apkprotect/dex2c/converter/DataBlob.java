@@ -0,0 +1,130 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 收集字节码及常量池等只读数据,最后写入一个二进制文件,通过.incbin链接到so里,
+ * c代码里只使用符号加偏移访问,编译器不用解析大量数字常量.
+ * <p>
+ * 多字节数据按小端写入,android支持的abi都是小端
+ */
+public class DataBlob {
+    private final String symbol;
+    private byte[] data = new byte[64 * 1024];
+    private int size;
+
+    /**
+     * @param symbol 数据在c代码里的符号名
+     */
+    public DataBlob(@Nonnull String symbol) {
+        this.symbol = symbol;
+    }
+
+    @Nonnull
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensure(int n) {
+        if (size + n > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+        }
+    }
+
+    /**
+     * 补0对齐,返回对齐后的偏移
+     */
+    public int align(int alignment) {
+        final int padding = (alignment - size % alignment) % alignment;
+        ensure(padding);
+        size += padding;
+        return size;
+    }
+
+    /**
+     * 写入数据,返回数据起始偏移
+     */
+    public int put(@Nonnull byte[] bytes, int alignment) {
+        final int offset = align(alignment);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, data, size, bytes.length);
+        size += bytes.length;
+        return offset;
+    }
+
+    public void putByte(int value) {
+        ensure(1);
+        data[size++] = (byte) value;
+    }
+
+    public void putShort(int value) {
+        ensure(2);
+        data[size++] = (byte) value;
+        data[size++] = (byte) (value >>> 8);
+    }
+
+    public void putInt(int value) {
+        ensure(4);
+        data[size++] = (byte) value;
+        data[size++] = (byte) (value >>> 8);
+        data[size++] = (byte) (value >>> 16);
+        data[size++] = (byte) (value >>> 24);
+    }
+
+    @Nonnull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * 数据的sha-1,写入引用它的c文件,数据改变时c文件跟着改变,增量编译时才会重新编译
+     */
+    @Nonnull
+    public String getDigest() {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data, 0, size);
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 通过.incbin把数据文件链接进so,NMMP_GENERATED_DIR由CMakeLists.txt定义为数据文件所在目录.
+     * 数据文件的sha-1写入注释,数据改变时c文件也改变,增量编译能正确重新编译
+     *
+     * @param fileName 数据文件名
+     */
+    public void writeIncbin(@Nonnull Writer writer, @Nonnull String fileName) throws IOException {
+        writer.write(String.format("\n" +
+                        "//data sha1: %s\n" +
+                        "__asm__(\n" +
+                        "    \".section .rodata\\n\"\n" +
+                        "    \".balign 8\\n\"\n" +
+                        "    \".global %s\\n\"\n" +
+                        "    \".hidden %s\\n\"\n" +
+                        "    \".type %s, %%object\\n\"\n" +
+                        "    \"%s:\\n\"\n" +
+                        "    \".incbin \\\"\" NMMP_GENERATED_DIR \"/%s\\\"\\n\"\n" +
+                        "    \".size %s, . - %s\\n\"\n" +
+                        "    \".previous\\n\"\n" +
+                        ");\n"
+                , getDigest(), symbol, symbol, symbol, symbol,
+                fileName, symbol, symbol));
+    }
+}
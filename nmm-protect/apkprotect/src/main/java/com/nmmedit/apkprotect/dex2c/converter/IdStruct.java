@@ -0,0 +1,114 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 常量表里的索引结构体,比如FieldId,MethodId.
+ * 每个字段根据对应常量池大小选择u2或u4,写入数据文件时按c结构体的对齐规则补0,和生成的typedef内存布局一致
+ */
+class IdStruct {
+    private final String typeName;
+    private final List<String> names = new ArrayList<>();
+    //字段是否使用u4
+    private final List<Boolean> wides = new ArrayList<>();
+
+    IdStruct(@Nonnull String typeName) {
+        this.typeName = typeName;
+    }
+
+    /**
+     * @param poolSize 字段索引的常量池大小,超过u2能表示的范围时使用u4
+     */
+    @Nonnull
+    IdStruct field(@Nonnull String name, int poolSize) {
+        names.add(name);
+        wides.add(poolSize > 0x10000);
+        return this;
+    }
+
+    @Nonnull
+    String getTypeName() {
+        return typeName;
+    }
+
+    @Nonnull
+    String typedef() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("typedef struct {\n");
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(wides.get(i) ? "    u4 " : "    u2 ").append(names.get(i)).append(";\n");
+        }
+        sb.append("} ").append(typeName).append(";\n");
+        return sb.toString();
+    }
+
+    /**
+     * 结构体大小,包括结尾的填充
+     */
+    int size() {
+        int offset = 0;
+        boolean wide = false;
+        for (boolean w : wides) {
+            offset = align(offset, w ? 4 : 2) + (w ? 4 : 2);
+            wide |= w;
+        }
+        return align(offset, wide ? 4 : 2);
+    }
+
+    void write(@Nonnull DataBlob dataBlob, int... values) {
+        check(values);
+        int offset = 0;
+        boolean wide = false;
+        for (int i = 0; i < values.length; i++) {
+            final boolean w = wides.get(i);
+            offset = pad(dataBlob, offset, w ? 4 : 2);
+            if (w) {
+                dataBlob.putInt(values[i]);
+                offset += 4;
+            } else {
+                dataBlob.putShort(values[i]);
+                offset += 2;
+            }
+            wide |= w;
+        }
+        pad(dataBlob, offset, wide ? 4 : 2);
+    }
+
+    void write(@Nonnull CSourceWriter writer, int... values) throws IOException {
+        check(values);
+        for (int i = 0; i < values.length; i++) {
+            writer.write(i == 0 ? "    {." : ", .");
+            writer.write(names.get(i));
+            writer.write("=");
+            writer.writeInt(values[i]);
+        }
+        writer.write("},\n");
+    }
+
+    //生成代码时检查索引是否溢出,不让c编译器静默截断
+    private void check(int[] values) {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException(typeName + " needs " + names.size() + " values");
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!wides.get(i) && (values[i] & 0xFFFF0000) != 0) {
+                throw new RuntimeException(String.format("%s.%s index overflow: %d", typeName, names.get(i), values[i]));
+            }
+        }
+    }
+
+    private static int pad(DataBlob dataBlob, int offset, int alignment) {
+        final int aligned = align(offset, alignment);
+        for (int i = offset; i < aligned; i++) {
+            dataBlob.putByte(0);
+        }
+        return aligned;
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
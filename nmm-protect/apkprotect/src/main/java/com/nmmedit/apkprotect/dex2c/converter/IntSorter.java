@@ -0,0 +1,54 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * 使用自定义比较器给int数组排序,不需要装箱.归并排序,相同元素保持原顺序
+ */
+final class IntSorter {
+    interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    private IntSorter() {
+    }
+
+    static void sort(@Nonnull int[] a, @Nonnull IntComparator comparator) {
+        if (a.length < 2) {
+            return;
+        }
+        mergeSort(a.clone(), a, 0, a.length, comparator);
+    }
+
+    //src和dest开始时内容相同,结果写入dest
+    private static void mergeSort(int[] src, int[] dest, int from, int to, IntComparator comparator) {
+        final int length = to - from;
+        if (length < 16) {
+            for (int i = from + 1; i < to; i++) {
+                final int v = dest[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(dest[j], v) > 0) {
+                    dest[j + 1] = dest[j];
+                    j--;
+                }
+                dest[j + 1] = v;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        mergeSort(dest, src, from, mid, comparator);
+        mergeSort(dest, src, mid, to, comparator);
+
+        if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, from, dest, from, length);
+            return;
+        }
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || p < mid && comparator.compare(src[p], src[q]) <= 0) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import java.util.Arrays;
+
+/**
+ * 三个int组成的元组去重表,每个元组对应一个从0开始的id,使用开放寻址查找.
+ * 用于保存由字符串id组成的域及方法引用.非线程安全
+ */
+class IntTripleTable {
+    private static final int EMPTY = -1;
+
+    private int[] values = new int[3 * 1024];
+    private int size;
+
+    private int[] slots;
+    private int mask;
+
+    IntTripleTable() {
+        slots = new int[2048];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int id, int index) {
+        return values[id * 3 + index];
+    }
+
+    /**
+     * 返回元组对应的id,不存在时添加
+     */
+    int add(int a, int b, int c) {
+        int slot = hash(a, b, c) & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (equalsAt(id, a, b, c)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if ((size + 1) * 3 > values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        id = size++;
+        final int base = id * 3;
+        values[base] = a;
+        values[base + 1] = b;
+        values[base + 2] = c;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return 不存在时返回-1
+     */
+    int indexOf(int a, int b, int c) {
+        int slot = hash(a, b, c) & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (equalsAt(id, a, b, c)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private boolean equalsAt(int id, int a, int b, int c) {
+        final int base = id * 3;
+        return values[base] == a && values[base + 1] == b && values[base + 2] == c;
+    }
+
+    private void rehash() {
+        final int[] newSlots = new int[slots.length * 2];
+        Arrays.fill(newSlots, EMPTY);
+        final int newMask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            final int base = id * 3;
+            int slot = hash(values[base], values[base + 1], values[base + 2]) & newMask;
+            while (newSlots[slot] != EMPTY) {
+                slot = (slot + 1) & newMask;
+            }
+            newSlots[slot] = id;
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = a * 0x9E3779B1;
+        h = (h ^ b) * 0x9E3779B1;
+        h = (h ^ c) * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+}
@@ -7,12 +7,12 @@ import org.jf.dexlib2.AccessFlags;
 import org.jf.dexlib2.dexbacked.DexBackedClassDef;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.dexbacked.DexBackedMethod;
-import org.jf.dexlib2.dexbacked.DexBuffer;
 import org.jf.dexlib2.iface.Method;
 import org.jf.dexlib2.iface.MethodImplementation;
 import org.jf.dexlib2.util.MethodUtil;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.*;
@@ -23,6 +23,9 @@ import java.util.*;
  */
 
 public class JniCodeGenerator {
+    //分片文件里的函数在多个文件间可见,但不导出
+    private static final String SHARED_FUNCTION = "NMMP_HIDDEN";
+
     private final boolean isRegisterNative;
 
     private final HashMultimap<String, MyMethod> handledNativeMethods = HashMultimap.create();
@@ -30,24 +33,67 @@ public class JniCodeGenerator {
     private final Map<String, Integer> nativeMethodOffsets = new HashMap<>();
     private final ResolverCodeGenerator resolverCodeGenerator;
     private final InstructionRewriter instructionRewriter;
+    private final ClassAnalyzer analyzer;
     private final DexBackedDexFile dexFile;
 
+    //生成每个方法时复用
+    private final StringBuilder regsAssign = new StringBuilder();
+    private final StringBuilder regFlagsAssign = new StringBuilder();
+    private final StringBuilder params = new StringBuilder();
+    private final StringBuilder declaration = new StringBuilder();
+
+    //分片文件里的函数声明,主文件注册本地方法时需要
+    private final List<String> sharedPrototypes = new ArrayList<>();
+
+    private DataBlob dataBlob;
+
     public JniCodeGenerator(@Nonnull DexBackedDexFile dexFile,
                             @Nonnull ClassAnalyzer analyzer,
                             @Nonnull InstructionRewriter instructionRewriter) {
+        this(dexFile, analyzer, instructionRewriter, null);
+    }
+
+    /**
+     * @param globalReferences 所有dex共用的常量池,为null则只使用当前dex的常量池
+     */
+    public JniCodeGenerator(@Nonnull DexBackedDexFile dexFile,
+                            @Nonnull ClassAnalyzer analyzer,
+                            @Nonnull InstructionRewriter instructionRewriter,
+                            @Nullable References globalReferences) {
         this.dexFile = dexFile;
 
 //      根据dex里字符串常量,类型常量等生成符号解析代码,给vm提供符号信息
-        resolverCodeGenerator = new ResolverCodeGenerator(dexFile, analyzer);
+        resolverCodeGenerator = globalReferences != null
+                ? new ResolverCodeGenerator(globalReferences)
+                : new ResolverCodeGenerator(dexFile, analyzer);
 
         this.instructionRewriter = instructionRewriter;
-
-        instructionRewriter.loadReferences(resolverCodeGenerator.getReferences(), analyzer);
+        this.analyzer = analyzer;
 
         this.isRegisterNative = true;
     }
 
+    /**
+     * 设置后字节码及常量池写入数据文件,生成代码后需要把数据写入{@link DexConfig#getDataBlobFile()}
+     */
+    public void setDataBlob(@Nullable DataBlob dataBlob) {
+        this.dataBlob = dataBlob;
+        resolverCodeGenerator.setDataBlob(dataBlob);
+    }
+
     public void addMethod(Method method, Writer writer) throws IOException {
+        final CSourceWriter out = CSourceWriter.wrap(writer);
+        addMethod(method, out, null);
+        if (out != writer) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @param sharedPrefix 不为null表示方法在分片文件里,需要被主文件的注册表引用,不能为static.
+     *                     函数名加上这个前缀,防止多个dex里的同名类生成相同的符号
+     */
+    private void addMethod(Method method, CSourceWriter writer, @Nullable String sharedPrefix) throws IOException {
         final MethodImplementation implementation = method.getImplementation();
         if (implementation == null) {
             return;
@@ -66,57 +112,62 @@ public class JniCodeGenerator {
 
         String clazzName = classType.substring(1, classType.length() - 1);
 
-        handledNativeMethods.put(clazzName, new MyMethod(clazzName, methodName, parameterTypes, returnType));
+        final boolean shared = sharedPrefix != null;
+        final String jniFunctionName = MyMethodUtil.getJniFunctionName(clazzName, methodName, parameterTypes, returnType);
+        final String functionName = shared ? sharedPrefix + jniFunctionName : jniFunctionName;
+        handledNativeMethods.put(clazzName, new MyMethod(clazzName, methodName, parameterTypes, returnType, functionName));
 
-        writer.write(String.format("%s %s %s(JNIEnv *env, %s ",
-                isRegisterNative ? "static" : "JNIEXPORT",
-                getJNIType(returnType),
-                MyMethodUtil.getJniFunctionName(clazzName, methodName, parameterTypes, returnType),
-                isStatic ? "jclass jcls" : "jobject thiz")
-        );
+        final StringBuilder declaration = this.declaration;
+        declaration.setLength(0);
+        declaration.append(shared ? SHARED_FUNCTION : isRegisterNative ? "static" : "JNIEXPORT")
+                .append(' ').append(getJNIType(returnType))
+                .append(' ').append(functionName)
+                .append("(JNIEnv *env, ")
+                .append(isStatic ? "jclass jcls" : "jobject thiz")
+                .append(' ');
 
 //        --------jni函数定义及参数赋值-------
 
         //如果寄存器数量比较小直接使用栈上内存,不自己分配和释放
         boolean useStack = registerCount <= 8;
 
-        //寄存器初始化
-        StringBuilder regsAssign;
-        StringBuilder regFlagsAssign;
+        //寄存器初始化,StringBuilder每个方法复用
+        final StringBuilder regsAssign = this.regsAssign;
+        final StringBuilder regFlagsAssign = this.regFlagsAssign;
+        final StringBuilder params = this.params;
+        regsAssign.setLength(0);
+        regFlagsAssign.setLength(0);
+        params.setLength(0);
         if (useStack) {
-            regsAssign = new StringBuilder(String.format(
-                    "    regptr_t regs[%d];\n", registerCount));
+            regsAssign.append("    regptr_t regs[").append(registerCount).append("];\n");
             //直接赋值数组元素值为0,初始化寄存器及其状态,不调用memset
             //好处是和后面赋值参数及参数类型时,编译器可以优化无用赋值
 
             for (int i = 0; i < registerCount; i++) {
-                regsAssign.append(String.format("    regs[%d] = 0;\n", i));
+                regsAssign.append("    regs[").append(i).append("] = 0;\n");
             }
-            regFlagsAssign = new StringBuilder(String.format(
-                    "    u1 reg_flags[%d];\n", registerCount));
+            regFlagsAssign.append("    u1 reg_flags[").append(registerCount).append("];\n");
 
             for (int i = 0; i < registerCount; i++) {
-                regFlagsAssign.append(String.format("    reg_flags[%d] = 0;\n", i));
+                regFlagsAssign.append("    reg_flags[").append(i).append("] = 0;\n");
             }
         } else {
             //一次同时分配寄存器及它的状态所需内存
-            regsAssign = new StringBuilder(String.format(
-                    "    regptr_t *regs = (regptr_t *) calloc(%d, sizeof(regptr_t) + sizeof(u1));\n",
-                    registerCount));
+            regsAssign.append("    regptr_t *regs = (regptr_t *) calloc(")
+                    .append(registerCount).append(", sizeof(regptr_t) + sizeof(u1));\n");
 
             //寄存器后面部分是寄存器状态数组,和寄存器数量一一对应
-            regFlagsAssign = new StringBuilder(
-                    String.format("    u1 *reg_flags = ((u1 *) regs) + (%d * sizeof(regptr_t));\n", registerCount));
+            regFlagsAssign.append("    u1 *reg_flags = ((u1 *) regs) + (")
+                    .append(registerCount).append(" * sizeof(regptr_t));\n");
         }
         int paramRegStart = registerCount - parameterRegisterCount;
         if (!isStatic) {
-            regsAssign.append(String.format("    regs[%d] = (regptr_t) thiz;\n", paramRegStart));
+            regsAssign.append("    regs[").append(paramRegStart).append("] = (regptr_t) thiz;\n");
             //对象寄存器需要标识出来
-            regFlagsAssign.append(String.format("    reg_flags[%d] = 1;\n", paramRegStart));
+            regFlagsAssign.append("    reg_flags[").append(paramRegStart).append("] = 1;\n");
 
             paramRegStart++;
         }
-        StringBuilder params = new StringBuilder();
         for (int i = 0, size = parameterTypes.size(); i < size; i++) {
             String type = parameterTypes.get(i).toString();
             String jniType = getJNIType(type);
@@ -125,30 +176,36 @@ public class JniCodeGenerator {
                     .append(" p")
                     .append(argNum);
             if (type.startsWith("[") || type.startsWith("L")) {//对象类型
-                regsAssign.append(String.format("    regs[%d] = (regptr_t) p%d;\n", paramRegStart, argNum));
+                regsAssign.append("    regs[").append(paramRegStart).append("] = (regptr_t) p").append(argNum).append(";\n");
 
-                regFlagsAssign.append(String.format("    reg_flags[%d] = 1;\n", paramRegStart));
+                regFlagsAssign.append("    reg_flags[").append(paramRegStart).append("] = 1;\n");
 
                 paramRegStart++;
             } else if (type.equals("F")) {
-                regsAssign.append(String.format("    SET_REGISTER_FLOAT(%d, p%d);\n", paramRegStart++, argNum));
+                regsAssign.append("    SET_REGISTER_FLOAT(").append(paramRegStart++).append(", p").append(argNum).append(");\n");
             } else if (type.equals("D")) {
-                regsAssign.append(String.format("    SET_REGISTER_DOUBLE(%d, p%d);\n", paramRegStart++, argNum));
+                regsAssign.append("    SET_REGISTER_DOUBLE(").append(paramRegStart++).append(", p").append(argNum).append(");\n");
                 paramRegStart++;
             } else if (type.equals("J")) {
-                regsAssign.append(String.format("    SET_REGISTER_WIDE(%d, p%d);\n", paramRegStart++, argNum));
+                regsAssign.append("    SET_REGISTER_WIDE(").append(paramRegStart++).append(", p").append(argNum).append(");\n");
                 paramRegStart++;
             } else {
-                regsAssign.append(String.format("    regs[%d] = p%d;\n", paramRegStart++, argNum));
+                regsAssign.append("    regs[").append(paramRegStart++).append("] = p").append(argNum).append(";\n");
             }
             if (i < size - 1) {//最后不用加,
                 params.append(", ");
             }
         }
         if (params.length() > 0) {
-            writer.append(", ").append(params.toString());
+            declaration.append(", ").append(params);
         }
-        writer.append(") {\n");
+        declaration.append(')');
+        if (shared) {
+            sharedPrototypes.add(declaration.append(';').toString());
+            declaration.setLength(declaration.length() - 1);
+        }
+        writer.append(declaration);
+        writer.append(" {\n");
         writer.append(regsAssign);
         writer.append("\n");
 
@@ -156,55 +213,75 @@ public class JniCodeGenerator {
         writer.append("\n");
 //        -----------结束----------------
 
-        writer.append("    static const u2 insns[] = {");
-
-        final byte[] instructionData = instructionRewriter.rewriteInstructions(implementation);
+        final byte[] instructionData = instructionRewriter.rewriteInstructions(implementation,
+                resolverCodeGenerator.getReferences(), analyzer);
         final int dataLength = instructionData.length;
-        //生成字节码数组
-        final DexBuffer instructionBuf = new DexBuffer(instructionData);
-        for (int offset = 0; offset < dataLength; offset += 2) {
-            if (offset % 20 == 0) {
-                writer.append("\n");
+        final DataBlob dataBlob = this.dataBlob;
+        if (dataBlob != null) {
+            //字节码本身就是小端u2,直接写入
+            writer.write("    const u2 *insns = (const u2 *) (");
+            writer.write(dataBlob.getSymbol());
+            writer.write(" + ");
+            writer.writeInt(dataBlob.put(instructionData, 4));
+            writer.write(");\n");
+        } else {
+            writer.append("    static const u2 insns[] = {");
+
+            //生成字节码数组,小端u2,不用DexBuffer逐个读取
+            for (int offset = 0; offset < dataLength; offset += 2) {
+                if (offset % 20 == 0) {
+                    writer.write('\n');
+                }
+                writer.write('0');
+                writer.write('x');
+                writer.writeHex2Digits(instructionData[offset + 1]);
+                writer.writeHex2Digits(instructionData[offset]);
+                writer.write(", ");
             }
-            writer.append(String.format("0x%04x, ", instructionBuf.readUshort(offset)));
-        }
 
-        writer.append("\n    };\n");
+            writer.append("\n    };\n");
+        }
 
 
-        final byte[] tries = instructionRewriter.handleTries(implementation);
-        StringBuilder triesBuilder = new StringBuilder();
+        final byte[] tries = instructionRewriter.handleTries(implementation,
+                resolverCodeGenerator.getReferences());
         if (tries.length == 0) {
-            triesBuilder.append("    const u1 *tries = NULL;\n");
+            writer.write("    const u1 *tries = NULL;\n");
+        } else if (dataBlob != null) {
+            writer.write("    const u1 *tries = ");
+            writer.write(dataBlob.getSymbol());
+            writer.write(" + ");
+            writer.writeInt(dataBlob.put(tries, 4));
+            writer.write(";\n");
         } else {
 
-            triesBuilder.append("    static const u1 tries[] = {");
+            writer.write("    static const u1 tries[] = {");
             for (int i = 0; i < tries.length; i++) {
                 if (i % 10 == 0) {//每行10个元素
-                    triesBuilder.append("\n");
+                    writer.write('\n');
                 }
-                triesBuilder.append(String.format("0x%02x, ", tries[i] & 0xFF));
-
+                writer.writeHex2(tries[i]);
+                writer.write(", ");
             }
-            triesBuilder.append("\n    };\n");
+            writer.write("\n    };\n");
         }
-        writer.write(triesBuilder.toString());
 
 
         //调用解释器
-        writer.write(String.format("\n" +
-                        "    const vmCode code = {\n" +
-                        "            .insns=insns,\n" +
-                        "            .insnsSize=%d,\n" +
-                        "            .regs=regs,\n" +
-                        "            .reg_flags=reg_flags,\n" +
-                        "            .triesHandlers=tries\n" +
-                        "    };\n" +
-                        "\n" +
-                        "    jvalue value = vmInterpret(env,\n" +
-                        "                                &code,\n" +
-                        "                                &dvmResolver);\n"
-                , dataLength / 2));
+        writer.write("\n" +
+                "    const vmCode code = {\n" +
+                "            .insns=insns,\n" +
+                "            .insnsSize=");
+        writer.writeInt(dataLength / 2);
+        writer.write(",\n" +
+                "            .regs=regs,\n" +
+                "            .reg_flags=reg_flags,\n" +
+                "            .triesHandlers=tries\n" +
+                "    };\n" +
+                "\n" +
+                "    jvalue value = vmInterpret(env,\n" +
+                "                                &code,\n" +
+                "                                &dvmResolver);\n");
         //不使用栈需要释放内存
         if (!useStack) {
             writer.write("    free(regs);\n");
@@ -213,9 +290,9 @@ public class JniCodeGenerator {
         //根据返回类型处理jvalue
         if (!returnType.equals("V")) {
             char typeCh = returnType.charAt(0);
-            writer.append(
-                    String.format("    return value.%s;\n", Character.toLowerCase(typeCh == '[' ? 'L' : typeCh))
-            );
+            writer.append("    return value.")
+                    .append(Character.toLowerCase(typeCh == '[' ? 'L' : typeCh))
+                    .append(";\n");
         }
         writer.append("}\n\n");
     }
@@ -224,43 +301,111 @@ public class JniCodeGenerator {
         return handledNativeMethods.keySet();
     }
 
+    public int getHandledNativeMethodCount() {
+        return handledNativeMethods.size();
+    }
+
     //必须在产生代码后调用才有效果
     public Map<String, Integer> getNativeMethodOffsets() {
         return nativeMethodOffsets;
     }
 
-    public void generate(DexConfig config, Writer resolverWriter, Writer codeWriter) throws IOException {
+    public void generate(DexConfig config, Writer resolverWriter, Writer writer) throws IOException {
+        generate(config, resolverWriter, Collections.singletonList(writer), null);
+    }
+
+    /**
+     * 生成c代码,方法按hash分散到多个文件,可以并行编译.
+     * 第一个文件包含符号解析器及注册代码,其他文件通过共用头文件访问符号解析器,
+     * 方法所在分片只和方法签名有关,少量方法改变时增量编译只需编译改变了的分片
+     *
+     * @param codeWriters  对应{@link DexConfig#getNativeFunctionsFiles()}
+     * @param headerWriter 对应{@link DexConfig#getNativeSharedHeaderFile()},只有一个分片时可以为null
+     */
+    public void generate(DexConfig config, Writer resolverWriter,
+                         List<? extends Writer> codeWriters, Writer headerWriter) throws IOException {
         resolverCodeGenerator.generate(resolverWriter);
 
-        codeWriter.write(String.format("\n" +
-                        "#include <stdio.h>\n" +
-                        "#include <string.h>\n" +
-                        "#include <malloc.h>\n" +
-                        "#include <jni.h>\n" +
-                        "#include \"vm.h\"\n" +
-                        "#include \"%s\"\n" +
-                        "\n" +
-                        "#ifdef __cplusplus\n" +
-                        "extern \"C\" {\n" +
-                        "#endif\n" +
-                        "\n" +
-                        "\n" +
-                        "#define SET_REGISTER_FLOAT(_idx, _val)      (*((float*) &regs[(_idx)]) = (_val))\n" +
-                        "\n" +
-                        "\n" +
-                        "#define SET_REGISTER_WIDE(_idx, _val)       (regs[(_idx)] =(s8) (_val));\n" +
-                        "\n" +
-                        "#define SET_REGISTER_DOUBLE(_idx, _val)     (*((double*) &regs[(_idx)]) = (_val));\n" +
-                        "\n" +
-                        "\n"
-                , config.getResolverFile().getName()));
+        final int shardCount = codeWriters.size();
+        final CSourceWriter codeWriter = CSourceWriter.wrap(codeWriters.get(0));
+        final CSourceWriter[] shardWriters = new CSourceWriter[shardCount];
+        shardWriters[0] = codeWriter;
+
+        if (shardCount == 1) {
+            codeWriter.write(String.format("\n" +
+                            "#include <stdio.h>\n" +
+                            "#include <string.h>\n" +
+                            "#include <malloc.h>\n" +
+                            "#include <jni.h>\n" +
+                            "#include \"vm.h\"\n" +
+                            "#include \"%s\"\n" +
+                            "\n" +
+                            "#ifdef __cplusplus\n" +
+                            "extern \"C\" {\n" +
+                            "#endif\n" +
+                            "\n" +
+                            "\n" +
+                            REGISTER_MACROS
+                    , config.getResolverFile().getName()));
+        } else {
+            final String headerName = config.getNativeSharedHeaderFile().getName();
+            final String resolverPtr = config.getDexName() + "_dvmResolverPtr";
+            generateSharedHeader(headerName, resolverPtr, getDataBlobDeclaration(), headerWriter);
 
+            codeWriter.write(String.format("\n" +
+                            "#include \"%s\"\n" +
+                            "#include \"%s\"\n" +
+                            "\n" +
+                            "#ifdef __cplusplus\n" +
+                            "extern \"C\" {\n" +
+                            "#endif\n" +
+                            "\n" +
+                            "//分片文件通过它访问符号解析器\n" +
+                            "%s const vmResolver *const %s = &dvmResolver;\n" +
+                            "\n" +
+                            "\n"
+                    , headerName, config.getResolverFile().getName(), SHARED_FUNCTION, resolverPtr));
+            for (int i = 1; i < shardCount; i++) {
+                final CSourceWriter shardWriter = CSourceWriter.wrap(codeWriters.get(i));
+                shardWriter.write(String.format("\n" +
+                                "#include \"%s\"\n" +
+                                "\n" +
+                                "#define dvmResolver (*%s)\n" +
+                                "\n" +
+                                "#ifdef __cplusplus\n" +
+                                "extern \"C\" {\n" +
+                                "#endif\n" +
+                                "\n" +
+                                "\n"
+                        , headerName, resolverPtr));
+                shardWriters[i] = shardWriter;
+            }
+        }
+
+        //分片函数的符号在整个so里可见,加上dex名区分
+        final String sharedPrefix = config.getDexName() + "_";
         for (DexBackedClassDef classDef : dexFile.getClasses()) {
             for (DexBackedMethod method : classDef.getMethods()) {
-                addMethod(method, codeWriter);
+                final int shard = shardCount == 1 ? 0 : getShard(method, shardCount);
+                addMethod(method, shardWriters[shard], shard != 0 ? sharedPrefix : null);
             }
         }
 
+        for (int i = 1; i < shardCount; i++) {
+            final CSourceWriter shardWriter = shardWriters[i];
+            shardWriter.write(
+                    "\n\n#ifdef __cplusplus\n" +
+                            "}\n" +
+                            "#endif\n\n");
+            shardWriter.flush();
+        }
+
+        //注册表引用了其他分片里的函数
+        for (String prototype : sharedPrototypes) {
+            codeWriter.write(prototype);
+            codeWriter.write('\n');
+        }
+
         generateNativeMethodCode(config, codeWriter);
 
         codeWriter.write(String.format("void %s(JNIEnv *env) {\n", config.getHeaderFileAndSetupFunc().setupFunctionName));
@@ -289,10 +434,65 @@ public class JniCodeGenerator {
         }
         codeWriter.write("}\n");
 
+        if (dataBlob != null) {
+            dataBlob.writeIncbin(codeWriter, config.getDataBlobFile().getName());
+        }
+
         codeWriter.write(
                 "\n\n#ifdef __cplusplus\n" +
                         "}\n" +
                         "#endif\n\n");
+        codeWriter.flush();
+    }
+
+    private String getDataBlobDeclaration() {
+        if (dataBlob == null) {
+            return "";
+        }
+        return String.format("extern %s const u1 %s[];\n\n", SHARED_FUNCTION, dataBlob.getSymbol());
+    }
+
+    private static final String REGISTER_MACROS = "#define SET_REGISTER_FLOAT(_idx, _val)      (*((float*) &regs[(_idx)]) = (_val))\n" +
+            "\n" +
+            "\n" +
+            "#define SET_REGISTER_WIDE(_idx, _val)       (regs[(_idx)] =(s8) (_val));\n" +
+            "\n" +
+            "#define SET_REGISTER_DOUBLE(_idx, _val)     (*((double*) &regs[(_idx)]) = (_val));\n" +
+            "\n" +
+            "\n";
+
+    //String.hashCode结果固定,同一个方法每次都在同一分片.按方法而不是按类分,防止某个很大的类让分片大小差别太大
+    static int getShard(Method method, int shardCount) {
+        int hash = method.getDefiningClass().hashCode();
+        hash = 31 * hash + method.getName().hashCode();
+        for (CharSequence type : method.getParameterTypes()) {
+            hash = 31 * hash + type.toString().hashCode();
+        }
+        hash = 31 * hash + method.getReturnType().hashCode();
+        return Math.floorMod(hash, shardCount);
+    }
+
+    private static void generateSharedHeader(String headerName, String resolverPtr, String dataBlobDeclaration,
+                                             Writer writer) throws IOException {
+        final String guard = headerName.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_");
+        writer.write(String.format("#ifndef %s\n" +
+                        "#define %s\n" +
+                        "\n" +
+                        "#include <stdio.h>\n" +
+                        "#include <string.h>\n" +
+                        "#include <malloc.h>\n" +
+                        "#include <jni.h>\n" +
+                        "#include \"vm.h\"\n" +
+                        "\n" +
+                        "#define %s __attribute__((visibility(\"hidden\")))\n" +
+                        "\n" +
+                        REGISTER_MACROS.replace("%", "%%") +
+                        "extern %s const vmResolver *const %s;\n" +
+                        "\n" +
+                        "%s" +
+                        "#endif\n"
+                , guard, guard, SHARED_FUNCTION, SHARED_FUNCTION, resolverPtr, dataBlobDeclaration));
+        writer.flush();
     }
 
     //生成本地方法注册代码,同时返回类名和方法数组索引等
@@ -322,8 +522,7 @@ public class JniCodeGenerator {
                 int sigIdx = references.getStringItemIndex(MyMethodUtil.getMethodSignature(method.parameterTypes, method.returnType));
                 writer.write(String.format(
                         "    {%d, %d, (void *) %s},\n",
-                        nameIdx, sigIdx,
-                        MyMethodUtil.getJniFunctionName(method.className, method.name, method.parameterTypes, method.returnType)
+                        nameIdx, sigIdx, method.functionName
                 ));
                 methodIdx++;
             }
@@ -427,12 +626,16 @@ public class JniCodeGenerator {
         final List<? extends CharSequence> parameterTypes;
 
         final String returnType;
+        //生成的c函数名,不参与比较
+        final String functionName;
 
-        MyMethod(String className, String name, List<? extends CharSequence> parameterTypes, String returnType) {
+        MyMethod(String className, String name, List<? extends CharSequence> parameterTypes, String returnType,
+                 String functionName) {
             this.className = className;
             this.name = name;
             this.parameterTypes = parameterTypes;
             this.returnType = returnType;
+            this.functionName = functionName;
         }
 
         @Override
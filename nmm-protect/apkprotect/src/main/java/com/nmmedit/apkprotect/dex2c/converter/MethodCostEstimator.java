@@ -0,0 +1,205 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.OffsetInstruction;
+import org.jf.dexlib2.iface.instruction.VariableRegisterInstruction;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 静态估算方法转为native后的运行开销.
+ * 解释器访问域,调用方法,创建对象及访问数组等都要经过jni,按指令统计jni调用次数;
+ * 向后跳转认为是循环,循环体里的指令按嵌套层数加权.
+ * 只是相对值,用于比较方法之间的开销
+ */
+public class MethodCostEstimator {
+    //每层循环的权重
+    public static final int LOOP_WEIGHT = 10;
+    //超过这个嵌套层数不再增加权重
+    private static final int MAX_LOOP_DEPTH = 3;
+
+    private MethodCostEstimator() {
+    }
+
+    @Nonnull
+    public static MethodCost estimate(@Nonnull MethodImplementation implementation) {
+        final List<Instruction> instructions = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        //向后跳转的目标->最后一个跳到它的指令,同一个目标(比如continue)只算一个循环
+        final Map<Integer, Integer> loops = new HashMap<>();
+        int offset = 0;
+        for (Instruction instruction : implementation.getInstructions()) {
+            instructions.add(instruction);
+            offsets.add(offset);
+            if (instruction instanceof OffsetInstruction && !isPayloadReference(instruction.getOpcode())) {
+                final int target = offset + ((OffsetInstruction) instruction).getCodeOffset();
+                if (target <= offset) {
+                    loops.put(target, offset);
+                }
+            }
+            offset += instruction.getCodeUnits();
+        }
+
+        int jniCalls = 0;
+        long cost = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            final int calls = jniCalls(instructions.get(i));
+            if (calls == 0) {
+                continue;
+            }
+            jniCalls += calls;
+            final int pos = offsets.get(i);
+            int depth = 0;
+            for (Map.Entry<Integer, Integer> loop : loops.entrySet()) {
+                if (loop.getKey() <= pos && pos <= loop.getValue()) {
+                    depth++;
+                }
+            }
+            long weight = calls;
+            for (int d = Math.min(depth, MAX_LOOP_DEPTH); d > 0; d--) {
+                weight *= LOOP_WEIGHT;
+            }
+            cost += weight;
+        }
+        return new MethodCost(jniCalls, loops.size(), cost);
+    }
+
+    //switch及fill-array-data的偏移指向数据,不是跳转
+    private static boolean isPayloadReference(Opcode opcode) {
+        return opcode == Opcode.PACKED_SWITCH
+                || opcode == Opcode.SPARSE_SWITCH
+                || opcode == Opcode.FILL_ARRAY_DATA;
+    }
+
+    /**
+     * 解释执行一条指令大概需要的jni调用次数
+     */
+    static int jniCalls(@Nonnull Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case IGET:
+            case IGET_WIDE:
+            case IGET_OBJECT:
+            case IGET_BOOLEAN:
+            case IGET_BYTE:
+            case IGET_CHAR:
+            case IGET_SHORT:
+            case IPUT:
+            case IPUT_WIDE:
+            case IPUT_OBJECT:
+            case IPUT_BOOLEAN:
+            case IPUT_BYTE:
+            case IPUT_CHAR:
+            case IPUT_SHORT:
+            case SGET:
+            case SGET_WIDE:
+            case SGET_OBJECT:
+            case SGET_BOOLEAN:
+            case SGET_BYTE:
+            case SGET_CHAR:
+            case SGET_SHORT:
+            case SPUT:
+            case SPUT_WIDE:
+            case SPUT_OBJECT:
+            case SPUT_BOOLEAN:
+            case SPUT_BYTE:
+            case SPUT_CHAR:
+            case SPUT_SHORT:
+            case CONST_STRING:
+            case CONST_STRING_JUMBO:
+            case CONST_CLASS:
+            case CHECK_CAST:
+            case INSTANCE_OF:
+            case NEW_INSTANCE:
+            case NEW_ARRAY:
+            case ARRAY_LENGTH:
+            case MONITOR_ENTER:
+            case MONITOR_EXIT:
+            case THROW:
+                return 1;
+            //取数组长度检查下标,再读写元素
+            case AGET:
+            case AGET_WIDE:
+            case AGET_OBJECT:
+            case AGET_BOOLEAN:
+            case AGET_BYTE:
+            case AGET_CHAR:
+            case AGET_SHORT:
+            case APUT:
+            case APUT_WIDE:
+            case APUT_OBJECT:
+            case APUT_BOOLEAN:
+            case APUT_BYTE:
+            case APUT_CHAR:
+            case APUT_SHORT:
+                return 2;
+            //调用方法及检查异常
+            case INVOKE_VIRTUAL:
+            case INVOKE_SUPER:
+            case INVOKE_DIRECT:
+            case INVOKE_STATIC:
+            case INVOKE_INTERFACE:
+            case INVOKE_VIRTUAL_RANGE:
+            case INVOKE_SUPER_RANGE:
+            case INVOKE_DIRECT_RANGE:
+            case INVOKE_STATIC_RANGE:
+            case INVOKE_INTERFACE_RANGE:
+            case INVOKE_POLYMORPHIC:
+            case INVOKE_POLYMORPHIC_RANGE:
+            case INVOKE_CUSTOM:
+            case INVOKE_CUSTOM_RANGE:
+                return 2;
+            //创建数组后逐个设置元素
+            case FILLED_NEW_ARRAY:
+            case FILLED_NEW_ARRAY_RANGE:
+                return 1 + ((VariableRegisterInstruction) instruction).getRegisterCount();
+            case FILL_ARRAY_DATA:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    public static class MethodCost {
+        private final int jniCalls;
+        private final int loops;
+        private final long cost;
+
+        public MethodCost(int jniCalls, int loops, long cost) {
+            this.jniCalls = jniCalls;
+            this.loops = loops;
+            this.cost = cost;
+        }
+
+        /**
+         * 指令里jni调用次数,不考虑循环
+         */
+        public int getJniCalls() {
+            return jniCalls;
+        }
+
+        /**
+         * 向后跳转的数量
+         */
+        public int getLoops() {
+            return loops;
+        }
+
+        /**
+         * 循环加权后的开销
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return "cost=" + cost + " jni=" + jniCalls + " loops=" + loops;
+        }
+    }
+}
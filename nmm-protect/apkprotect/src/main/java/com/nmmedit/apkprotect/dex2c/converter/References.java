@@ -1,6 +1,5 @@
 package com.nmmedit.apkprotect.dex2c.converter;
 
-import com.google.common.collect.Sets;
 import com.nmmedit.apkprotect.util.ModifiedUtf8;
 import org.jf.dexlib2.AccessFlags;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
@@ -21,66 +20,89 @@ import java.util.*;
 //用于收集引用，生成c结构体同时用于指令重写时提供引用索引
 
 public class References {
+    //字符串表里每个字符串的用途
+    //基本字符串，其他引用全指向它
+    private static final byte FLAG_STRING = 1;
+    //所有类型引用
+    private static final byte FLAG_TYPE = 1 << 1;
+    //const-string两个指令需要的字符串
+    private static final byte FLAG_CONST_STRING = 1 << 2;
+    //方法参数加上返回类型，例如：(II)V
+    private static final byte FLAG_SIGNATURE = 1 << 3;
+    //扩展字符串池，原本dex没有，提前做些解析提升性能，为了不影响一些指令的引用索引防止超过65533,把它追加在字符串常量池后面
+    private static final byte FLAG_EXT_STRING = 1 << 4;
 
     private final ClassAnalyzer analyzer;
     //计算type名最大长度，方便生成c代码时直接使用栈上内存
     int maxTypeLen = 0;
 
-    //基本字符串，其他引用全指向它
-    private final HashSet<String> stringRefs = Sets.newHashSet();
-
-    //所有类型引用
-    private final HashSet<String> typeRefs = Sets.newHashSet();
-
-    //域引用
-    private final HashSet<MyFieldRef> fieldRefs = Sets.newHashSet();
-    //方法引用
-    private final HashSet<MyMethodRef> methodRefs = Sets.newHashSet();
-
-
-    //方法参数加上返回类型，例如：(II)V
-    private final HashSet<String> signatureRefs = Sets.newHashSet();
-
-    //const-string两个指令需要的字符串
-    private final HashSet<String> constantStrings = Sets.newHashSet();
+    //所有引用用到的字符串，其他引用只保存字符串id
+    private final StringTable strings = new StringTable();
+    //字符串id对应的用途
+    private byte[] flags = new byte[1024];
 
-    //扩展字符串池，原本dex没有，提前做些解析提升性能，为了不影响一些指令的引用索引防止超过65533,把它追加在字符串常量池后面
-    private final HashSet<String> extStringRefs = Sets.newHashSet();
+    //域引用,(类型,名称,域类型)字符串id
+    private final IntTripleTable fieldRefs = new IntTripleTable();
+    private final ArrayList<FieldReference> fieldRefList = new ArrayList<>();
+    //方法引用,(类型,名称,签名)字符串id
+    private final IntTripleTable methodRefs = new IntTripleTable();
+    private final ArrayList<MethodReference> methodRefList = new ArrayList<>();
 
     References(@Nonnull DexBackedDexFile dexFile,
                @Nonnull ClassAnalyzer analyzer) {
         this.analyzer = analyzer;
         parseReferences(dexFile);
+        makePools();
     }
 
-    private void addStringRef(String type) {
-        stringRefs.add(type);
+    /**
+     * 所有dex共用的常量池,重复的字符串,类型,域及方法只保存一次
+     *
+     * @param dexFiles 所有dex对应的符号dex
+     * @param analyzer 需要使用所有dex的类继承关系
+     */
+    public References(@Nonnull List<? extends DexBackedDexFile> dexFiles,
+                      @Nonnull ClassAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        for (DexBackedDexFile dexFile : dexFiles) {
+            parseReferences(dexFile);
+        }
+        makePools();
     }
 
-    private void addTypeRef(String type) {
-        if (type == null) {
-            return;
+    private int addString(CharSequence str, byte flag) {
+        final int id = strings.intern(str);
+        if (id == flags.length) {
+            flags = Arrays.copyOf(flags, flags.length * 2);
         }
-        stringRefs.add(type);
+        flags[id] |= flag;
+        return id;
+    }
 
+    private int addStringRef(String type) {
+        return addString(type, FLAG_STRING);
+    }
+
+    private int addTypeRef(String type) {
+        if (type == null) {
+            return -1;
+        }
 //        添加一个去除首尾L和;的字符串
-        extStringRefs.add(typeToClassName(type));
+        addString(typeToClassName(type), FLAG_EXT_STRING);
 
-        typeRefs.add(type);
+        return addString(type, (byte) (FLAG_STRING | FLAG_TYPE));
     }
 
     private void addConstStringRef(String type) {
-        stringRefs.add(type);
-        constantStrings.add(type);
+        addString(type, (byte) (FLAG_STRING | FLAG_CONST_STRING));
     }
 
-    private void addSignatureRef(String type) {
-        extStringRefs.add(type);
-        signatureRefs.add(type);
+    private int addSignatureRef(String type) {
+        return addString(type, (byte) (FLAG_EXT_STRING | FLAG_SIGNATURE));
     }
 
     private void addExtStringRef(String type) {
-        stringRefs.add(type);
+        addString(type, FLAG_STRING);
     }
 
     @Nonnull
@@ -92,7 +114,7 @@ public class References {
     }
 
 
-    private void addMethodSignature(MethodReference reference) {
+    private int addMethodSignature(MethodReference reference) {
         final List<? extends CharSequence> parameterTypes = reference.getParameterTypes();
         StringBuilder sig = new StringBuilder();
         sig.append("(");
@@ -110,27 +132,32 @@ public class References {
         addTypeRef(returnType);
 
         //查找方法时需要，提前计算
-        addSignatureRef(sig.toString());
+        return addSignatureRef(sig.toString());
     }
 
+    //目前使用时没区分是否为静态，下面方法引用也一样
     private void addFieldRef(FieldReference reference, boolean isStatic) {
-        addTypeRef(reference.getDefiningClass());
+        final int classId = addTypeRef(reference.getDefiningClass());
 
-        addStringRef(reference.getName());
+        final int nameId = addStringRef(reference.getName());
 
-        addTypeRef(reference.getType());
+        final int typeId = addTypeRef(reference.getType());
 
-        fieldRefs.add(new MyFieldRef(isStatic, reference));
+        if (fieldRefs.add(classId, nameId, typeId) == fieldRefList.size()) {
+            fieldRefList.add(reference);
+        }
     }
 
     private void addMethodRef(MethodReference reference, boolean isStatic) {
-        addTypeRef(reference.getDefiningClass());
+        final int classId = addTypeRef(reference.getDefiningClass());
 
-        addStringRef(reference.getName());
+        final int nameId = addStringRef(reference.getName());
 
-        addMethodSignature(reference);
+        final int sigId = addMethodSignature(reference);
 
-        methodRefs.add(new MyMethodRef(isStatic, reference));
+        if (methodRefs.add(classId, nameId, sigId) == methodRefList.size()) {
+            methodRefList.add(reference);
+        }
     }
 
     private void parseReferences(DexBackedDexFile dexFile) {
@@ -167,26 +194,23 @@ public class References {
                 collectReferences(implementation);
             }
         }
+    }
 
+    private void makePools() {
         //创建常量池
+        final int[] ranks = strings.ranks();
+        final int[] sortedIds = new int[ranks.length];
+        for (int id = 0; id < ranks.length; id++) {
+            sortedIds[ranks[id]] = id;
+        }
 
-        makeStringPool();
-        makeTypePool();
-        makeFieldPool();
-        makeMethodPool();
+        makeStringPool(sortedIds);
+        makeTypePool(sortedIds);
+        makeFieldPool(ranks);
+        makeMethodPool(ranks);
 
-        makeSignaturePool();
+        makeSignaturePool(sortedIds);
         makeClassNamePool();
-
-        //合并两个字符串常量池，不包含重复内容
-        final ArrayList<String> stringPool = this.stringPool;
-        final HashMap<String, Integer> stringPoolIndexMap = this.stringPoolIndexMap;
-        for (String ref : extStringRefs) {
-            if (!stringPoolIndexMap.containsKey(ref)) {
-                stringPool.add(ref);
-                stringPoolIndexMap.put(ref, stringPool.size() - 1);
-            }
-        }
     }
 
     //解析所有引用指令,得到各种引用信息或者检测不支持指令
@@ -294,37 +318,79 @@ public class References {
                     throw new RuntimeException("Unsupported opcode： " + instruction.getOpcode());
                 }
             }
+        }
 
-            //收集异常type
-            for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
-                for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
-                    addTypeRef(handler.getExceptionType());
-                }
+        //收集异常type
+        for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+            for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                addTypeRef(handler.getExceptionType());
             }
         }
     }
 
     final ArrayList<String> stringPool = new ArrayList<>();
-    private final HashMap<String, Integer> stringPoolIndexMap = new HashMap<>();
+    //字符串id对应的索引,没有时为-1,下面几个池一样
+    private int[] stringPoolIndex;
 
-    private void makeStringPool() {
+    private void makeStringPool(int[] sortedIds) {
         //添加到有序列表里，同时缓存索引给其他引用使用
         final ArrayList<String> stringPool = this.stringPool;
-        stringPool.addAll(stringRefs);
-        Collections.sort(stringPool);
+        final int[] stringPoolIndex = newIndex();
+        for (int id : sortedIds) {
+            if ((flags[id] & FLAG_STRING) != 0) {
+                stringPoolIndex[id] = stringPool.size();
+                stringPool.add(strings.get(id));
+            }
+        }
+        //合并两个字符串常量池，不包含重复内容
+        for (int id : sortedIds) {
+            if ((flags[id] & (FLAG_STRING | FLAG_EXT_STRING)) == FLAG_EXT_STRING) {
+                stringPoolIndex[id] = stringPool.size();
+                stringPool.add(strings.get(id));
+            }
+        }
+        this.stringPoolIndex = stringPoolIndex;
+    }
+
+    private int[] newIndex() {
+        final int[] index = new int[strings.size()];
+        Arrays.fill(index, -1);
+        return index;
+    }
 
-        for (int i = 0; i < stringPool.size(); i++) {
-            final String str = stringPool.get(i);
-            stringPoolIndexMap.put(str, i);
+    private static int getIndex(int[] index, int id) {
+        return id < 0 ? -1 : index[id];
+    }
+
+    /**
+     * 指令里的字符串,类型,域及方法索引以及c结构体里的类型索引都是u2,
+     * 常量池超过这个范围时不能使用
+     */
+    public boolean fitsShortIndex() {
+        //扩展字符串在基本字符串后面,不会被指令引用
+        final int baseStringCount = stringPool.size() - countExtStrings();
+        return baseStringCount <= 0xFFFF
+                && typePool.size() <= 0xFFFF
+                && fieldPool.size() <= 0xFFFF
+                && methodPool.size() <= 0xFFFF;
+    }
+
+    private int countExtStrings() {
+        int count = 0;
+        for (int id = 0; id < strings.size(); id++) {
+            if ((flags[id] & (FLAG_STRING | FLAG_EXT_STRING)) == FLAG_EXT_STRING) {
+                count++;
+            }
         }
+        return count;
     }
 
     public int getStringItemIndex(String str) {
-        final Integer integer = stringPoolIndexMap.get(str);
-        if (integer == null) {
+        final int idx = getIndex(stringPoolIndex, strings.indexOf(str));
+        if (idx < 0) {
             throw new RuntimeException("unknown string ref: " + str);
         }
-        return integer;
+        return idx;
     }
 
     public List<String> getStringPool() {
@@ -332,30 +398,37 @@ public class References {
     }
 
     public List<String> getConstantStringPool() {
-        final ArrayList<String> constStringPool = new ArrayList<>(constantStrings.size());
-        constStringPool.addAll(constantStrings);
+        final ArrayList<String> constStringPool = new ArrayList<>();
+        for (int id = 0; id < strings.size(); id++) {
+            if ((flags[id] & FLAG_CONST_STRING) != 0) {
+                constStringPool.add(stringPool.get(stringPoolIndex[id]));
+            }
+        }
         return constStringPool;
     }
 
     private final ArrayList<String> typePool = new ArrayList<>();
-    private final HashMap<String, Integer> typePoolIndexMap = new HashMap<>();
+    private int[] typePoolIndex;
 
-    private void makeTypePool() {
+    private void makeTypePool(int[] sortedIds) {
         final ArrayList<String> typePool = this.typePool;
-        typePool.addAll(typeRefs);
-        Collections.sort(typePool);
-
-        for (int i = 0; i < typePool.size(); i++) {
-            typePoolIndexMap.put(typePool.get(i), i);
+        final int[] typePoolIndex = newIndex();
+        for (int id : sortedIds) {
+            if ((flags[id] & FLAG_TYPE) != 0) {
+                typePoolIndex[id] = typePool.size();
+                //和字符串池共用同一个String对象
+                typePool.add(stringPool.get(stringPoolIndex[id]));
+            }
         }
+        this.typePoolIndex = typePoolIndex;
     }
 
     public int getTypeItemIndex(String type) {
-        final Integer integer = typePoolIndexMap.get(type);
-        if (integer == null) {
+        final int idx = getIndex(typePoolIndex, strings.indexOf(type));
+        if (idx < 0) {
             throw new RuntimeException("unknown type ref: " + type);
         }
-        return integer;
+        return idx;
     }
 
     public List<String> getTypePool() {
@@ -380,25 +453,24 @@ public class References {
 
     //保持跟type pool一致(顺序和大小)，className只是去掉L;的类型字符串，如果基本类型则不处理比如I,B
     private final ArrayList<String> classNamePool = new ArrayList<>();
-    private final HashMap<String, Integer> classNamePoolIndexMap = new HashMap<>();
+    private int[] classNamePoolIndex;
 
     private void makeClassNamePool() {
+        final int[] classNamePoolIndex = newIndex();
         for (String type : typePool) {
-            classNamePool.add(typeToClassName(type));
-        }
-
-        for (int i = 0; i < classNamePool.size(); i++) {
-            final String key = classNamePool.get(i);
-            classNamePoolIndexMap.put(key, i);
+            final String className = typeToClassName(type);
+            classNamePoolIndex[strings.indexOf(className)] = classNamePool.size();
+            classNamePool.add(className);
         }
+        this.classNamePoolIndex = classNamePoolIndex;
     }
 
     public int getClassNameItemIndex(String className) {
-        final Integer integer = classNamePoolIndexMap.get(className);
-        if (integer == null) {
+        final int idx = getIndex(classNamePoolIndex, strings.indexOf(className));
+        if (idx < 0) {
             throw new RuntimeException("unknown class name ref: " + className);
         }
-        return integer;
+        return idx;
     }
 
     public List<String> getClassNamePool() {
@@ -407,24 +479,26 @@ public class References {
 
     //方法签名及索引
     private final ArrayList<String> signaturePool = new ArrayList<>();
-    private final HashMap<String, Integer> signaturePoolIndexMap = new HashMap<>();
-
-    private void makeSignaturePool() {
-        final ArrayList<String> classNamePool = this.signaturePool;
-        classNamePool.addAll(signatureRefs);
-        Collections.sort(classNamePool);
-
-        for (int i = 0; i < classNamePool.size(); i++) {
-            signaturePoolIndexMap.put(classNamePool.get(i), i);
+    private int[] signaturePoolIndex;
+
+    private void makeSignaturePool(int[] sortedIds) {
+        final ArrayList<String> signaturePool = this.signaturePool;
+        final int[] signaturePoolIndex = newIndex();
+        for (int id : sortedIds) {
+            if ((flags[id] & FLAG_SIGNATURE) != 0) {
+                signaturePoolIndex[id] = signaturePool.size();
+                signaturePool.add(stringPool.get(stringPoolIndex[id]));
+            }
         }
+        this.signaturePoolIndex = signaturePoolIndex;
     }
 
     public int getSignatureItemIndex(String sig) {
-        final Integer integer = signaturePoolIndexMap.get(sig);
-        if (integer == null) {
+        final int idx = getIndex(signaturePoolIndex, strings.indexOf(sig));
+        if (idx < 0) {
             throw new RuntimeException("unknown signature ref: " + sig);
         }
-        return integer;
+        return idx;
     }
 
     public List<String> getSignaturePool() {
@@ -432,26 +506,43 @@ public class References {
     }
 
     private final ArrayList<FieldReference> fieldPool = new ArrayList<>();
-    private final HashMap<FieldReference, Integer> fieldPoolIndexMap = new HashMap<>();
-
-    private void makeFieldPool() {
-        final ArrayList<FieldReference> fieldPool = this.fieldPool;
-        for (MyFieldRef fieldRef : fieldRefs) {
-            fieldPool.add(fieldRef.reference);
+    //域引用id对应的索引
+    private int[] fieldPoolIndex;
+
+    //排序结果和FieldReference.compareTo一致,只比较字符串的排序位置
+    private void makeFieldPool(int[] ranks) {
+        final IntTripleTable fieldRefs = this.fieldRefs;
+        final int[] refIds = new int[fieldRefs.size()];
+        for (int i = 0; i < refIds.length; i++) {
+            refIds[i] = i;
         }
-        Collections.sort(fieldPool);
-        for (int i = 0; i < fieldPool.size(); i++) {
-            final FieldReference reference = fieldPool.get(i);
-            fieldPoolIndexMap.put(reference, i);
+        IntSorter.sort(refIds, (a, b) -> {
+            for (int i = 0; i < 3; i++) {
+                final int res = ranks[fieldRefs.get(a, i)] - ranks[fieldRefs.get(b, i)];
+                if (res != 0) {
+                    return res;
+                }
+            }
+            return 0;
+        });
+        fieldPoolIndex = new int[refIds.length];
+        for (int refId : refIds) {
+            fieldPoolIndex[refId] = fieldPool.size();
+            fieldPool.add(fieldRefList.get(refId));
         }
+        fieldRefList.clear();
     }
 
     public int getFieldItemIndex(FieldReference reference) {
-        final Integer integer = fieldPoolIndexMap.get(reference);
-        if (integer == null) {
+        final StringTable strings = this.strings;
+        final int classId = strings.indexOf(reference.getDefiningClass());
+        final int nameId = strings.indexOf(reference.getName());
+        final int typeId = strings.indexOf(reference.getType());
+        final int refId = fieldRefs.indexOf(classId, nameId, typeId);
+        if (classId < 0 || nameId < 0 || typeId < 0 || refId < 0) {
             throw new RuntimeException("unknown field ref: " + reference);
         }
-        return integer;
+        return fieldPoolIndex[refId];
     }
 
     public List<FieldReference> getFieldPool() {
@@ -459,81 +550,46 @@ public class References {
     }
 
     private final ArrayList<MethodReference> methodPool = new ArrayList<>();
-    private final HashMap<MethodReference, Integer> methodPoolIndexMap = new HashMap<>();
-
-    private void makeMethodPool() {
-        final ArrayList<MethodReference> methodPool = this.methodPool;
-        for (MyMethodRef methodRef : methodRefs) {
-            methodPool.add(methodRef.reference);
+    private int[] methodPoolIndex;
+
+    //排序结果和MethodReference.compareTo一致,类型及名称相同时再比较返回类型和参数
+    private void makeMethodPool(int[] ranks) {
+        final IntTripleTable methodRefs = this.methodRefs;
+        final ArrayList<MethodReference> methodRefList = this.methodRefList;
+        final int[] refIds = new int[methodRefs.size()];
+        for (int i = 0; i < refIds.length; i++) {
+            refIds[i] = i;
         }
-        Collections.sort(methodPool);
-        for (int i = 0; i < methodPool.size(); i++) {
-            final MethodReference reference = methodPool.get(i);
-            methodPoolIndexMap.put(reference, i);
+        IntSorter.sort(refIds, (a, b) -> {
+            for (int i = 0; i < 2; i++) {
+                final int res = ranks[methodRefs.get(a, i)] - ranks[methodRefs.get(b, i)];
+                if (res != 0) {
+                    return res;
+                }
+            }
+            return methodRefList.get(a).compareTo(methodRefList.get(b));
+        });
+        methodPoolIndex = new int[refIds.length];
+        for (int refId : refIds) {
+            methodPoolIndex[refId] = methodPool.size();
+            methodPool.add(methodRefList.get(refId));
         }
+        methodRefList.clear();
     }
 
     public int getMethodItemIndex(MethodReference reference) {
-        final Integer integer = methodPoolIndexMap.get(reference);
-        if (integer == null) {
+        final StringTable strings = this.strings;
+        final int classId = strings.indexOf(reference.getDefiningClass());
+        final int nameId = strings.indexOf(reference.getName());
+        final int sigId = strings.indexOf(MyMethodUtil.getMethodSignature(reference.getParameterTypes(), reference.getReturnType()));
+        final int refId = methodRefs.indexOf(classId, nameId, sigId);
+        if (classId < 0 || nameId < 0 || sigId < 0 || refId < 0) {
             throw new RuntimeException("unknown method ref: " + reference);
         }
-        return integer;
+        return methodPoolIndex[refId];
     }
 
     public List<MethodReference> getMethodPool() {
         return methodPool;
     }
-
-
-    //目前使用时没区分是否为静态，下面方法引用也一样
-    static class MyFieldRef {
-        public final boolean isStatic;
-        public final FieldReference reference;
-
-        public MyFieldRef(boolean isStatic, FieldReference reference) {
-            this.isStatic = isStatic;
-            this.reference = reference;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            MyFieldRef that = (MyFieldRef) o;
-
-            return reference.equals(that.reference);
-        }
-
-        @Override
-        public int hashCode() {
-            return reference.hashCode();
-        }
-    }
-
-    static class MyMethodRef {
-        public final boolean isStatic;
-        public final MethodReference reference;
-
-        public MyMethodRef(boolean isStatic, MethodReference reference) {
-            this.isStatic = isStatic;
-            this.reference = reference;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            MyMethodRef that = (MyMethodRef) o;
-
-            return reference.equals(that.reference);
-        }
-
-        @Override
-        public int hashCode() {
-            return reference.hashCode();
-        }
-    }
-}
\ No newline at end of file
+}
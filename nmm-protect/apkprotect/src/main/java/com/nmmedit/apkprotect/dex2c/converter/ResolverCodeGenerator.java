@@ -7,10 +7,10 @@ import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.util.MethodUtil;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.UTFDataFormatException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -21,23 +21,116 @@ import java.util.List;
 public class ResolverCodeGenerator {
 
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    //所有dex共用常量池时的符号解析器及初始化函数,在GlobalDexConfig#getGlobalPoolFile()里
+    public static final String GLOBAL_RESOLVER = "nmmpGlobalResolver";
+    public static final String GLOBAL_RESOLVER_INIT = "nmmpGlobalResolverInit";
+    //注册本地方法时需要根据索引得到字符串
+    private static final String GLOBAL_STRING_BY_ID = "nmmpGlobalStringById";
+    private static final String GLOBAL_CLASS_NAME_BY_ID = "nmmpGlobalClassNameById";
+
+    private static final String HIDDEN = "__attribute__((visibility(\"hidden\")))";
+
     private final References references;
+    //使用所有dex共用的常量池,当前dex只引用共用的符号解析器
+    private final boolean global;
+
+    //不为null时常量池写入数据文件,不生成c数组
+    private DataBlob dataBlob;
 
     public ResolverCodeGenerator(DexBackedDexFile dexFile,
                                  @Nonnull ClassAnalyzer analyzer
     ) {
 
         references = new References(dexFile, analyzer);
+        global = false;
+    }
+
+    /**
+     * @param globalReferences 所有dex共用的常量池
+     */
+    public ResolverCodeGenerator(@Nonnull References globalReferences) {
+        references = globalReferences;
+        global = true;
     }
 
     public References getReferences() {
         return references;
     }
 
-    public void generate(Writer writer) throws IOException {
+    public void setDataBlob(@Nullable DataBlob dataBlob) {
+        this.dataBlob = dataBlob;
+    }
+
+    /**
+     * 生成当前dex的符号解析器,被本地方法实现文件include.
+     * 使用共用常量池时只声明共用的符号解析器
+     */
+    public void generate(Writer out) throws IOException {
+        final CSourceWriter writer = CSourceWriter.wrap(out);
         writer.write("#include \"GlobalCache.h\"\n");
         writer.write("#include \"ConstantPool.h\"\n\n");
         writer.write("#include <pthread.h>\n\n\n");
+        if (dataBlob != null) {
+            writer.write(String.format("extern const u1 %s[] %s;\n\n",
+                    dataBlob.getSymbol(), HIDDEN));
+        }
+        if (global) {
+            writer.write(String.format("//所有dex共用的符号解析器\n" +
+                    "extern %1$s const vmResolver %2$s;\n" +
+                    "extern %1$s const char *%3$s(u4 idx);\n" +
+                    "extern %1$s const char *%4$s(u4 idx);\n" +
+                    "\n" +
+                    "#define dvmResolver %2$s\n" +
+                    "\n" +
+                    "#define STRING_BY_ID(_idx) %3$s(_idx)\n" +
+                    "\n" +
+                    "#define STRING_BY_CLASS_ID(_idx) %4$s(_idx)\n" +
+                    "\n" +
+                    "//共用的符号解析器在JNI_OnLoad里初始化\n" +
+                    "static void resolver_init(JNIEnv *env) {\n" +
+                    "}\n\n", HIDDEN, GLOBAL_RESOLVER, GLOBAL_STRING_BY_ID, GLOBAL_CLASS_NAME_BY_ID));
+            writer.flush();
+            return;
+        }
+        generatePools(writer, "static const vmResolver dvmResolver");
+        writer.flush();
+    }
+
+    /**
+     * 生成所有dex共用的常量池及符号解析器,单独编译
+     */
+    public void generateGlobal(Writer out) throws IOException {
+        final CSourceWriter writer = CSourceWriter.wrap(out);
+        writer.write("#include <stdio.h>\n" +
+                "#include <string.h>\n" +
+                "#include <malloc.h>\n" +
+                "#include <jni.h>\n" +
+                "#include \"vm.h\"\n" +
+                "#include \"GlobalCache.h\"\n" +
+                "#include \"ConstantPool.h\"\n\n" +
+                "#include <pthread.h>\n\n\n");
+        if (dataBlob != null) {
+            writer.write(String.format("extern const u1 %s[] %s;\n\n",
+                    dataBlob.getSymbol(), HIDDEN));
+        }
+        generatePools(writer, HIDDEN + " const vmResolver " + GLOBAL_RESOLVER);
+        writer.write(String.format("%1$s void %2$s(JNIEnv *env) {\n" +
+                "    resolver_init(env);\n" +
+                "}\n" +
+                "\n" +
+                "%1$s const char *%3$s(u4 idx) {\n" +
+                "    return STRING_BY_ID(idx);\n" +
+                "}\n" +
+                "\n" +
+                "%1$s const char *%4$s(u4 idx) {\n" +
+                "    return STRING_BY_CLASS_ID(idx);\n" +
+                "}\n\n", HIDDEN, GLOBAL_RESOLVER_INIT, GLOBAL_STRING_BY_ID, GLOBAL_CLASS_NAME_BY_ID));
+        writer.flush();
+    }
+
+    private void generatePools(CSourceWriter writer, String resolverDeclaration) throws IOException {
 
         generateStringPool(writer);
         generateTypePool(writer);
@@ -53,11 +146,11 @@ public class ResolverCodeGenerator {
         generateStringConstants(writer);
 
         //生成初始化函数及符号解析器结构体
-        generateResolver(writer);
+        generateResolver(writer, resolverDeclaration);
     }
 
     //产生const-string*指令对应的缓存
-    private void generateStringConstants(Writer writer) throws IOException {
+    private void generateStringConstants(CSourceWriter writer) throws IOException {
         final References references = this.references;
         final List<String> constantStrings = references.getConstantStringPool();
         final int[] constIds = new int[constantStrings.size()];
@@ -70,14 +163,16 @@ public class ResolverCodeGenerator {
 
         writer.write("static const u4 gStringConstantIds[] = {\n");
         for (int offset : constIds) {
-            writer.write(String.format("    0x%04x,\n", offset));
+            writer.write("    ");
+            writer.writeHex4(offset);
+            writer.write(",\n");
         }
         writer.write("};\n");
 
         writer.write(String.format("static jstring gStringConstants[%d];\n\n", constIds.length));
     }
 
-    private void generateResolver(Writer writer) throws IOException {
+    private void generateResolver(CSourceWriter writer, String resolverDeclaration) throws IOException {
         writer.write("static void resolver_init(JNIEnv *env) {\n" +
                 "    memset(gFields, 0, sizeof(gFields));\n" +
                 "    memset(gMethods, 0, sizeof(gMethods));\n" +
@@ -252,29 +347,27 @@ public class ResolverCodeGenerator {
                         "\n" +
                         "    return clazz;\n" +
                         "}\n\n", references.getMaxTypeLen()));
-        writer.write(
-                "static const vmResolver dvmResolver = {\n" +
-                        "        .dvmResolveField = dvmResolveField,\n" +
-                        "        .dvmResolveMethod = dvmResolveMethod,\n" +
-                        "        .dvmResolveTypeUtf = dvmResolveTypeUtf,\n" +
-                        "        .dvmResolveClass = dvmResolveClass,\n" +
-                        "        .dvmFindClass = dvmFindClass,\n" +
-                        "        .dvmConstantString = dvmConstantString,\n" +
-                        "};\n" +
-                        "\n");
+        writer.write(resolverDeclaration + " = {\n" +
+                "        .dvmResolveField = dvmResolveField,\n" +
+                "        .dvmResolveMethod = dvmResolveMethod,\n" +
+                "        .dvmResolveTypeUtf = dvmResolveTypeUtf,\n" +
+                "        .dvmResolveClass = dvmResolveClass,\n" +
+                "        .dvmFindClass = dvmFindClass,\n" +
+                "        .dvmConstantString = dvmConstantString,\n" +
+                "};\n" +
+                "\n");
     }
 
-    private void generateMethodPool(Writer writer) throws IOException {
+    private void generateMethodPool(CSourceWriter writer) throws IOException {
         final References references = this.references;
-        writer.write(
-                "\n" +
-                        "typedef struct {\n" +
-                        "    u2 classIdx;\n" +
-                        "    u4 nameIdx;\n" +
-                        "    u4 shortyIdx;\n" +
-                        "    u4 sigIdx;\n" +
-                        "} MethodId;\n\n");
-        writer.write("static const MethodId gMethodIds[] = {\n");
+        //索引宽度根据常量池大小选择
+        final IdStruct struct = new IdStruct("MethodId")
+                .field("classIdx", references.getClassNamePool().size())
+                .field("nameIdx", references.getStringPool().size())
+                .field("shortyIdx", references.getStringPool().size())
+                .field("sigIdx", references.getSignaturePool().size());
+        writer.write("\n" + struct.typedef() + "\n");
+        beginTable(writer, struct.getTypeName(), "gMethodIds");
 
         final List<MethodReference> methodPool = references.getMethodPool();
         for (MethodReference methodReference : methodPool) {
@@ -304,26 +397,26 @@ public class ResolverCodeGenerator {
                 throw new RuntimeException("unknown method signature");
             }
 
-            writer.write(String.format(
-                    "    {.classIdx=%d, .nameIdx=%d, .shortyIdx=%d, .sigIdx=%d},\n",
-                    classNameIdx, nameIdx, shortyIdx, sigIdx));
+            if (dataBlob != null) {
+                struct.write(dataBlob, classNameIdx, nameIdx, shortyIdx, sigIdx);
+            } else {
+                struct.write(writer, classNameIdx, nameIdx, shortyIdx, sigIdx);
+            }
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends method data\n\n");
         writer.write(String.format("static vmMethod gMethods[%d];\n", methodPool.size()));
         writer.write("\n");
     }
 
-    private void generateFieldPool(Writer writer) throws IOException {
+    private void generateFieldPool(CSourceWriter writer) throws IOException {
         final References references = this.references;
-        writer.write(
-                "\n" +
-                        "typedef struct {\n" +
-                        "    u2 classIdx;\n" +
-                        "    u4 nameIdx;\n" +
-                        "    u2 typeIdx;\n" +
-                        "} FieldId;\n\n");
-        writer.write("static const FieldId gFieldIds[] = {\n");
+        final IdStruct struct = new IdStruct("FieldId")
+                .field("classIdx", references.getClassNamePool().size())
+                .field("nameIdx", references.getStringPool().size())
+                .field("typeIdx", references.getTypePool().size());
+        writer.write("\n" + struct.typedef() + "\n");
+        beginTable(writer, struct.getTypeName(), "gFieldIds");
 
         final List<FieldReference> fieldPool = references.getFieldPool();
         for (FieldReference reference : fieldPool) {
@@ -347,38 +440,54 @@ public class ResolverCodeGenerator {
                 throw new RuntimeException("unknown field type");
             }
 
-            writer.write(String.format(
-                    "    {.classIdx=%d, .nameIdx=%d, .typeIdx=%d},\n",
-                    classNameIdx, nameIdx, typeIdx));
+            if (dataBlob != null) {
+                struct.write(dataBlob, classNameIdx, nameIdx, typeIdx);
+            } else {
+                struct.write(writer, classNameIdx, nameIdx, typeIdx);
+            }
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends field id\n\n");
         writer.write(String.format("static vmField gFields[%d];\n", fieldPool.size()));
     }
 
 
-    private void generateStringPool(Writer writer) throws IOException {
-        writer.write("static const u1 gBaseStrPtr[]={\n");
-
-        ArrayList<Long> strOffsets = new ArrayList<>();
-        long strOffset = 0;
+    private void generateStringPool(CSourceWriter writer) throws IOException {
+        final DataBlob dataBlob = this.dataBlob;
+        if (dataBlob == null) {
+            writer.write("static const u1 gBaseStrPtr[]={\n");
+        } else {
+            writer.write(String.format("static const u1 *const gBaseStrPtr = %s + %d;\n",
+                    dataBlob.getSymbol(), dataBlob.align(4)));
+        }
 
         final List<String> stringPool = references.getStringPool();
+        final long[] strOffsets = new long[stringPool.size()];
+        int strIdx = 0;
+        long strOffset = 0;
         for (String string : stringPool) {
 
             //必须使用modified utf8，不然jni的NewStringUtf函数可能出问题.issue #3
-            byte[] bytes = ModifiedUtf8.encode(string);
-
-            writer.write("    ");
-            for (byte aByte : bytes) {
-                writer.write(String.format("0x%02x,", aByte & 0xFF));
+            final int length;
+            if (dataBlob != null) {
+                final byte[] bytes = ModifiedUtf8.encode(string);
+                dataBlob.put(bytes, 1);
+                dataBlob.putByte(0);
+                length = bytes.length;
+            } else {
+                writer.write("    ");
+                length = writer.writeModifiedUtf8Bytes(string);
+                writer.write("0x00,\n");
             }
-            writer.write("0x00,\n");
 
-            strOffsets.add(strOffset);
-            strOffset += bytes.length + 1;
+            strOffsets[strIdx++] = strOffset;
+            strOffset += length + 1;
+        }
+        if (dataBlob == null) {
+            writer.write("};\n\n");
+        } else {
+            writer.write("\n");
         }
-        writer.write("};\n\n");
 
         writer.write(
                 "\n" +
@@ -386,29 +495,62 @@ public class ResolverCodeGenerator {
                         "    u4 off;\n" +
                         "} StringId;\n");
 
-        writer.write("static const StringId gStringIds[] = {\n");
-        for (Long offset : strOffsets) {
+        beginTable(writer, "StringId", "gStringIds");
+        for (long offset : strOffsets) {
             if (offset > 0xFFFFFFFFL) {
                 throw new RuntimeException("string offset too long");
             }
-            writer.write(String.format("    {.off=0x%04x},\n", offset));
+            if (dataBlob != null) {
+                dataBlob.putInt((int) offset);
+                continue;
+            }
+            writer.write("    {.off=");
+            writer.writeHex4(offset);
+            writer.write("},\n");
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends string ids\n\n");
 
         writer.flush();
     }
 
+    //常量表开始,使用数据文件时只声明指向数据的指针,表里的数据都是4字节对齐
+    private void beginTable(CSourceWriter writer, String type, String name) throws IOException {
+        if (dataBlob == null) {
+            writer.write(String.format("static const %s %s[] = {\n", type, name));
+        } else {
+            writer.write(String.format("static const %s *const %s = (const %s *) (%s + %d);\n",
+                    type, name, type, dataBlob.getSymbol(), dataBlob.align(4)));
+        }
+    }
+
+    private void endTable(CSourceWriter writer) throws IOException {
+        if (dataBlob == null) {
+            writer.write("};\n");
+        }
+    }
+
+    //{u4 idx}结构体
+    private void writeIdx(CSourceWriter writer, int idx) throws IOException {
+        if (dataBlob != null) {
+            dataBlob.putInt(idx);
+            return;
+        }
+        writer.write("    {.idx=");
+        writer.writeInt(idx);
+        writer.write("},\n");
+    }
+
     static String stringEsc(String str) throws UTFDataFormatException {
         byte[] bytes = ModifiedUtf8.encode(str);
         StringBuilder sb = new StringBuilder(4 * bytes.length);
         for (byte b : bytes) {
-            sb.append(String.format("\\x%02x", b & 0xFF));
+            sb.append("\\x").append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
         }
         return sb.toString();
     }
 
-    private void generateTypePool(Writer writer) throws IOException {
+    private void generateTypePool(CSourceWriter writer) throws IOException {
 
         writer.write(
                 "\n" +
@@ -416,18 +558,18 @@ public class ResolverCodeGenerator {
                         "    u4 idx;\n" +
                         "} TypeId;\n");
 
-        writer.write("static const TypeId gTypeIds[] = {\n");
+        beginTable(writer, "TypeId", "gTypeIds");
         final References references = this.references;
         for (String type : references.getTypePool()) {
-            writer.write(String.format("    {.idx=%d},\n", references.getStringItemIndex(type)));
+            writeIdx(writer, references.getStringItemIndex(type));
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends type ids\n\n");
         writer.flush();
     }
 
     //根据类型池,去掉L开头和;得到class name,其他则不变
-    private void generateClassNamePool(Writer writer) throws IOException {
+    private void generateClassNamePool(CSourceWriter writer) throws IOException {
         writer.write(
                 "\n" +
                         "typedef struct {\n" +
@@ -435,7 +577,7 @@ public class ResolverCodeGenerator {
                         "} ClassId;\n");
 
 
-        writer.write("static const ClassId gClassIds[] = {\n");
+        beginTable(writer, "ClassId", "gClassIds");
 
         final References references = this.references;
         for (String className : references.getClassNamePool()) {
@@ -443,20 +585,20 @@ public class ResolverCodeGenerator {
             if (classNameIdx < 0) {
                 throw new RuntimeException("string not contain");
             }
-            writer.write(String.format("    {.idx=%d},\n", classNameIdx));
+            writeIdx(writer, classNameIdx);
 
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends class name ids\n\n");
     }
 
-    private void generateSignaturePool(Writer writer) throws IOException {
+    private void generateSignaturePool(CSourceWriter writer) throws IOException {
         writer.write(
                 "typedef struct {\n" +
                         "    u4 idx;\n" +
                         "} SignatureId;\n");
 
-        writer.write("static const SignatureId gSignatureIds[] = {\n");
+        beginTable(writer, "SignatureId", "gSignatureIds");
 
         final References references = this.references;
         for (String sig : references.getSignaturePool()) {
@@ -464,9 +606,9 @@ public class ResolverCodeGenerator {
             if (sigIdx < 0) {
                 throw new RuntimeException("string not contain");
             }
-            writer.write(String.format("    {.idx=%d},\n", sigIdx));
+            writeIdx(writer, sigIdx);
         }
-        writer.write("};\n");
+        endTable(writer);
         writer.write("//ends method signature pool\n\n");
     }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.util.DexLoader;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 从manifest里冷启动时创建的组件(application,provider,启动activity)的入口方法开始,
+ * 按调用关系找出启动时可能执行的方法.
+ * <p>
+ * 只根据引用的方法静态查找实现(沿父类查找),不考虑子类重写及接口实现;
+ * 创建对象及访问静态域,静态方法会触发类的静态初始化,也加入&lt;clinit&gt;
+ */
+public class StartupCallGraph {
+    //组件及其父类里作为入口的方法
+    public static final List<String> ENTRY_METHODS = Collections.unmodifiableList(Arrays.asList(
+            "<clinit>", "<init>", "attachBaseContext", "onCreate"));
+
+    private final Map<String, ClassDef> classes = new HashMap<>();
+    //类型->(方法名及原型->方法)
+    private final Map<String, Map<String, Method>> methodsCache = new HashMap<>();
+
+    //方法描述->离入口的调用层数
+    private final Map<String, Integer> depths = new LinkedHashMap<>();
+    private final int maxDepth;
+
+    private StartupCallGraph(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param dexFiles       所有dex
+     * @param componentTypes 组件类型,比如Lcom/foo/App;
+     * @param maxDepth       从入口方法最多经过几层调用,0只包括入口方法
+     */
+    @Nonnull
+    public static StartupCallGraph build(@Nonnull List<? extends DexFile> dexFiles,
+                                         @Nonnull Collection<String> componentTypes,
+                                         int maxDepth) {
+        final StartupCallGraph graph = new StartupCallGraph(maxDepth);
+        for (DexFile dexFile : dexFiles) {
+            for (ClassDef classDef : dexFile.getClasses()) {
+                //和运行时一样,多个dex有同名类时使用前面的
+                graph.classes.putIfAbsent(classDef.getType(), classDef);
+            }
+        }
+        graph.walk(componentTypes, maxDepth);
+        //只保留方法描述,不再引用dex数据
+        graph.classes.clear();
+        graph.methodsCache.clear();
+        return graph;
+    }
+
+    @Nonnull
+    public static StartupCallGraph load(@Nonnull List<File> dexFiles,
+                                        @Nonnull Collection<String> componentTypes,
+                                        int maxDepth) throws IOException {
+        final List<DexFile> dexes = new ArrayList<>();
+        for (File file : dexFiles) {
+            dexes.add(DexLoader.load(file));
+        }
+        return build(dexes, componentTypes, maxDepth);
+    }
+
+    private void walk(Collection<String> componentTypes, int maxDepth) {
+        final Deque<Method> pending = new ArrayDeque<>();
+        for (String type : componentTypes) {
+            for (String t = type; t != null; ) {
+                final ClassDef classDef = classes.get(t);
+                if (classDef == null) {
+                    break;
+                }
+                for (Method method : classDef.getMethods()) {
+                    if (ENTRY_METHODS.contains(method.getName())) {
+                        visit(pending, method, 0);
+                    }
+                }
+                t = classDef.getSuperclass();
+            }
+        }
+        while (!pending.isEmpty()) {
+            final Method method = pending.poll();
+            final int depth = depths.get(DexFormatter.INSTANCE.getMethodDescriptor(method));
+            final MethodImplementation implementation = method.getImplementation();
+            if (depth >= maxDepth || implementation == null) {
+                continue;
+            }
+            for (Instruction instruction : implementation.getInstructions()) {
+                if (!(instruction instanceof ReferenceInstruction)) {
+                    continue;
+                }
+                final int referenceType = instruction.getOpcode().referenceType;
+                if (referenceType == ReferenceType.METHOD) {
+                    final MethodReference reference = (MethodReference) ((ReferenceInstruction) instruction).getReference();
+                    final Method target = resolveMethod(reference);
+                    if (target != null) {
+                        visit(pending, target, depth + 1);
+                    }
+                    visitClassInit(pending, reference.getDefiningClass(), depth + 1);
+                } else if (referenceType == ReferenceType.FIELD) {
+                    final FieldReference reference = (FieldReference) ((ReferenceInstruction) instruction).getReference();
+                    visitClassInit(pending, reference.getDefiningClass(), depth + 1);
+                } else if (referenceType == ReferenceType.TYPE) {
+                    final TypeReference reference = (TypeReference) ((ReferenceInstruction) instruction).getReference();
+                    visitClassInit(pending, reference.getType(), depth + 1);
+                }
+            }
+        }
+    }
+
+    private void visit(Deque<Method> pending, Method method, int depth) {
+        final String descriptor = DexFormatter.INSTANCE.getMethodDescriptor(method);
+        if (!depths.containsKey(descriptor)) {
+            depths.put(descriptor, depth);
+            pending.add(method);
+        }
+    }
+
+    //类及父类的静态初始化
+    private void visitClassInit(Deque<Method> pending, String type, int depth) {
+        for (String t = type; t != null; ) {
+            final ClassDef classDef = classes.get(t);
+            if (classDef == null) {
+                return;
+            }
+            final Method clinit = findMethods(classDef).get("<clinit>()V");
+            if (clinit != null) {
+                visit(pending, clinit, depth);
+            }
+            t = classDef.getSuperclass();
+        }
+    }
+
+    //沿父类查找方法实现
+    @Nullable
+    private Method resolveMethod(MethodReference reference) {
+        final String key = reference.getName() + MyMethodUtil.getMethodSignature(
+                reference.getParameterTypes(), reference.getReturnType());
+        for (String t = reference.getDefiningClass(); t != null; ) {
+            final ClassDef classDef = classes.get(t);
+            if (classDef == null) {
+                return null;
+            }
+            final Method method = findMethods(classDef).get(key);
+            if (method != null) {
+                return method;
+            }
+            t = classDef.getSuperclass();
+        }
+        return null;
+    }
+
+    private Map<String, Method> findMethods(ClassDef classDef) {
+        return methodsCache.computeIfAbsent(classDef.getType(), type -> {
+            final Map<String, Method> map = new HashMap<>();
+            for (Method method : classDef.getMethods()) {
+                map.put(method.getName() + MyMethodUtil.getMethodSignature(
+                        method.getParameterTypes(), method.getReturnType()), method);
+            }
+            return map;
+        });
+    }
+
+    public int size() {
+        return depths.size();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public boolean contains(@Nonnull String methodDescriptor) {
+        return depths.containsKey(methodDescriptor);
+    }
+
+    /**
+     * @return 方法离入口的调用层数,不在启动路径上返回-1
+     */
+    public int getDepth(@Nonnull String methodDescriptor) {
+        final Integer depth = depths.get(methodDescriptor);
+        return depth == null ? -1 : depth;
+    }
+
+    /**
+     * 启动路径上的方法描述,按发现顺序
+     */
+    @Nonnull
+    public Set<String> getMethods() {
+        return Collections.unmodifiableSet(depths.keySet());
+    }
+
+    /**
+     * 启动方法集合里属于dex里类的那部分的摘要,影响这个dex的转换结果,作为转换缓存key的一部分.
+     * 其他dex的启动方法改变不影响这个dex的缓存
+     */
+    @Nonnull
+    public String getFingerprint(@Nonnull DexFile dexFile) {
+        final Set<String> types = new HashSet<>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            types.add(classDef.getType());
+        }
+        final List<String> sorted = new ArrayList<>();
+        for (String descriptor : depths.keySet()) {
+            if (types.contains(descriptor.substring(0, descriptor.indexOf("->")))) {
+                sorted.add(descriptor);
+            }
+        }
+        Collections.sort(sorted);
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (String descriptor : sorted) {
+            digest.update(descriptor.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,177 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * 字符串表,所有字符连续保存在一个char数组里,每个字符串对应一个从0开始的整数id.
+ * 使用开放寻址的int数组查找,不为每个字符串创建String及装箱的Integer对象.
+ * 非线程安全
+ */
+class StringTable {
+    private static final int EMPTY = -1;
+
+    //所有字符串的字符
+    private char[] chars = new char[1 << 14];
+    private int charCount;
+    //id对应字符串在chars里的开始位置,结束位置为下一个id的开始位置
+    private int[] starts = new int[1025];
+    private int[] hashes = new int[1024];
+    private int size;
+
+    //开放寻址表,保存id
+    private int[] slots;
+    private int mask;
+
+    StringTable() {
+        slots = new int[2048];
+        Arrays.fill(slots, EMPTY);
+        mask = slots.length - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 返回字符串对应的id,不存在时添加
+     */
+    int intern(@Nonnull CharSequence str) {
+        final int hash = hash(str);
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (hashes[id] == hash && equalsAt(id, str)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        id = add(str, hash);
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return 不存在时返回-1
+     */
+    int indexOf(@Nonnull CharSequence str) {
+        final int hash = hash(str);
+        int slot = hash & mask;
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (hashes[id] == hash && equalsAt(id, str)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    @Nonnull
+    String get(int id) {
+        final int start = starts[id];
+        return new String(chars, start, starts[id + 1] - start);
+    }
+
+    /**
+     * 和String.compareTo结果一致
+     */
+    int compare(int id1, int id2) {
+        if (id1 == id2) {
+            return 0;
+        }
+        final char[] chars = this.chars;
+        int i = starts[id1];
+        int j = starts[id2];
+        final int len1 = starts[id1 + 1] - i;
+        final int len2 = starts[id2 + 1] - j;
+        final int end = i + Math.min(len1, len2);
+        for (; i < end; i++, j++) {
+            final char c1 = chars[i];
+            final char c2 = chars[j];
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return len1 - len2;
+    }
+
+    /**
+     * 所有id按字符串排序后的位置,ranks[id]比较结果和compare一致
+     */
+    @Nonnull
+    int[] ranks() {
+        final int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        IntSorter.sort(ids, this::compare);
+        final int[] ranks = new int[size];
+        for (int i = 0; i < size; i++) {
+            ranks[ids[i]] = i;
+        }
+        return ranks;
+    }
+
+    private int add(CharSequence str, int hash) {
+        final int len = str.length();
+        if (charCount + len > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + len));
+        }
+        for (int i = 0; i < len; i++) {
+            chars[charCount + i] = str.charAt(i);
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            starts = Arrays.copyOf(starts, size * 2 + 1);
+        }
+        final int id = size++;
+        hashes[id] = hash;
+        starts[id] = charCount;
+        charCount += len;
+        starts[size] = charCount;
+        return id;
+    }
+
+    private boolean equalsAt(int id, CharSequence str) {
+        final int start = starts[id];
+        final int len = starts[id + 1] - start;
+        if (len != str.length()) {
+            return false;
+        }
+        final char[] chars = this.chars;
+        for (int i = 0; i < len; i++) {
+            if (chars[start + i] != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        final int[] newSlots = new int[slots.length * 2];
+        Arrays.fill(newSlots, EMPTY);
+        final int newMask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & newMask;
+            while (newSlots[slot] != EMPTY) {
+                slot = (slot + 1) & newMask;
+            }
+            newSlots[slot] = id;
+        }
+        slots = newSlots;
+        mask = newMask;
+    }
+
+    //和String.hashCode相同,再打散低位
+    private static int hash(CharSequence str) {
+        int h = 0;
+        for (int i = 0; i < str.length(); i++) {
+            h = 31 * h + str.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -35,22 +35,12 @@ public abstract class InstructionRewriter {
 
 
     final Opcodes opcodes;
-    // 指令重写需要的引用信息
-    private References references;
-    private ClassAnalyzer classAnalyzer;
 
 
     public InstructionRewriter(@Nonnull Opcodes opcodes) {
         this.opcodes = opcodes;
     }
 
-    public void loadReferences(
-            @Nonnull References references,
-            @Nonnull ClassAnalyzer classAnalyzer) {
-        this.references = references;
-        this.classAnalyzer = classAnalyzer;
-    }
-
     /**
      * 对指令里的opcode进行替换
      *
@@ -84,7 +74,12 @@ public abstract class InstructionRewriter {
         }
     }
 
-    public final byte[] rewriteInstructions(MethodImplementation methodImp) {
+    /**
+     * 重写方法指令,引用索引从references得到.不保存任何引用信息,多个dex可以同时转换
+     */
+    public final byte[] rewriteInstructions(MethodImplementation methodImp,
+                                            @Nonnull References references,
+                                            @Nonnull ClassAnalyzer classAnalyzer) {
         if (methodImp == null) {
             throw new RuntimeException("No methodImp");
         }
@@ -108,13 +103,13 @@ public abstract class InstructionRewriter {
                     write(writer, (Instruction12x) instruction);
                     break;
                 case Format20bc:
-                    write(writer, (Instruction20bc) instruction);
+                    write(writer, (Instruction20bc) instruction, references, classAnalyzer);
                     break;
                 case Format20t:
                     write(writer, (Instruction20t) instruction);
                     break;
                 case Format21c:
-                    write(writer, (Instruction21c) instruction);
+                    write(writer, (Instruction21c) instruction, references, classAnalyzer);
                     break;
                 case Format21ih:
                     write(writer, (Instruction21ih) instruction);
@@ -132,7 +127,7 @@ public abstract class InstructionRewriter {
                     write(writer, (Instruction22b) instruction);
                     break;
                 case Format22c:
-                    write(writer, (Instruction22c) instruction);
+                    write(writer, (Instruction22c) instruction, references, classAnalyzer);
                     break;
                 case Format22cs:
                     write(writer, (Instruction22cs) instruction);
@@ -153,7 +148,7 @@ public abstract class InstructionRewriter {
                     write(writer, (Instruction30t) instruction);
                     break;
                 case Format31c:
-                    write(writer, (Instruction31c) instruction);
+                    write(writer, (Instruction31c) instruction, references, classAnalyzer);
                     break;
                 case Format31i:
                     write(writer, (Instruction31i) instruction);
@@ -165,14 +160,14 @@ public abstract class InstructionRewriter {
                     write(writer, (Instruction32x) instruction);
                     break;
                 case Format35c:
-                    write(writer, (Instruction35c) instruction);
+                    write(writer, (Instruction35c) instruction, references, classAnalyzer);
                     break;
                 case Format35mi:
                     break;
                 case Format35ms:
                     break;
                 case Format3rc:
-                    write(writer, (Instruction3rc) instruction);
+                    write(writer, (Instruction3rc) instruction, references, classAnalyzer);
                     break;
                 case Format3rmi:
                     break;
@@ -218,12 +213,14 @@ public abstract class InstructionRewriter {
      * // followed by catch_handler_item[handlersSize]
      * } TryCatchHandler;
      *
-     * @param methodImp 方法实现
+     * @param methodImp  方法实现
+     * @param references 异常类型索引从它得到
      * @return 异常表数据
      * @throws IOException
      */
     @Nonnull
-    public final byte[] handleTries(MethodImplementation methodImp) throws IOException {
+    public final byte[] handleTries(MethodImplementation methodImp,
+                                    @Nonnull References references) throws IOException {
         if (methodImp == null) {
             throw new RuntimeException("No methodImp");
         }
@@ -283,7 +280,7 @@ public abstract class InstructionRewriter {
 
                         if (exceptionTypeReference != null) {
                             //regular exception handling
-                            DexDataWriter.writeUleb128(ehBuf, getReferenceIndex(ReferenceType.TYPE, exceptionTypeReference));
+                            DexDataWriter.writeUleb128(ehBuf, getReferenceIndex(references, ReferenceType.TYPE, exceptionTypeReference));
                             DexDataWriter.writeUleb128(ehBuf, codeAddress);
                         } else {
                             //catch-all
@@ -369,11 +366,13 @@ public abstract class InstructionRewriter {
     }
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction20bc instruction) {
+                      @Nonnull Instruction20bc instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(instruction.getVerificationError());
-            writer.writeUshort(getReferenceIndex(instruction));
+            writer.writeUshort(getReferenceIndex(references, classAnalyzer, instruction));
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -391,11 +390,13 @@ public abstract class InstructionRewriter {
     }
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction21c instruction) {
+                      @Nonnull Instruction21c instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(instruction.getRegisterA());
-            writer.writeUshort(getReferenceIndex(instruction));
+            writer.writeUshort(getReferenceIndex(references, classAnalyzer, instruction));
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -458,11 +459,13 @@ public abstract class InstructionRewriter {
     }
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction22c instruction) {
+                      @Nonnull Instruction22c instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(packNibbles(instruction.getRegisterA(), instruction.getRegisterB()));
-            writer.writeUshort(getReferenceIndex(instruction));
+            writer.writeUshort(getReferenceIndex(references, classAnalyzer, instruction));
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -536,11 +539,13 @@ public abstract class InstructionRewriter {
     }
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction31c instruction) {
+                      @Nonnull Instruction31c instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(instruction.getRegisterA());
-            writer.writeInt(getReferenceIndex(instruction));
+            writer.writeInt(getReferenceIndex(references, classAnalyzer, instruction));
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -581,11 +586,13 @@ public abstract class InstructionRewriter {
     }
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction35c instruction) {
+                      @Nonnull Instruction35c instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(packNibbles(instruction.getRegisterG(), instruction.getRegisterCount()));
-            writer.writeUshort(getReferenceIndex(instruction));
+            writer.writeUshort(getReferenceIndex(references, classAnalyzer, instruction));
             writer.write(packNibbles(instruction.getRegisterC(), instruction.getRegisterD()));
             writer.write(packNibbles(instruction.getRegisterE(), instruction.getRegisterF()));
         } catch (IOException ex) {
@@ -595,11 +602,13 @@ public abstract class InstructionRewriter {
 
 
     public void write(@Nonnull DexDataWriter writer,
-                      @Nonnull Instruction3rc instruction) {
+                      @Nonnull Instruction3rc instruction,
+                      @Nonnull References references,
+                      @Nonnull ClassAnalyzer classAnalyzer) {
         try {
             writer.write(getOpcodeValue(instruction.getOpcode()));
             writer.write(instruction.getRegisterCount());
-            writer.writeUshort(getReferenceIndex(instruction));
+            writer.writeUshort(getReferenceIndex(references, classAnalyzer, instruction));
             writer.writeUshort(instruction.getStartRegister());
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -706,7 +715,8 @@ public abstract class InstructionRewriter {
     }
 
 
-    private int getReferenceIndex(ReferenceInstruction referenceInstruction) {
+    private static int getReferenceIndex(References references, ClassAnalyzer classAnalyzer,
+                                         ReferenceInstruction referenceInstruction) {
         switch (referenceInstruction.getOpcode()) {
             case SGET:
             case SGET_BOOLEAN:
@@ -719,7 +729,7 @@ public abstract class InstructionRewriter {
                 final FieldReference reference = (FieldReference) referenceInstruction.getReference();
                 final FieldReference newFieldRef = classAnalyzer.getDirectFieldRef(reference);
                 if (newFieldRef != null) {
-                    return getReferenceIndex(referenceInstruction.getReferenceType(), newFieldRef);
+                    return getReferenceIndex(references, referenceInstruction.getReferenceType(), newFieldRef);
                 }
                 break;
             case CONST_STRING:
@@ -727,11 +737,11 @@ public abstract class InstructionRewriter {
                 //todo 直接从constStringPool中得到索引，这样生成c代码时可以去掉二分法
                 break;
         }
-        return getReferenceIndex(referenceInstruction.getReferenceType(),
+        return getReferenceIndex(references, referenceInstruction.getReferenceType(),
                 referenceInstruction.getReference());
     }
 
-    private int getReferenceIndex(int referenceType, Reference reference) {
+    private static int getReferenceIndex(References references, int referenceType, Reference reference) {
         switch (referenceType) {
             case ReferenceType.FIELD:
                 return references.getFieldItemIndex((FieldReference) reference);
@@ -0,0 +1,200 @@
+package com.nmmedit.apkprotect.dex2c.converter.structs;
+
+import org.jf.dexlib2.HiddenApiRestriction;
+import org.jf.dexlib2.base.reference.BaseMethodReference;
+import org.jf.dexlib2.base.reference.BaseTypeReference;
+import org.jf.dexlib2.iface.*;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 去掉类及方法上指定类型的注解,其他内容不变
+ */
+public class AnnotationStripClassDef extends BaseTypeReference implements ClassDef {
+    private final ClassDef classDef;
+    private final Set<String> annotationTypes;
+
+    public AnnotationStripClassDef(ClassDef classDef, Set<String> annotationTypes) {
+        this.classDef = classDef;
+        this.annotationTypes = annotationTypes;
+    }
+
+    @Nonnull
+    @Override
+    public String getType() {
+        return classDef.getType();
+    }
+
+    @Override
+    public int getAccessFlags() {
+        return classDef.getAccessFlags();
+    }
+
+    @Nullable
+    @Override
+    public String getSuperclass() {
+        return classDef.getSuperclass();
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getInterfaces() {
+        return classDef.getInterfaces();
+    }
+
+    @Nullable
+    @Override
+    public String getSourceFile() {
+        return classDef.getSourceFile();
+    }
+
+    @Nonnull
+    @Override
+    public Set<? extends Annotation> getAnnotations() {
+        return strip(classDef.getAnnotations());
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Field> getStaticFields() {
+        return classDef.getStaticFields();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Field> getInstanceFields() {
+        return classDef.getInstanceFields();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Field> getFields() {
+        return classDef.getFields();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Method> getDirectMethods() {
+        return stripMethods(classDef.getDirectMethods());
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Method> getVirtualMethods() {
+        return stripMethods(classDef.getVirtualMethods());
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<? extends Method> getMethods() {
+        return stripMethods(classDef.getMethods());
+    }
+
+    private Iterable<Method> stripMethods(final Iterable<? extends Method> methods) {
+        return () -> {
+            final Iterator<? extends Method> iterator = methods.iterator();
+            return new Iterator<Method>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Method next() {
+                    return stripMethod(iterator.next());
+                }
+            };
+        };
+    }
+
+    private Set<? extends Annotation> strip(Set<? extends Annotation> annotations) {
+        Set<Annotation> result = null;
+        for (Annotation annotation : annotations) {
+            if (annotationTypes.contains(annotation.getType())) {
+                if (result == null) {
+                    result = new HashSet<>(annotations);
+                }
+                result.remove(annotation);
+            }
+        }
+        return result == null ? annotations : result;
+    }
+
+    private Method stripMethod(Method method) {
+        final Set<? extends Annotation> origin = method.getAnnotations();
+        final Set<? extends Annotation> annotations = strip(origin);
+        //没有需要去掉的注解直接使用原方法
+        if (annotations == origin) {
+            return method;
+        }
+        return new StripMethod(method, annotations);
+    }
+
+    private static class StripMethod extends BaseMethodReference implements Method {
+        private final Method method;
+        private final Set<? extends Annotation> annotations;
+
+        StripMethod(Method method, Set<? extends Annotation> annotations) {
+            this.method = method;
+            this.annotations = annotations;
+        }
+
+        @Nonnull
+        @Override
+        public String getDefiningClass() {
+            return method.getDefiningClass();
+        }
+
+        @Nonnull
+        @Override
+        public String getName() {
+            return method.getName();
+        }
+
+        @Nonnull
+        @Override
+        public List<? extends CharSequence> getParameterTypes() {
+            return method.getParameterTypes();
+        }
+
+        @Nonnull
+        @Override
+        public List<? extends MethodParameter> getParameters() {
+            return method.getParameters();
+        }
+
+        @Nonnull
+        @Override
+        public String getReturnType() {
+            return method.getReturnType();
+        }
+
+        @Override
+        public int getAccessFlags() {
+            return method.getAccessFlags();
+        }
+
+        @Nonnull
+        @Override
+        public Set<? extends Annotation> getAnnotations() {
+            return annotations;
+        }
+
+        @Nonnull
+        @Override
+        public Set<HiddenApiRestriction> getHiddenApiRestrictions() {
+            return method.getHiddenApiRestrictions();
+        }
+
+        @Nullable
+        @Override
+        public MethodImplementation getImplementation() {
+            return method.getImplementation();
+        }
+    }
+}
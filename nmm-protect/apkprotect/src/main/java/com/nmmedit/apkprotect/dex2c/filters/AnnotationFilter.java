@@ -0,0 +1,100 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import com.nmmedit.apkprotect.dex2c.converter.structs.AnnotationStripClassDef;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 类或方法上有指定注解时不转换,用于手动保留性能敏感的代码.
+ * 注解需要是RUNTIME或CLASS保留,否则编译时就被丢弃;d8会去掉CLASS保留的注解,所以一般用RUNTIME
+ */
+public class AnnotationFilter extends DelegatingFilter {
+    public static final String DEFAULT_ANNOTATION = "Lcom/nmmedit/protect/NmmpKeepFast;";
+
+    private final Set<String> annotationTypes = new HashSet<>();
+    private final boolean strip;
+
+    /**
+     * @param annotationTypes 注解类型,可以是com.foo.Keep或者Lcom/foo/Keep;
+     * @param strip           是否从壳dex里去掉这些注解
+     */
+    public AnnotationFilter(@Nullable ClassAndMethodFilter filter,
+                            @Nonnull Collection<String> annotationTypes,
+                            boolean strip) {
+        super(filter);
+        for (String type : annotationTypes) {
+            type = type.trim();
+            if (type.isEmpty()) {
+                continue;
+            }
+            if (!type.startsWith("L") || !type.endsWith(";")) {
+                type = "L" + type.replace('.', '/') + ";";
+            }
+            this.annotationTypes.add(type);
+        }
+        this.strip = strip;
+    }
+
+    @Override
+    public boolean acceptClass(ClassDef classDef) {
+        if (!super.acceptClass(classDef)) {
+            return false;
+        }
+        return !hasAnnotation(classDef.getAnnotations());
+    }
+
+    @Override
+    public boolean acceptMethod(Method method) {
+        if (!super.acceptMethod(method)) {
+            return false;
+        }
+        return !hasAnnotation(method.getAnnotations());
+    }
+
+    @Nonnull
+    @Override
+    public ClassDef rewriteShellClass(@Nonnull ClassDef classDef) {
+        classDef = super.rewriteShellClass(classDef);
+        if (!strip || !hasAnnotation(classDef)) {
+            return classDef;
+        }
+        return new AnnotationStripClassDef(classDef, annotationTypes);
+    }
+
+    @Nonnull
+    public Set<String> getAnnotationTypes() {
+        return annotationTypes;
+    }
+
+    //类或者类里的方法有指定注解
+    private boolean hasAnnotation(ClassDef classDef) {
+        if (hasAnnotation(classDef.getAnnotations())) {
+            return true;
+        }
+        for (Method method : classDef.getMethods()) {
+            if (hasAnnotation(method.getAnnotations())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasAnnotation(Set<? extends Annotation> annotations) {
+        if (annotationTypes.isEmpty()) {
+            return false;
+        }
+        for (Annotation annotation : annotations) {
+            if (annotationTypes.contains(annotation.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,10 +1,28 @@
 package com.nmmedit.apkprotect.dex2c.filters;
 
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.Method;
 
+import javax.annotation.Nonnull;
+
 public interface ClassAndMethodFilter {
     boolean acceptClass(ClassDef classDef);
 
     boolean acceptMethod(Method method);
+
+    /**
+     * 处理dex之前传入整个apk的类继承关系,需要判断间接父类等的过滤规则可以使用
+     */
+    default void setClassHierarchy(@Nonnull ClassHierarchy hierarchy) {
+    }
+
+    /**
+     * 类写入壳dex前调用,可以修改类,比如去掉只用于过滤的注解.
+     * 传入的类可能已经把方法设为native,判断方法是否转换必须在此之前完成
+     */
+    @Nonnull
+    default ClassDef rewriteShellClass(@Nonnull ClassDef classDef) {
+        return classDef;
+    }
 }
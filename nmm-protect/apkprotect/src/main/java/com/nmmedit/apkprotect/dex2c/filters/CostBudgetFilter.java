@@ -0,0 +1,85 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import com.nmmedit.apkprotect.dex2c.converter.MethodCostEstimator;
+import com.nmmedit.apkprotect.dex2c.converter.MethodCostEstimator.MethodCost;
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 估算上游规则接受的每个方法转为native后的开销,开销超过预算的方法不转换.
+ * 所有估算结果可以按开销排序输出,用于调整转换规则
+ */
+public class CostBudgetFilter extends DelegatingFilter {
+    private final long budget;
+
+    //方法描述->开销,同一个方法会被多次判断
+    private final Map<String, MethodCost> costs = new ConcurrentHashMap<>();
+
+    /**
+     * @param budget 开销大于它的方法被排除,Long.MAX_VALUE只估算不排除
+     */
+    public CostBudgetFilter(@Nullable ClassAndMethodFilter filter, long budget) {
+        super(filter);
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean acceptMethod(Method method) {
+        if (!super.acceptMethod(method)) {
+            return false;
+        }
+        final MethodImplementation implementation = method.getImplementation();
+        if (implementation == null) {
+            return true;
+        }
+        final String descriptor = DexFormatter.INSTANCE.getMethodDescriptor(method);
+        MethodCost cost = costs.get(descriptor);
+        if (cost == null) {
+            cost = MethodCostEstimator.estimate(implementation);
+            costs.put(descriptor, cost);
+        }
+        return !isExcluded(cost);
+    }
+
+    private boolean isExcluded(MethodCost cost) {
+        return cost.getCost() > budget;
+    }
+
+    /**
+     * 按开销从大到小排序的方法描述
+     */
+    @Nonnull
+    public List<Map.Entry<String, MethodCost>> getRankedCosts() {
+        final List<Map.Entry<String, MethodCost>> entries = new ArrayList<>(costs.entrySet());
+        entries.sort((e1, e2) -> {
+            final int c = Long.compare(e2.getValue().getCost(), e1.getValue().getCost());
+            return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+        });
+        return entries;
+    }
+
+    /**
+     * 每行"开销 jni调用数 循环数 方法描述",被排除的方法后面加excluded
+     */
+    public void writeReport(@Nonnull Writer writer) throws IOException {
+        for (Map.Entry<String, MethodCost> entry : getRankedCosts()) {
+            final MethodCost cost = entry.getValue();
+            writer.write(cost.getCost() + "\t" + cost.getJniCalls() + "\t" + cost.getLoops() + "\t" + entry.getKey());
+            if (isExcluded(cost)) {
+                writer.write("\texcluded");
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,43 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * 在上游过滤规则接受的类及方法里再排除一部分的过滤规则,上游为null时接受所有类及方法.
+ * 子类一般记录被排除的方法用于输出报告,命中转换缓存的dex也会重新执行过滤规则,报告包括所有dex
+ */
+public abstract class DelegatingFilter implements ClassAndMethodFilter {
+    protected final ClassAndMethodFilter filter;
+
+    protected DelegatingFilter(@Nullable ClassAndMethodFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public boolean acceptClass(ClassDef classDef) {
+        return filter == null || filter.acceptClass(classDef);
+    }
+
+    @Override
+    public boolean acceptMethod(Method method) {
+        return filter == null || filter.acceptMethod(method);
+    }
+
+    @Override
+    public void setClassHierarchy(@Nonnull ClassHierarchy hierarchy) {
+        if (filter != null) {
+            filter.setClassHierarchy(hierarchy);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ClassDef rewriteShellClass(@Nonnull ClassDef classDef) {
+        return filter == null ? classDef : filter.rewriteShellClass(classDef);
+    }
+}
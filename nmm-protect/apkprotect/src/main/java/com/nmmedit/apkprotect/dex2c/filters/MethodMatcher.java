@@ -0,0 +1,79 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 类规则匹配后得到的方法名匹配器,规则预先编译,不可变,可以多线程共用.
+ * 规则里'*'匹配任意字符,其他字符按字面匹配
+ */
+public class MethodMatcher {
+    private final boolean any;
+    //没有通配符的方法名
+    private final Set<String> names = new HashSet<>();
+    //只在结尾有通配符,比如'get*'
+    private final PrefixTrie<String> prefixes = new PrefixTrie<>();
+    //其他带通配符的规则
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    MethodMatcher(@Nonnull Collection<String> methodRules) {
+        boolean any = false;
+        for (String rule : methodRules) {
+            final int star = rule.indexOf('*');
+            if (star == -1) {
+                names.add(rule);
+            } else if (star == rule.length() - 1) {
+                if (star == 0) {
+                    any = true;
+                }
+                prefixes.put(rule.substring(0, star), rule);
+            } else {
+                patterns.add(compileGlob(rule));
+            }
+        }
+        this.any = any;
+    }
+
+    public boolean matches(@Nullable String methodName) {
+        if (methodName == null) {
+            return false;
+        }
+        if (any || names.contains(methodName)) {
+            return true;
+        }
+        if (!prefixes.isEmpty() && prefixes.matchesPrefix(methodName)) {
+            return true;
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(methodName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //'*'转为'.*',其他部分按字面匹配,类名里的'$'等字符不会被当成正则
+    @Nonnull
+    static Pattern compileGlob(@Nonnull String glob) {
+        final StringBuilder sb = new StringBuilder(glob.length() + 8);
+        int start = 0;
+        int star;
+        while ((star = glob.indexOf('*', start)) != -1) {
+            if (star > start) {
+                sb.append(Pattern.quote(glob.substring(start, star)));
+            }
+            sb.append(".*");
+            start = star + 1;
+        }
+        if (start < glob.length()) {
+            sb.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,70 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 前缀树,用于'prefix*'这类通配规则,查找时只需沿key走一遍,和规则数量无关.
+ * 构造完成后只读,可以多线程共用
+ */
+class PrefixTrie<T> {
+    private final Node<T> root = new Node<>();
+    private boolean empty = true;
+
+    void put(@Nonnull String prefix, @Nonnull T value) {
+        Node<T> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node<>());
+        }
+        node.values.add(value);
+        empty = false;
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * 收集所有是key前缀的规则对应的值
+     */
+    void collect(@Nonnull String key, @Nonnull Collection<? super T> out) {
+        Node<T> node = root;
+        out.addAll(node.values);
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.get(key.charAt(i));
+            if (node == null) {
+                return;
+            }
+            out.addAll(node.values);
+        }
+    }
+
+    /**
+     * 存在任意一个规则是key的前缀
+     */
+    boolean matchesPrefix(@Nonnull String key) {
+        Node<T> node = root;
+        if (!node.values.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.get(key.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            if (!node.values.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Node<T> {
+        private final Map<Character, Node<T>> children = new HashMap<>(4);
+        private final List<T> values = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,158 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.Method;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 根据方法热度profile排除热点方法,热点方法转为native后每次访问域及调用方法都要经过jni,性能下降很多.
+ * 支持两种格式,可以混在一个文件里:
+ * <pre>
+ * #art baseline profile,H热点,S启动,P启动后;'*'匹配任意字符
+ * HSPLcom/foo/Bar;->baz()V
+ * #方法调用次数
+ * Lcom/foo/Bar;->qux(I)I,12345
+ * </pre>
+ * 只有上游过滤规则接受的方法才会被排除并记录原因
+ */
+public class ProfileFilter extends DelegatingFilter {
+    private final long minCount;
+    private final boolean excludeStartup;
+
+    //方法描述->排除原因
+    private final Map<String, String> methods = new HashMap<>();
+    //带通配符的规则及对应的排除原因
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<String> patternReasons = new ArrayList<>();
+
+    //实际排除的方法,多个dex同时处理
+    private final Map<String, String> excluded = new ConcurrentHashMap<>();
+
+    /**
+     * @param minCount       调用次数不小于它的方法被排除
+     * @param excludeStartup 是否排除baseline profile里标记为启动(S)的方法,热点(H)方法总是排除
+     */
+    public ProfileFilter(@Nullable ClassAndMethodFilter filter,
+                         @Nonnull Reader profile,
+                         long minCount,
+                         boolean excludeStartup) throws IOException {
+        super(filter);
+        this.minCount = minCount;
+        this.excludeStartup = excludeStartup;
+        parse(profile);
+    }
+
+    private void parse(Reader profile) throws IOException {
+        final BufferedReader reader = new BufferedReader(profile);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            final int comment = line.indexOf('#');
+            if (comment != -1) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            final String descriptor;
+            final String reason;
+            final int comma = line.lastIndexOf(',');
+            if (comma != -1) {
+                descriptor = line.substring(0, comma).trim();
+                final long count;
+                try {
+                    count = Long.parseLong(line.substring(comma + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid count at line " + lineNumber + ": " + line);
+                }
+                reason = count >= minCount ? "count=" + count : null;
+            } else {
+                int i = 0;
+                boolean hot = false;
+                boolean startup = false;
+                for (; i < line.length(); i++) {
+                    final char c = line.charAt(i);
+                    if (c == 'H') {
+                        hot = true;
+                    } else if (c == 'S') {
+                        startup = true;
+                    } else if (c != 'P') {
+                        break;
+                    }
+                }
+                descriptor = line.substring(i);
+                reason = hot ? "hot" : (startup && excludeStartup) ? "startup" : null;
+            }
+            //只有类型没有方法的规则只影响类预加载,不处理
+            if (reason == null || !descriptor.contains("->")) {
+                continue;
+            }
+            if (descriptor.indexOf('*') != -1) {
+                patterns.add(MethodMatcher.compileGlob(descriptor));
+                patternReasons.add(reason);
+            } else {
+                methods.putIfAbsent(descriptor, reason);
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptMethod(Method method) {
+        if (!super.acceptMethod(method)) {
+            return false;
+        }
+        final String descriptor = DexFormatter.INSTANCE.getMethodDescriptor(method);
+        final String reason = getExcludeReason(descriptor);
+        if (reason != null) {
+            excluded.put(descriptor, reason);
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private String getExcludeReason(String descriptor) {
+        final String reason = methods.get(descriptor);
+        if (reason != null) {
+            return reason;
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(descriptor).matches()) {
+                return patternReasons.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 因为profile被排除的方法及原因
+     */
+    @Nonnull
+    public SortedMap<String, String> getExcluded() {
+        return new TreeMap<>(excluded);
+    }
+
+    /**
+     * 每行一个被排除的方法,"方法描述 原因"
+     */
+    public void writeReport(@Nonnull Writer writer) throws IOException {
+        for (Map.Entry<String, String> entry : getExcluded().entrySet()) {
+            writer.write(entry.getKey());
+            writer.write(' ');
+            writer.write(entry.getValue());
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
@@ -5,6 +5,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.nmmedit.apkprotect.deobfus.MappingProcessor;
 import com.nmmedit.apkprotect.deobfus.MappingReader;
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.Method;
 import org.jf.dexlib2.iface.reference.MethodReference;
@@ -16,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 读取proguard的mapping.txt文件,根据它得到class和方法名混淆前后映射关系,然后再执行过滤规则
@@ -28,6 +30,9 @@ public class ProguardMappingConfig implements ClassAndMethodFilter, MappingProce
     private final Set<MethodMapping> methodSet = Sets.newHashSet();
     private final HashMultimap<MethodReference, MethodReference> newMethodRefMap = HashMultimap.create();
     private final SimpleRules simpleRules;
+    //acceptClass匹配到的类(混淆后的类型)对应的方法匹配器
+    private final Map<String, MethodMatcher> methodMatchers = new ConcurrentHashMap<>();
+    private volatile ClassHierarchy hierarchy;
 
     public ProguardMappingConfig(ClassAndMethodFilter filter,
                                  MappingReader mappingReader,
@@ -82,12 +87,44 @@ public class ProguardMappingConfig implements ClassAndMethodFilter, MappingProce
             ifacs.add(getOriginClassType(ifac));
         }
 
-        return simpleRules != null && simpleRules.matchClass(
+        if (simpleRules == null) {
+            return false;
+        }
+        //继承关系里是混淆后的类型,需要转换为混淆前的
+        List<String> supertypes = null;
+        final ClassHierarchy hierarchy = this.hierarchy;
+        if (hierarchy != null && simpleRules.hasInstanceofRules()) {
+            supertypes = new ArrayList<>();
+            for (String supertype : hierarchy.getSupertypes(classDef.getType())) {
+                supertypes.add(getOriginClassType(supertype));
+            }
+        }
+        final MethodMatcher matcher = simpleRules.match(
                 oldType,
                 getOriginClassType(classDef.getSuperclass()),
-                ifacs);
+                ifacs,
+                supertypes);
+        if (matcher == null) {
+            return false;
+        }
+        methodMatchers.put(classDef.getType(), matcher);
+        return true;
+    }
+
+
+    @Override
+    public void setClassHierarchy(@Nonnull ClassHierarchy hierarchy) {
+        if (filter != null) {
+            filter.setClassHierarchy(hierarchy);
+        }
+        this.hierarchy = hierarchy;
     }
 
+    @Nonnull
+    @Override
+    public ClassDef rewriteShellClass(@Nonnull ClassDef classDef) {
+        return filter == null ? classDef : filter.rewriteShellClass(classDef);
+    }
 
     private String getOriginClassType(String type) {
         final String oldType = newTypeOldTypeMap.get(type);
@@ -106,6 +143,10 @@ public class ProguardMappingConfig implements ClassAndMethodFilter, MappingProce
         if (oldType == null) {
             return false;
         }
+        final MethodMatcher matcher = methodMatchers.get(method.getDefiningClass());
+        if (matcher == null) {
+            return false;
+        }
         final Set<MethodReference> oldMethodRefSet = newMethodRefMap.get(method);
 
 
@@ -113,7 +154,7 @@ public class ProguardMappingConfig implements ClassAndMethodFilter, MappingProce
 
             for (MethodReference reference : oldMethodRefSet) {
                 if (oldType.equals(reference.getDefiningClass())) {
-                    if (simpleRules != null && simpleRules.matchMethod(reference.getName())) {
+                    if (matcher.matches(reference.getName())) {
                         return true;
                     }
                 }
@@ -121,7 +162,7 @@ public class ProguardMappingConfig implements ClassAndMethodFilter, MappingProce
 
         }
 
-        return simpleRules != null && simpleRules.matchMethod(method.getName());
+        return matcher.matches(method.getName());
     }
 
     private static String classNameToType(String className) {
@@ -1,11 +1,19 @@
 package com.nmmedit.apkprotect.dex2c.filters;
 
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.Method;
 
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class SimpleConvertConfig implements ClassAndMethodFilter {
     private final ClassAndMethodFilter filter;
     private final SimpleRules simpleRule;
+    //acceptClass匹配到的类对应的方法匹配器,多个dex同时处理时可以共用一个实例
+    private final Map<String, MethodMatcher> methodMatchers = new ConcurrentHashMap<>();
+    private volatile ClassHierarchy hierarchy;
 
     public SimpleConvertConfig(ClassAndMethodFilter filter, SimpleRules simpleRules) {
         this.filter = filter;
@@ -17,10 +25,29 @@ public class SimpleConvertConfig implements ClassAndMethodFilter {
         if (filter != null && !filter.acceptClass(classDef)) {
             return false;
         }
-        return simpleRule != null && simpleRule.matchClass(
-                classDef.getType(),
-                classDef.getSuperclass(),
-                classDef.getInterfaces());
+        if (simpleRule == null) {
+            return false;
+        }
+        final MethodMatcher matcher = simpleRule.match(classDef, hierarchy);
+        if (matcher == null) {
+            return false;
+        }
+        methodMatchers.put(classDef.getType(), matcher);
+        return true;
+    }
+
+    @Override
+    public void setClassHierarchy(@Nonnull ClassHierarchy hierarchy) {
+        if (filter != null) {
+            filter.setClassHierarchy(hierarchy);
+        }
+        this.hierarchy = hierarchy;
+    }
+
+    @Nonnull
+    @Override
+    public ClassDef rewriteShellClass(@Nonnull ClassDef classDef) {
+        return filter == null ? classDef : filter.rewriteShellClass(classDef);
     }
 
     @Override
@@ -28,6 +55,7 @@ public class SimpleConvertConfig implements ClassAndMethodFilter {
         if (filter != null && !filter.acceptMethod(method)) {
             return false;
         }
-        return simpleRule != null && simpleRule.matchMethod(method.getName());
+        final MethodMatcher matcher = methodMatchers.get(method.getDefiningClass());
+        return matcher != null && matcher.matches(method.getName());
     }
 }
@@ -1,6 +1,9 @@
 package com.nmmedit.apkprotect.dex2c.filters;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import com.nmmedit.apkprotect.dex2c.converter.ClassHierarchy;
+import org.jf.dexlib2.iface.ClassDef;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -8,9 +11,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * class * extends android.app.Activity
@@ -27,9 +30,13 @@ import java.util.Set;
  * class C extends B {
  * }
  * The rule 'class * extends A' only match B
+ * <p>
+ * class * instanceof A
+ * The rule 'class * instanceof A' match B and C, also match classes that implement interface A
+ * (needs the class hierarchy, otherwise only direct super class and interfaces are checked)
  */
 public class SimpleRules {
-    private final HashMultimap<ClassRule, MethodRule> convertRules = HashMultimap.create();
+    private final LinkedHashMultimap<ClassRule, MethodRule> convertRules = LinkedHashMultimap.create();
 
 
     public SimpleRules() {
@@ -57,14 +64,17 @@ public class SimpleRules {
                     String className = split[1];
                     String supperName = "";
                     String interfaceName = "";
+                    String instanceofName = "";
                     if (length >= 4) {
                         if ("extends".equals(split[2])) {//class * extends A
                             supperName = split[3];
                         } else if ("implements".equals(split[2])) {//class * implements I
                             interfaceName = split[3];
+                        } else if ("instanceof".equals(split[2])) {//class * instanceof A
+                            instanceofName = split[3];
                         }
                     }
-                    classRule = new ClassRule(className, supperName, interfaceName);
+                    classRule = new ClassRule(className, supperName, interfaceName, instanceofName);
                     int mstart;
                     if ((mstart = line.indexOf('{')) != -1) { // my.pkg.A { methodA;methodB;}
                         int mend;
@@ -110,70 +120,223 @@ public class SimpleRules {
                 lineNumb++;
             }
         }
+        compiledRules = null;
     }
 
-    private Set<MethodRule> methodRules;
+    //规则解析完成后编译一次,之后只读
+    private volatile CompiledRules compiledRules;
 
+    /**
+     * 匹配类,返回匹配到的所有类规则的方法匹配器,没有匹配的规则返回null.
+     * 不保存任何状态,同一个实例可以在多个线程同时使用
+     */
+    @Nullable
+    public MethodMatcher match(@Nonnull ClassDef classDef) {
+        return match(classDef, null);
+    }
+
+    /**
+     * @param hierarchy 类继承关系,'instanceof'规则需要
+     */
+    @Nullable
+    public MethodMatcher match(@Nonnull ClassDef classDef, @Nullable ClassHierarchy hierarchy) {
+        final String type = classDef.getType();
+        return match(type, classDef.getSuperclass(), classDef.getInterfaces(),
+                hierarchy != null && hasInstanceofRules() ? hierarchy.getSupertypes(type) : null);
+    }
+
+    @Nullable
+    public MethodMatcher match(@Nonnull String classType, @Nullable String supperType, @Nonnull List<String> ifacTypes) {
+        return match(classType, supperType, ifacTypes, null);
+    }
+
+    /**
+     * @param supertypes 所有直接及间接父类和接口,为null时'instanceof'规则只判断直接父类及接口
+     */
+    @Nullable
+    public MethodMatcher match(@Nonnull String classType, @Nullable String supperType, @Nonnull List<String> ifacTypes,
+                               @Nullable Collection<String> supertypes) {
+        return getCompiledRules().match(classType, supperType, ifacTypes, supertypes);
+    }
+
+    //存在'instanceof'规则时才需要计算所有父类
+    public boolean hasInstanceofRules() {
+        return getCompiledRules().hasInstanceofRules;
+    }
+
+    private CompiledRules getCompiledRules() {
+        CompiledRules rules = compiledRules;
+        if (rules == null) {
+            synchronized (this) {
+                rules = compiledRules;
+                if (rules == null) {
+                    rules = new CompiledRules(convertRules);
+                    compiledRules = rules;
+                }
+            }
+        }
+        return rules;
+    }
+
+    //matchClass得到的方法规则,只给旧接口使用
+    private MethodMatcher lastMatcher;
+
+    /**
+     * @deprecated 依赖上一次调用的结果,不能在多个线程同时使用,使用{@link #match(String, String, List)}
+     */
+    @Deprecated
     public boolean matchClass(@Nonnull String classType, @Nullable String supperType, @Nonnull List<String> ifacTypes) {
-        for (ClassRule rule : convertRules.keySet()) {
-            final String typeRegex = toRegex(classNameToType(rule.className));
-            if (classType.matches(typeRegex)) {// match classType
-                if (!"".equals(rule.supperName)) {//supper name not empty
-                    if (supperType != null) {
-                        final String type = classNameToType(rule.supperName);
-                        if (supperType.equals(type)) {
-                            methodRules = convertRules.get(rule);
-                            return true;
-                        }
-                    }
+        lastMatcher = match(classType, supperType, ifacTypes);
+        return lastMatcher != null;
+    }
+
+    /**
+     * @deprecated 使用{@link MethodMatcher#matches(String)}
+     */
+    @Deprecated
+    public boolean matchMethod(String methodName) {
+        final MethodMatcher matcher = lastMatcher;
+        return matcher != null && matcher.matches(methodName);
+    }
+
+    private static String classNameToType(String className) {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    /**
+     * 预先编译的类规则:没有通配符的放在hash表里,只在结尾有通配符的放在前缀树里,其他的编译成正则.
+     * 一个类可以同时匹配多个规则,方法规则取并集
+     */
+    private static class CompiledRules {
+        private final List<CompiledClassRule> rules = new ArrayList<>();
+        private final Map<String, List<CompiledClassRule>> literalRules = new HashMap<>();
+        private final PrefixTrie<CompiledClassRule> prefixRules = new PrefixTrie<>();
+        private final List<CompiledClassRule> patternRules = new ArrayList<>();
+        //匹配多个规则时合并的方法匹配器,key为规则序号
+        private final Map<List<Integer>, MethodMatcher> unionMatchers = new ConcurrentHashMap<>();
+        private final boolean hasInstanceofRules;
+
+        CompiledRules(Multimap<ClassRule, MethodRule> convertRules) {
+            for (Map.Entry<ClassRule, Collection<MethodRule>> entry : convertRules.asMap().entrySet()) {
+                final ClassRule rule = entry.getKey();
+                final CompiledClassRule compiled = new CompiledClassRule(rules.size(), rule, entry.getValue());
+                rules.add(compiled);
+                final String type = classNameToType(rule.className);
+                final int star = type.indexOf('*');
+                if (star == -1) {
+                    literalRules.computeIfAbsent(type, k -> new ArrayList<>(1)).add(compiled);
+                } else if (star == type.length() - 2) {
+                    //类型以';'结尾,所有类型都满足
+                    prefixRules.put(type.substring(0, star), compiled);
+                } else {
+                    compiled.pattern = MethodMatcher.compileGlob(type);
+                    patternRules.add(compiled);
+                }
+            }
+            boolean hasInstanceofRules = false;
+            for (CompiledClassRule rule : rules) {
+                if (rule.instanceofType != null) {
+                    hasInstanceofRules = true;
+                    break;
+                }
+            }
+            this.hasInstanceofRules = hasInstanceofRules;
+        }
+
+        @Nullable
+        MethodMatcher match(@Nonnull String classType, @Nullable String supperType, @Nonnull List<String> ifacTypes,
+                            @Nullable Collection<String> supertypes) {
+            final List<CompiledClassRule> candidates = new ArrayList<>(4);
+            final List<CompiledClassRule> literal = literalRules.get(classType);
+            if (literal != null) {
+                candidates.addAll(literal);
+            }
+            if (classType.endsWith(";")) {
+                prefixRules.collect(classType.substring(0, classType.length() - 1), candidates);
+            }
+            for (CompiledClassRule rule : patternRules) {
+                if (rule.pattern.matcher(classType).matches()) {
+                    candidates.add(rule);
+                }
+            }
+
+            CompiledClassRule first = null;
+            List<Integer> matched = null;
+            for (CompiledClassRule rule : candidates) {
+                if (!rule.matchSupper(supperType, ifacTypes, supertypes)) {
                     continue;
                 }
-                if (!"".equals(rule.interfaceName)) {//interface name not empty
-                    for (String iface : ifacTypes) {
-                        if (iface.equals(classNameToType(rule.interfaceName))) {
-                            methodRules = convertRules.get(rule);
-                            return true;
-                        }
+                if (first == null) {
+                    first = rule;
+                } else {
+                    if (matched == null) {
+                        matched = new ArrayList<>();
+                        matched.add(first.index);
                     }
-                    continue;
+                    matched.add(rule.index);
                 }
-                methodRules = convertRules.get(rule);
-                return true;
             }
+            if (first == null) {
+                return null;
+            }
+            if (matched == null) {
+                return first.methodMatcher;
+            }
+            Collections.sort(matched);
+            return unionMatchers.computeIfAbsent(matched, this::unionMatcher);
         }
-        methodRules = null;
-        return false;
-    }
 
-    public boolean matchMethod(String methodName) {
-        if (methodRules == null || methodName == null) {
-            return false;
-        }
-        for (MethodRule methodRule : methodRules) {
-            if (methodName.matches(toRegex(methodRule.methodName))) {
-                return true;
+        private MethodMatcher unionMatcher(List<Integer> indexes) {
+            final List<String> methodRules = new ArrayList<>();
+            for (int index : indexes) {
+                methodRules.addAll(rules.get(index).methodRules);
             }
+            return new MethodMatcher(methodRules);
         }
-        return false;
     }
 
-    private static String classNameToType(String className) {
-        return "L" + className.replace('.', '/') + ";";
-    }
+    private static class CompiledClassRule {
+        private final int index;
+        @Nullable
+        private final String supperType;
+        @Nullable
+        private final String interfaceType;
+        @Nullable
+        private final String instanceofType;
+        private final List<String> methodRules = new ArrayList<>();
+        private final MethodMatcher methodMatcher;
+        private Pattern pattern;
+
+        CompiledClassRule(int index, ClassRule rule, Collection<MethodRule> methodRules) {
+            this.index = index;
+            this.supperType = "".equals(rule.supperName) ? null : classNameToType(rule.supperName);
+            this.interfaceType = "".equals(rule.interfaceName) ? null : classNameToType(rule.interfaceName);
+            this.instanceofType = "".equals(rule.instanceofName) ? null : classNameToType(rule.instanceofName);
+            for (MethodRule methodRule : methodRules) {
+                final String name = methodRule.methodName.trim();
+                if (!name.isEmpty()) {
+                    this.methodRules.add(name);
+                }
+            }
+            this.methodMatcher = new MethodMatcher(this.methodRules);
+        }
 
-    @Nonnull
-    private static String toRegex(String s) {
-        final StringBuilder sb = new StringBuilder(s.length() + 3);
-        for (int i = 0; i < s.length(); i++) {
-            final char c = s.charAt(i);
-            switch (c) {
-                case '*':
-                    sb.append('.');
-                default:
-                    sb.append(c);
+        boolean matchSupper(@Nullable String supperType, @Nonnull List<String> ifacTypes,
+                            @Nullable Collection<String> supertypes) {
+            if (this.supperType != null) {
+                return this.supperType.equals(supperType);
+            }
+            if (interfaceType != null) {
+                return ifacTypes.contains(interfaceType);
             }
+            if (instanceofType != null) {
+                if (supertypes != null) {
+                    return supertypes.contains(instanceofType);
+                }
+                return instanceofType.equals(supperType) || ifacTypes.contains(instanceofType);
+            }
+            return true;
         }
-        return sb.toString();
     }
 
     private static class ClassRule {
@@ -185,15 +348,20 @@ public class SimpleRules {
         //interface
         @Nonnull
         private final String interfaceName;
+        //直接或间接父类及接口
+        @Nonnull
+        private final String instanceofName;
 
         public ClassRule(@Nonnull String className) {
-            this(className, "", "");
+            this(className, "", "", "");
         }
 
-        public ClassRule(@Nonnull String className, @Nonnull String supperName, @Nonnull String interfaceName) {
+        public ClassRule(@Nonnull String className, @Nonnull String supperName, @Nonnull String interfaceName,
+                         @Nonnull String instanceofName) {
             this.className = className;
             this.supperName = supperName;
             this.interfaceName = interfaceName;
+            this.instanceofName = instanceofName;
         }
 
         @Override
@@ -205,7 +373,8 @@ public class SimpleRules {
 
             if (!className.equals(classRule.className)) return false;
             if (!supperName.equals(classRule.supperName)) return false;
-            return interfaceName.equals(classRule.interfaceName);
+            if (!interfaceName.equals(classRule.interfaceName)) return false;
+            return instanceofName.equals(classRule.instanceofName);
         }
 
         @Override
@@ -213,6 +382,7 @@ public class SimpleRules {
             int result = className.hashCode();
             result = 31 * result + supperName.hashCode();
             result = 31 * result + interfaceName.hashCode();
+            result = 31 * result + instanceofName.hashCode();
             return result;
         }
     }
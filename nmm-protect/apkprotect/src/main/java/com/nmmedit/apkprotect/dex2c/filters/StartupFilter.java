@@ -0,0 +1,101 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import com.nmmedit.apkprotect.dex2c.converter.MethodCostEstimator;
+import com.nmmedit.apkprotect.dex2c.converter.StartupCallGraph;
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 启动路径上的方法保留为dex代码,不转换,避免增加冷启动时间.
+ * 记录被排除的方法及估算减少的jni调用次数.
+ * <p>
+ * 放在{@link CostBudgetFilter}前面,被排除的方法不会出现在开销报告里
+ */
+public class StartupFilter extends DelegatingFilter {
+    private final int maxDepth;
+    //需要所有dex及manifest,转换前由ApkProtect设置
+    private volatile StartupCallGraph callGraph;
+
+    //方法描述->循环加权后的jni调用次数
+    private final Map<String, Long> excluded = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxDepth 从组件入口方法最多经过几层调用,{@link #setCallGraph(StartupCallGraph)}之前不排除任何方法
+     */
+    public StartupFilter(@Nullable ClassAndMethodFilter filter, int maxDepth) {
+        super(filter);
+        this.maxDepth = maxDepth;
+    }
+
+    public StartupFilter(@Nullable ClassAndMethodFilter filter, @Nonnull StartupCallGraph callGraph) {
+        this(filter, callGraph.getMaxDepth());
+        this.callGraph = callGraph;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setCallGraph(@Nonnull StartupCallGraph callGraph) {
+        this.callGraph = callGraph;
+    }
+
+    @Override
+    public boolean acceptMethod(Method method) {
+        if (!super.acceptMethod(method)) {
+            return false;
+        }
+        final StartupCallGraph callGraph = this.callGraph;
+        if (callGraph == null) {
+            return true;
+        }
+        final String descriptor = DexFormatter.INSTANCE.getMethodDescriptor(method);
+        if (!callGraph.contains(descriptor)) {
+            return true;
+        }
+        if (!excluded.containsKey(descriptor)) {
+            final MethodImplementation implementation = method.getImplementation();
+            excluded.put(descriptor, implementation == null ? 0L
+                    : MethodCostEstimator.estimate(implementation).getCost());
+        }
+        return false;
+    }
+
+    /**
+     * 估算启动时减少的jni调用次数
+     */
+    public long getAvoidedJniCalls() {
+        long total = 0;
+        for (long cost : excluded.values()) {
+            total += cost;
+        }
+        return total;
+    }
+
+    /**
+     * 第一行为汇总,之后每行"调用层数 jni调用次数 方法描述"
+     */
+    public void writeReport(@Nonnull Writer writer) throws IOException {
+        final Map<String, Long> sorted = new TreeMap<>(excluded);
+        final StartupCallGraph callGraph = this.callGraph;
+        if (callGraph == null) {
+            throw new RuntimeException("callGraph == null");
+        }
+        writer.write("#startup methods: " + callGraph.size()
+                + ", excluded: " + sorted.size()
+                + ", estimated jni calls avoided: " + getAvoidedJniCalls() + "\n");
+        for (Map.Entry<String, Long> entry : sorted.entrySet()) {
+            writer.write(callGraph.getDepth(entry.getKey()) + "\t" + entry.getValue() + "\t" + entry.getKey() + "\n");
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,44 @@
+package com.nmmedit.apkprotect.metrics;
+
+/**
+ * 隔离JFR相关类,旧版本jdk8没有jdk.jfr时不会加载{@link StageEvent}
+ */
+final class JfrEvents {
+    static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object begin(String apk, String stage) {
+        final StageEvent event = new StageEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.apk = apk;
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object handle, StageMetrics metrics) {
+        final StageEvent event = (StageEvent) handle;
+        event.end();
+        event.cpuTime = metrics.cpuTimeMillis;
+        event.threadCpuTime = metrics.threadCpuTimeMillis;
+        event.bytesRead = metrics.bytesRead;
+        event.bytesWritten = metrics.bytesWritten;
+        event.classes = metrics.classes;
+        event.methods = metrics.methods;
+        event.peakHeap = metrics.peakHeapBytes;
+        event.commit();
+    }
+}
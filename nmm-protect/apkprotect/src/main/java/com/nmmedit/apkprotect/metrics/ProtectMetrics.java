@@ -0,0 +1,227 @@
+package com.nmmedit.apkprotect.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 统计一次apk保护每个阶段的耗时,cpu时间,读写字节数,转换的类及方法数和最大堆内存,
+ * 结束后可以输出json报告,jvm支持时同时提交JFR事件(com.nmmedit.apkprotect.Stage)
+ * <p>
+ * 线程安全,多个阶段可以在不同线程同时运行(比如多个abi同时编译).
+ * cpu时间及最大堆内存是整个进程的,同时运行的阶段(包括daemon里的其他任务)会互相计入,
+ * 运行阶段的线程自己的cpu时间单独记录
+ */
+public class ProtectMetrics {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    //所有正在运行的阶段,由采样线程更新最大堆内存,没有正在运行的阶段时采样线程退出
+    private static final Set<Stage> ACTIVE_STAGES = ConcurrentHashMap.newKeySet();
+    private static final long SAMPLE_INTERVAL_MILLIS = 10;
+    private static Thread sampler;
+
+    private final String apk;
+    private final long startNanos = System.nanoTime();
+    private final List<StageMetrics> stages = new ArrayList<>();
+    //处理过程中的警告,比如回退到较慢的方式
+    private final List<String> warnings = new ArrayList<>();
+
+    public ProtectMetrics(@Nonnull String apk) {
+        this.apk = apk;
+    }
+
+    /**
+     * 开始一个阶段,调用{@link Stage#close()}结束,可以使用try-with-resources
+     */
+    @Nonnull
+    public Stage stage(@Nonnull String name) {
+        return new Stage(name);
+    }
+
+    @Nonnull
+    public synchronized List<StageMetrics> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    private synchronized void add(StageMetrics metrics) {
+        stages.add(metrics);
+    }
+
+    /**
+     * 记录警告,和各阶段数据一起输出
+     */
+    public synchronized void addWarning(@Nonnull String warning) {
+        warnings.add(warning);
+    }
+
+    @Nonnull
+    public synchronized List<String> getWarnings() {
+        return new ArrayList<>(warnings);
+    }
+
+    public void writeJson(@Nonnull File file) throws IOException {
+        final Report report = new Report();
+        report.apk = apk;
+        report.totalMillis = (System.nanoTime() - startNanos) / 1000000;
+        report.stages = getStages();
+        report.warnings = getWarnings();
+        final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            gson.toJson(report, writer);
+        }
+    }
+
+    //返回-1表示不支持
+    private static long threadCpuNanos() {
+        if (THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+    //返回-1表示不支持
+    private static long processCpuNanos() {
+        if (OS instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long heapUsed() {
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    static synchronized boolean isSampling() {
+        return sampler != null;
+    }
+
+    private static synchronized void startSampler() {
+        if (sampler != null) {
+            return;
+        }
+        sampler = new Thread(() -> {
+            while (true) {
+                synchronized (ProtectMetrics.class) {
+                    if (ACTIVE_STAGES.isEmpty()) {
+                        sampler = null;
+                        return;
+                    }
+                }
+                final long used = heapUsed();
+                for (Stage stage : ACTIVE_STAGES) {
+                    stage.updatePeakHeap(used);
+                }
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    synchronized (ProtectMetrics.class) {
+                        sampler = null;
+                    }
+                    return;
+                }
+            }
+        }, "metrics-heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public class Stage implements Closeable {
+        private final String name;
+        private final long startNanos;
+        private final long startCpuNanos;
+        private final long startThreadCpuNanos;
+        private final Object jfrEvent;
+        private volatile long peakHeapBytes;
+        private long bytesRead;
+        private long bytesWritten;
+        private int classes;
+        private int methods;
+        private boolean closed;
+
+        private Stage(String name) {
+            this.name = name;
+            this.jfrEvent = JfrEvents.AVAILABLE ? JfrEvents.begin(apk, name) : null;
+            this.peakHeapBytes = heapUsed();
+            this.startCpuNanos = processCpuNanos();
+            this.startThreadCpuNanos = threadCpuNanos();
+            this.startNanos = System.nanoTime();
+            //先加入再启动采样线程,采样线程不会在加入前退出
+            ACTIVE_STAGES.add(this);
+            startSampler();
+        }
+
+        public synchronized Stage addBytesRead(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        public synchronized Stage addBytesWritten(long bytes) {
+            bytesWritten += bytes;
+            return this;
+        }
+
+        public synchronized Stage addClasses(int count) {
+            classes += count;
+            return this;
+        }
+
+        public synchronized Stage addMethods(int count) {
+            methods += count;
+            return this;
+        }
+
+        private void updatePeakHeap(long used) {
+            if (used > peakHeapBytes) {
+                peakHeapBytes = used;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            final long endNanos = System.nanoTime();
+            final long endCpuNanos = processCpuNanos();
+            final long endThreadCpuNanos = threadCpuNanos();
+            ACTIVE_STAGES.remove(this);
+            updatePeakHeap(heapUsed());
+
+            final StageMetrics metrics = new StageMetrics(name,
+                    (startNanos - ProtectMetrics.this.startNanos) / 1000000,
+                    (endNanos - startNanos) / 1000000,
+                    startCpuNanos < 0 ? -1 : (endCpuNanos - startCpuNanos) / 1000000,
+                    startThreadCpuNanos < 0 || endThreadCpuNanos < 0 ? -1 : (endThreadCpuNanos - startThreadCpuNanos) / 1000000,
+                    bytesRead, bytesWritten, classes, methods, peakHeapBytes);
+            add(metrics);
+            if (jfrEvent != null) {
+                JfrEvents.commit(jfrEvent, metrics);
+            }
+        }
+    }
+
+    private static class Report {
+        final String note = "cpuTimeMillis and peakHeapBytes are process-wide and include stages running at the same time, "
+                + "threadCpuTimeMillis only counts the thread that ran the stage";
+        String apk;
+        long totalMillis;
+        List<StageMetrics> stages;
+        List<String> warnings;
+    }
+}
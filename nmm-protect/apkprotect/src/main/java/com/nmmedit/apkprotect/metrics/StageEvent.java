@@ -0,0 +1,44 @@
+package com.nmmedit.apkprotect.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * 处理阶段对应的JFR事件,只在{@link JfrEvents#AVAILABLE}为true时使用
+ */
+@Name("com.nmmedit.apkprotect.Stage")
+@Label("Protect Stage")
+@Category("nmmp")
+@StackTrace(false)
+class StageEvent extends Event {
+    @Label("Apk")
+    String apk;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Process CPU Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long cpuTime;
+
+    @Label("Thread CPU Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long threadCpuTime;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Classes")
+    int classes;
+
+    @Label("Methods")
+    int methods;
+
+    @Label("Peak Heap")
+    @DataAmount
+    long peakHeap;
+}
@@ -0,0 +1,35 @@
+package com.nmmedit.apkprotect.metrics;
+
+/**
+ * 一个处理阶段的统计数据,用于输出json报告
+ */
+public class StageMetrics {
+    public final String name;
+    //相对整个任务开始的时间
+    public final long startMillis;
+    public final long wallTimeMillis;
+    //进程cpu时间,包含同时运行的其他线程,不包含cmake等子进程
+    public final long cpuTimeMillis;
+    //运行这个阶段的线程的cpu时间,不包含线程池里的其他线程
+    public final long threadCpuTimeMillis;
+    public final long bytesRead;
+    public final long bytesWritten;
+    public final int classes;
+    public final int methods;
+    //阶段运行期间采样得到的最大堆内存使用
+    public final long peakHeapBytes;
+
+    public StageMetrics(String name, long startMillis, long wallTimeMillis, long cpuTimeMillis, long threadCpuTimeMillis,
+                        long bytesRead, long bytesWritten, int classes, int methods, long peakHeapBytes) {
+        this.name = name;
+        this.startMillis = startMillis;
+        this.wallTimeMillis = wallTimeMillis;
+        this.cpuTimeMillis = cpuTimeMillis;
+        this.threadCpuTimeMillis = threadCpuTimeMillis;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.classes = classes;
+        this.methods = methods;
+        this.peakHeapBytes = peakHeapBytes;
+    }
+}
@@ -0,0 +1,51 @@
+package com.nmmedit.apkprotect.util;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * 可以替换FileWriter,先写入内存,关闭时只有内容和已有文件不一样才写入文件,
+ * 内容没变的文件修改时间不变,增量编译时不会重新编译它
+ */
+public class ChangedFileWriter extends Writer {
+    private final File file;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+    private final Writer writer;
+    private boolean closed;
+
+    public ChangedFileWriter(@Nonnull File file) {
+        //和FileWriter一样使用默认编码
+        this(file, Charset.defaultCharset());
+    }
+
+    public ChangedFileWriter(@Nonnull File file, @Nonnull Charset charset) {
+        this.file = file;
+        this.writer = new OutputStreamWriter(buffer, charset);
+    }
+
+    @Override
+    public void write(@Nonnull char[] cbuf, int off, int len) throws IOException {
+        writer.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(@Nonnull String str, int off, int len) throws IOException {
+        writer.write(str, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.close();
+        FileUtils.writeIfChanged(file, buffer.toByteArray());
+    }
+}
@@ -0,0 +1,54 @@
+package com.nmmedit.apkprotect.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class ConcurrentUtils {
+
+    private ConcurrentUtils() {
+    }
+
+    /**
+     * 等待所有任务完成,按提交顺序返回结果
+     * 任意一个任务失败则取消剩下的任务,同时抛出原本的异常
+     */
+    public static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+        final ArrayList<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(get(future));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    public static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Task interrupted");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
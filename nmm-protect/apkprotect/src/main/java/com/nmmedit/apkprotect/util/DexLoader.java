@@ -0,0 +1,52 @@
+package com.nmmedit.apkprotect.util;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 从文件加载dex
+ * <p>
+ * dexlib2的DexBuffer只能使用byte[],不能直接建立在MappedByteBuffer上,
+ * 所以根据文件大小一次分配好数组,通过FileChannel直接读入,
+ * 避免{@link DexBackedDexFile#fromInputStream}读取时数组不断扩容复制,峰值内存为dex大小的几倍
+ */
+public class DexLoader {
+
+    private DexLoader() {
+    }
+
+    @Nonnull
+    public static DexBackedDexFile load(@Nonnull File dexFile) throws IOException {
+        return load(dexFile, Opcodes.getDefault());
+    }
+
+    @Nonnull
+    public static DexBackedDexFile load(@Nonnull File dexFile, @Nonnull Opcodes opcodes) throws IOException {
+        return new DexBackedDexFile(opcodes, readFully(dexFile));
+    }
+
+    static byte[] readFully(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Dex too large: " + file);
+            }
+            final byte[] data = new byte[(int) size];
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Unexpected end of dex: " + file);
+                }
+            }
+            return data;
+        }
+    }
+}
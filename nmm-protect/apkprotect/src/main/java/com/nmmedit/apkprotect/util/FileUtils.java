@@ -1,14 +1,12 @@
 package com.nmmedit.apkprotect.util;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.CodeSource;
+import java.util.Arrays;
 
 public class FileUtils {
     public static String getWorkPath() {
@@ -38,4 +36,29 @@ public class FileUtils {
             out.write(buf, 0, len);
         }
     }
+
+    /**
+     * 内容不一样才写入文件,保持没有改变的文件修改时间不变
+     *
+     * @return 是否写入了文件
+     */
+    public static boolean writeIfChanged(File file, byte[] content) throws IOException {
+        if (file.length() == content.length && file.isFile()
+                && Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+            return false;
+        }
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(content);
+        }
+        return true;
+    }
+
+    /**
+     * 内容不一样才复制文件
+     */
+    public static boolean copyIfChanged(File from, File to) throws IOException {
+        return writeIfChanged(to, Files.readAllBytes(from.toPath()));
+    }
 }
@@ -0,0 +1,175 @@
+package com.nmmedit.apkprotect.util;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * 只读取zip中央目录,得到每个entry压缩后数据的位置,crc及大小等,
+ * 配合{@link RawZipWriter}可以不解压直接复制entry数据
+ * 不支持zip64,apk一般不会超过4G
+ */
+public class RawZipFile implements Closeable {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIR_SIZE = 22;
+
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawZipFile(@Nonnull File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            entries = Collections.unmodifiableList(readCentralDirectory(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 按中央目录里的顺序返回所有entry
+     */
+    @Nonnull
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    //entry压缩数据在文件中的偏移,需要读取本地文件头才能知道extra长度
+    long getDataOffset(Entry entry) throws IOException {
+        final ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header: " + entry.name);
+        }
+        final int nameLength = header.getShort(26) & 0xFFFF;
+        final int extraLength = header.getShort(28) & 0xFFFF;
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static List<Entry> readCentralDirectory(FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIR_SIZE) {
+            throw new ZipException("Not a zip file");
+        }
+        //结尾注释最长65535,从后往前查找中央目录结束标记
+        final int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_SIZE + 0xFFFF);
+        final ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIR_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIR_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new ZipException("End of central directory not found");
+        }
+        final int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        final long cdSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        final long cdOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (entryCount == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 not supported");
+        }
+        if (cdOffset + cdSize > fileSize) {
+            throw new ZipException("Bad central directory");
+        }
+
+        final ByteBuffer cd = readFully(channel, cdOffset, (int) cdSize);
+        final ArrayList<Entry> entries = new ArrayList<>(entryCount);
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cdSize || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory entry " + i);
+            }
+            final int flags = cd.getShort(pos + 8) & 0xFFFF;
+            final int method = cd.getShort(pos + 10) & 0xFFFF;
+            final int time = cd.getShort(pos + 12) & 0xFFFF;
+            final int date = cd.getShort(pos + 14) & 0xFFFF;
+            final long crc = cd.getInt(pos + 16) & 0xFFFFFFFFL;
+            final long compressedSize = cd.getInt(pos + 20) & 0xFFFFFFFFL;
+            final long size = cd.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLength = cd.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = cd.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = cd.getShort(pos + 32) & 0xFFFF;
+            final long localHeaderOffset = cd.getInt(pos + 42) & 0xFFFFFFFFL;
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 not supported");
+            }
+
+            final byte[] nameBytes = new byte[nameLength];
+            cd.position(pos + CENTRAL_HEADER_SIZE);
+            cd.get(nameBytes);
+            entries.add(new Entry(nameBytes, flags, method, time, date, crc, compressedSize, size, localHeaderOffset));
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+        public final String name;
+        //原始文件名数据,复制时原样写入,不用关心编码
+        final byte[] nameBytes;
+        final int flags;
+        public final int method;
+        final int time;
+        final int date;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        final long localHeaderOffset;
+
+        Entry(byte[] nameBytes, int flags, int method, int time, int date,
+              long crc, long compressedSize, long size, long localHeaderOffset) {
+            //bit 11为1表示文件名为utf-8,否则一般也按utf-8处理
+            this.name = new String(nameBytes, StandardCharsets.UTF_8);
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
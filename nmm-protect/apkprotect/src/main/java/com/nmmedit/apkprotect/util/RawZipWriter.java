@@ -0,0 +1,297 @@
+package com.nmmedit.apkprotect.util;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * 写zip文件,没有改变的entry直接从源zip复制压缩后的数据及crc,不需要解压再压缩,
+ * 只有新增或修改的文件才需要压缩
+ */
+public class RawZipWriter implements Closeable {
+    //bit 3,crc及大小写在数据后面,复制时会写入本地文件头,所以需要去掉
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    //bit 11,文件名为utf-8编码
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private final FileChannel channel;
+    private final ArrayList<CentralRecord> records = new ArrayList<>();
+    private final HashSet<String> names = new HashSet<>();
+    private final byte[] buffer = new byte[64 * 1024];
+    private boolean closed;
+
+    public RawZipWriter(@Nonnull File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * 不解压,直接复制源zip中某个entry的压缩数据
+     */
+    public void copyEntry(@Nonnull RawZipFile source, @Nonnull RawZipFile.Entry entry) throws IOException {
+        checkName(entry.name);
+        final long dataOffset = source.getDataOffset(entry);
+
+        final CentralRecord record = new CentralRecord(entry.nameBytes,
+                entry.flags & ~FLAG_DATA_DESCRIPTOR,
+                entry.method, entry.time, entry.date,
+                entry.crc, entry.compressedSize, entry.size,
+                channel.position());
+        writeLocalHeader(record);
+
+        final FileChannel sourceChannel = source.getChannel();
+        long copied = 0;
+        while (copied < entry.compressedSize) {
+            final long n = sourceChannel.transferTo(dataOffset + copied, entry.compressedSize - copied, channel);
+            if (n <= 0) {
+                throw new ZipException("Unexpected end of entry: " + entry.name);
+            }
+            copied += n;
+        }
+        records.add(record);
+    }
+
+    /**
+     * 添加文件,使用deflate压缩
+     */
+    public void putFile(@Nonnull String name, @Nonnull File file) throws IOException {
+        putFile(name, file, ZipEntry.DEFLATED);
+    }
+
+    /**
+     * 添加文件
+     *
+     * @param method {@link ZipEntry#DEFLATED} 或 {@link ZipEntry#STORED}
+     */
+    public void putFile(@Nonnull String name, @Nonnull File file, int method) throws IOException {
+        if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+            throw new ZipException("Unsupported compression method " + method);
+        }
+        checkName(name);
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final int flags = isAscii(name) ? 0 : FLAG_UTF8;
+        final int dosTime = javaToDosTime(System.currentTimeMillis());
+
+        //crc及大小在写入数据后才知道,先写入文件头,之后再回填
+        final long headerOffset = channel.position();
+        final CentralRecord record = new CentralRecord(nameBytes, flags, method,
+                dosTime & 0xFFFF, dosTime >>> 16,
+                0, 0, 0, headerOffset);
+        writeLocalHeader(record);
+
+        final long dataStart = channel.position();
+        final CRC32 crc32 = new CRC32();
+        long size = 0;
+        try (InputStream input = new FileInputStream(file)) {
+            if (method == ZipEntry.STORED) {
+                int len;
+                while ((len = input.read(buffer)) != -1) {
+                    crc32.update(buffer, 0, len);
+                    writeFully(ByteBuffer.wrap(buffer, 0, len));
+                    size += len;
+                }
+            } else {
+                final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try {
+                    final byte[] out = new byte[buffer.length];
+                    int len;
+                    while ((len = input.read(buffer)) != -1) {
+                        crc32.update(buffer, 0, len);
+                        size += len;
+                        deflater.setInput(buffer, 0, len);
+                        while (!deflater.needsInput()) {
+                            final int n = deflater.deflate(out);
+                            writeFully(ByteBuffer.wrap(out, 0, n));
+                        }
+                    }
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        final int n = deflater.deflate(out);
+                        writeFully(ByteBuffer.wrap(out, 0, n));
+                    }
+                } finally {
+                    deflater.end();
+                }
+            }
+        }
+        final long compressedSize = channel.position() - dataStart;
+        if (size >= 0xFFFFFFFFL || compressedSize >= 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 not supported: " + name);
+        }
+        record.crc = crc32.getValue();
+        record.compressedSize = compressedSize;
+        record.size = size;
+
+        //回填crc及大小
+        final ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        sizes.putInt((int) record.crc);
+        sizes.putInt((int) record.compressedSize);
+        sizes.putInt((int) record.size);
+        sizes.flip();
+        while (sizes.hasRemaining()) {
+            channel.write(sizes, headerOffset + 14 + sizes.position());
+        }
+        records.add(record);
+    }
+
+    private void checkName(String name) throws ZipException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(RawZipFile.LOCAL_HEADER_SIZE + record.nameBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(RawZipFile.LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) versionNeeded(record.method));
+        header.putShort((short) record.flags);
+        header.putShort((short) record.method);
+        header.putShort((short) record.time);
+        header.putShort((short) record.date);
+        header.putInt((int) record.crc);
+        header.putInt((int) record.compressedSize);
+        header.putInt((int) record.size);
+        header.putShort((short) record.nameBytes.length);
+        //不写入extra
+        header.putShort((short) 0);
+        header.put(record.nameBytes);
+        header.flip();
+        writeFully(header);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        if (records.size() >= 0xFFFF) {
+            throw new ZipException("Zip64 not supported: too many entries");
+        }
+        final long cdOffset = channel.position();
+        for (CentralRecord record : records) {
+            if (record.localHeaderOffset >= 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 not supported: zip too large");
+            }
+            final ByteBuffer header = ByteBuffer.allocate(RawZipFile.CENTRAL_HEADER_SIZE + record.nameBytes.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(RawZipFile.CENTRAL_HEADER_SIGNATURE);
+            header.putShort((short) 20);
+            header.putShort((short) versionNeeded(record.method));
+            header.putShort((short) record.flags);
+            header.putShort((short) record.method);
+            header.putShort((short) record.time);
+            header.putShort((short) record.date);
+            header.putInt((int) record.crc);
+            header.putInt((int) record.compressedSize);
+            header.putInt((int) record.size);
+            header.putShort((short) record.nameBytes.length);
+            //extra, comment, disk number, internal attributes, external attributes
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) record.localHeaderOffset);
+            header.put(record.nameBytes);
+            header.flip();
+            writeFully(header);
+        }
+        final long cdSize = channel.position() - cdOffset;
+        if (cdOffset >= 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 not supported: zip too large");
+        }
+
+        final ByteBuffer eocd = ByteBuffer.allocate(RawZipFile.END_OF_CENTRAL_DIR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.putInt(RawZipFile.END_OF_CENTRAL_DIR_SIGNATURE);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) records.size());
+        eocd.putShort((short) records.size());
+        eocd.putInt((int) cdSize);
+        eocd.putInt((int) cdOffset);
+        eocd.putShort((short) 0);
+        eocd.flip();
+        writeFully(eocd);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int versionNeeded(int method) {
+        return method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //高16位为日期,低16位为时间
+    private static int javaToDosTime(long time) {
+        final Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        final int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (c.get(Calendar.MONTH) + 1) << 21
+                | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11
+                | c.get(Calendar.MINUTE) << 5
+                | c.get(Calendar.SECOND) >> 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeCentralDirectory();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static class CentralRecord {
+        final byte[] nameBytes;
+        final int flags;
+        final int method;
+        final int time;
+        final int date;
+        long crc;
+        long compressedSize;
+        long size;
+        final long localHeaderOffset;
+
+        CentralRecord(byte[] nameBytes, int flags, int method, int time, int date,
+                      long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+}
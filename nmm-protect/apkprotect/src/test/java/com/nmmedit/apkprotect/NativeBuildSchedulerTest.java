@@ -0,0 +1,36 @@
+package com.nmmedit.apkprotect;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+public class NativeBuildSchedulerTest extends TestCase {
+
+    public void testJobsForAbi() {
+        final NativeBuildScheduler scheduler = new NativeBuildScheduler(10);
+        //余数分给前面的abi
+        assertEquals(3, scheduler.jobsForAbi(0, 4));
+        assertEquals(3, scheduler.jobsForAbi(1, 4));
+        assertEquals(2, scheduler.jobsForAbi(2, 4));
+        assertEquals(2, scheduler.jobsForAbi(3, 4));
+        assertEquals(10, scheduler.jobsForAbi(0, 1));
+    }
+
+    public void testMoreAbisThanJobs() {
+        //同时只编译两个abi,每个一个任务,总数不超过上限
+        final NativeBuildScheduler scheduler = new NativeBuildScheduler(2);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1, scheduler.jobsForAbi(i, 4));
+        }
+    }
+
+    public void testAcquireJobs() throws IOException {
+        final NativeBuildScheduler scheduler = new NativeBuildScheduler(4);
+        //其他任务占用了部分任务数时只拿到剩余的
+        assertEquals(3, scheduler.acquireJobs(3));
+        assertEquals(1, scheduler.acquireJobs(3));
+        scheduler.releaseJobs(3);
+        assertEquals(2, scheduler.acquireJobs(2));
+        assertEquals(1, scheduler.acquireJobs(4));
+    }
+}
@@ -7,6 +7,7 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 
 public class AxmlEditTest extends TestCase {
 
@@ -19,4 +20,10 @@ public class AxmlEditTest extends TestCase {
         Files.write(newData, to);
 
     }
-}
\ No newline at end of file
+
+    public void testStartupComponents() throws IOException {
+        final byte[] bytes = ByteStreams.toByteArray(getClass().getResourceAsStream("/binManifest.xml"));
+        //没有自定义application及provider,只有启动activity
+        assertEquals(Collections.singletonList("com.signs.yowal.MainActivity"), AxmlEdit.getStartupComponents(bytes));
+    }
+}
@@ -0,0 +1,117 @@
+package com.nmmedit.apkprotect.dex2c;
+
+import com.nmmedit.apkprotect.dex2c.converter.MethodCostEstimator;
+import com.nmmedit.apkprotect.dex2c.converter.StartupCallGraph;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.filters.BasicKeepConfig;
+import com.nmmedit.apkprotect.dex2c.filters.ClassAndMethodFilter;
+import com.nmmedit.apkprotect.dex2c.filters.CostBudgetFilter;
+import com.nmmedit.apkprotect.dex2c.filters.ProfileFilter;
+import com.nmmedit.apkprotect.dex2c.filters.StartupFilter;
+import junit.framework.TestCase;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+public class DexConvertCacheTest extends TestCase {
+
+    //命中缓存时没有转换dex,过滤规则的记录也要完整
+    public void testFilterReportOnCacheHit() throws IOException {
+        final ProfileFilter convert = newProfileFilter();
+        final ProfileFilter cached = newProfileFilter();
+        convertTwice(convert, cached);
+
+        assertFalse(convert.getExcluded().isEmpty());
+        assertEquals(convert.getExcluded(), cached.getExcluded());
+    }
+
+    public void testCostReportOnCacheHit() throws IOException {
+        final CostBudgetFilter convert = new CostBudgetFilter(new BasicKeepConfig(), 100);
+        final CostBudgetFilter cached = new CostBudgetFilter(new BasicKeepConfig(), 100);
+        convertTwice(convert, cached);
+
+        assertFalse(convert.getRankedCosts().isEmpty());
+        assertEquals(report(convert), report(cached));
+    }
+
+    public void testStartupReportOnCacheHit() throws IOException {
+        final StartupCallGraph callGraph = StartupCallGraph.build(Collections.singletonList(loadDex()),
+                Collections.singletonList("Ltests/myinstanceof/ImplBSub;"), 2);
+        //启动路径上只有构造及静态初始化方法,不使用BasicKeepConfig
+        final StartupFilter convert = new StartupFilter(null, callGraph);
+        final StartupFilter cached = new StartupFilter(null, callGraph);
+        convertTwice(convert, cached);
+
+        assertTrue(convert.getAvoidedJniCalls() > 0);
+        assertEquals(convert.getAvoidedJniCalls(), cached.getAvoidedJniCalls());
+        assertEquals(report(convert), report(cached));
+    }
+
+    public void testStartupBeforeCostReport() throws IOException {
+        final StartupCallGraph callGraph = StartupCallGraph.build(Collections.singletonList(loadDex()),
+                Collections.singletonList("Ltests/myinstanceof/ImplBSub;"), 2);
+        final CostBudgetFilter convert = new CostBudgetFilter(new StartupFilter(null, callGraph), Long.MAX_VALUE);
+        final CostBudgetFilter cached = new CostBudgetFilter(new StartupFilter(null, callGraph), Long.MAX_VALUE);
+        convertTwice(convert, cached);
+
+        //启动路径上的方法不在开销报告里
+        assertFalse(convert.getRankedCosts().isEmpty());
+        for (Map.Entry<String, MethodCostEstimator.MethodCost> entry : convert.getRankedCosts()) {
+            assertFalse(entry.getKey(), callGraph.contains(entry.getKey()));
+        }
+        assertEquals(report(convert), report(cached));
+    }
+
+    //第一次转换并写入缓存,第二次命中缓存
+    private static void convertTwice(ClassAndMethodFilter convert, ClassAndMethodFilter cached) throws IOException {
+        final File dir = Files.createTempDirectory("convert_cache").toFile();
+        final File dexFile = new File(dir, "classes2.dex");
+        try (InputStream input = DexConvertCacheTest.class.getResourceAsStream("/classes2.dex")) {
+            Files.copy(input, dexFile.toPath());
+        }
+        final InstructionRewriter rewriter = new RandomInstructionRewriter(0);
+        final DexConvertOptions options = new DexConvertOptions.Builder()
+                .setCache(new DexConvertCache(new File(dir, "cache"), rewriter))
+                .build();
+        Dex2c.handleDex(dexFile, convert, rewriter, newDir(dir, "out1"), options);
+        Dex2c.handleDex(dexFile, cached, rewriter, newDir(dir, "out2"), options);
+    }
+
+    private static String report(CostBudgetFilter filter) throws IOException {
+        final StringWriter writer = new StringWriter();
+        filter.writeReport(writer);
+        return writer.toString();
+    }
+
+    private static String report(StartupFilter filter) throws IOException {
+        final StringWriter writer = new StringWriter();
+        filter.writeReport(writer);
+        return writer.toString();
+    }
+
+    private static DexBackedDexFile loadDex() throws IOException {
+        try (InputStream input = DexConvertCacheTest.class.getResourceAsStream("/classes2.dex")) {
+            return DexBackedDexFile.fromInputStream(Opcodes.getDefault(), new BufferedInputStream(input));
+        }
+    }
+
+    private static File newDir(File parent, String name) {
+        final File dir = new File(parent, name);
+        assertTrue(dir.mkdirs());
+        return dir;
+    }
+
+    private static ProfileFilter newProfileFilter() throws IOException {
+        return new ProfileFilter(new BasicKeepConfig(), new StringReader("HL*;->*\n"), 1000, true);
+    }
+}
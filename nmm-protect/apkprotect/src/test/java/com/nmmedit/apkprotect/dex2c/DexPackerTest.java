@@ -0,0 +1,59 @@
+package com.nmmedit.apkprotect.dex2c;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DexPackerTest extends TestCase {
+
+    public void testPack() throws IOException {
+        final DexBackedDexFile dexFile = DexBackedDexFile.fromInputStream(Opcodes.getDefault(),
+                new BufferedInputStream(DexPackerTest.class.getResourceAsStream("/classes2.dex")));
+        final List<DexBackedClassDef> classes = new ArrayList<>(dexFile.getClasses());
+        //上限设小一点,测试分成多个dex
+        final int maxPoolSize = 300;
+        final DexPacker packer = new DexPacker(maxPoolSize);
+        final ClassDef mainClass = classes.get(classes.size() - 1);
+        packer.addMainClass(mainClass);
+        for (ClassDef classDef : classes.subList(0, classes.size() - 1)) {
+            packer.addClass(classDef);
+        }
+        final List<List<ClassDef>> partitions = packer.pack();
+
+        assertTrue(partitions.size() > 1);
+        assertSame(mainClass, partitions.get(0).get(0));
+        final Set<String> types = new HashSet<>();
+        for (List<ClassDef> partition : partitions) {
+            final DexPool dexPool = new DexPool(Opcodes.getDefault());
+            for (ClassDef classDef : partition) {
+                assertTrue(types.add(classDef.getType()));
+                dexPool.internClass(classDef);
+            }
+            assertFalse(dexPool.hasOverflowed(maxPoolSize));
+        }
+        assertEquals(classes.size(), types.size());
+
+        //不会比逐个加入直到溢出的方式多
+        int greedy = 1;
+        DexPool dexPool = new DexPool(Opcodes.getDefault());
+        dexPool.internClass(mainClass);
+        for (ClassDef classDef : classes.subList(0, classes.size() - 1)) {
+            dexPool.internClass(classDef);
+            if (dexPool.hasOverflowed(maxPoolSize)) {
+                greedy++;
+                dexPool = new DexPool(Opcodes.getDefault());
+            }
+        }
+        assertTrue(partitions.size() + " > " + greedy, partitions.size() <= greedy);
+    }
+}
@@ -0,0 +1,60 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.util.ModifiedUtf8;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class CSourceWriterTest extends TestCase {
+
+    //输出需要和原来的String.format完全一样
+    public void testSameAsFormat() throws IOException {
+        final StringWriter out = new StringWriter();
+        final StringBuilder expected = new StringBuilder();
+        //缓冲区设小一点,测试多次flush
+        try (CSourceWriter writer = new CSourceWriter(out, 64)) {
+            for (int i = -300; i < 300; i++) {
+                writer.writeHex2(i);
+                expected.append(String.format("0x%02x", i & 0xFF));
+            }
+            final long[] values = {0, 1, 0xf, 0xfff, 0xffff, 0x10000, 0x7fffffffL, 0xffffffffL};
+            for (long value : values) {
+                writer.writeHex4(value);
+                writer.writeInt(value);
+                writer.writeInt(-value);
+                expected.append(String.format("0x%04x", value))
+                        .append(String.format("%d", value))
+                        .append(String.format("%d", -value));
+            }
+            writer.writeInt(Long.MIN_VALUE);
+            expected.append(Long.MIN_VALUE);
+
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                sb.append("line ").append(i).append('\n');
+            }
+            writer.append(sb);
+            expected.append(sb);
+        }
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    public void testModifiedUtf8() throws IOException {
+        final String[] strings = {"", "Ljava/lang/String;", "a\u0000b", "中文", "😀"};
+        for (String str : strings) {
+            final StringWriter out = new StringWriter();
+            final int length;
+            try (CSourceWriter writer = new CSourceWriter(out)) {
+                length = writer.writeModifiedUtf8Bytes(str);
+            }
+            final byte[] bytes = ModifiedUtf8.encode(str);
+            final StringBuilder expected = new StringBuilder();
+            for (byte b : bytes) {
+                expected.append(String.format("0x%02x,", b & 0xFF));
+            }
+            assertEquals(bytes.length, length);
+            assertEquals(expected.toString(), out.toString());
+        }
+    }
+}
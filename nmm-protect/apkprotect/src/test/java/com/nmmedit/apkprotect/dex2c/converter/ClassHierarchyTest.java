@@ -0,0 +1,143 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.dex2c.filters.MethodMatcher;
+import com.nmmedit.apkprotect.dex2c.filters.SimpleRules;
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ClassHierarchyTest extends TestCase {
+
+    //两个dex,接口及父类在另一个dex里
+    private static ClassHierarchy newHierarchy() {
+        return new ClassHierarchy(Arrays.asList(newHierarchyDex1(),
+                newHierarchyDex2(interfaceDef("La/I;", Collections.emptyList(), "CONST"))));
+    }
+
+    private static ImmutableDexFile newHierarchyDex1() {
+        return new ImmutableDexFile(Opcodes.getDefault(), Arrays.asList(
+                classDef("La/A;", "Landroid/app/Activity;"),
+                classDef("La/C;", "La/B;"),
+                interfaceDef("La/J;", Collections.singletonList("La/I;"), "VALUE")
+        ));
+    }
+
+    private static ImmutableDexFile newHierarchyDex2(ImmutableClassDef interfaceI) {
+        return new ImmutableDexFile(Opcodes.getDefault(), Arrays.asList(
+                classDef("La/B;", "La/A;", "La/J;"),
+                interfaceI,
+                //重复的类使用前面dex里的
+                classDef("La/C;", "Ljava/lang/Object;")
+        ));
+    }
+
+    private static DexBackedDexFile toDexBacked(ImmutableDexFile dexFile) throws IOException {
+        final DexPool dexPool = new DexPool(Opcodes.getDefault());
+        for (ClassDef classDef : dexFile.getClasses()) {
+            dexPool.internClass(classDef);
+        }
+        final MemoryDataStore dataStore = new MemoryDataStore();
+        dexPool.writeTo(dataStore);
+        return new DexBackedDexFile(Opcodes.getDefault(), dataStore.getData());
+    }
+
+    public void testSupertypes() {
+        final ClassHierarchy hierarchy = newHierarchy();
+        assertEquals(5, hierarchy.size());
+        assertEquals(Arrays.asList("La/B;", "La/A;", "Landroid/app/Activity;"), hierarchy.getSuperclasses("La/C;"));
+        assertSame(hierarchy.getSuperclasses("La/C;"), hierarchy.getSuperclasses("La/C;"));
+        assertEquals(Arrays.asList("La/J;", "La/I;"), Arrays.asList(hierarchy.getInterfaces("La/C;").toArray()));
+        assertTrue(hierarchy.isSubtypeOf("La/C;", "Landroid/app/Activity;"));
+        assertTrue(hierarchy.isSubtypeOf("La/B;", "La/I;"));
+        assertFalse(hierarchy.isSubtypeOf("La/A;", "La/I;"));
+        assertTrue(hierarchy.getSuperclasses("Lnot/Exists;").isEmpty());
+
+        assertEquals(Collections.singletonList("La/B;"), hierarchy.getDirectSubclasses("La/A;"));
+        assertEquals(Arrays.asList("La/B;", "La/C;"), Arrays.asList(hierarchy.getSubclasses("La/A;").toArray()));
+    }
+
+    public void testStaticField() {
+        final ClassAnalyzer analyzer = new ClassAnalyzer(newHierarchy());
+        //通过子类访问接口里的静态域
+        final FieldReference ref = analyzer.getDirectFieldRef(
+                new ImmutableFieldReference("La/B;", "CONST", "I"));
+        assertNotNull(ref);
+        assertEquals("La/I;", ref.getDefiningClass());
+        assertEquals("La/J;", analyzer.getDirectFieldRef(
+                new ImmutableFieldReference("La/J;", "VALUE", "I")).getDefiningClass());
+        assertNull(analyzer.getDirectFieldRef(new ImmutableFieldReference("La/B;", "CONST", "J")));
+        assertNull(analyzer.getDirectFieldRef(new ImmutableFieldReference("Lnot/Exists;", "CONST", "I")));
+    }
+
+    public void testFingerprint() throws IOException {
+        final DexBackedDexFile dex = toDexBacked(new ImmutableDexFile(Opcodes.getDefault(),
+                Collections.singletonList(classDef("La/C;", "La/B;"))));
+        final String fingerprint = newHierarchy().getFingerprint(dex);
+        assertEquals(fingerprint, newHierarchy().getFingerprint(dex));
+
+        //增加无关的类不影响
+        final ClassHierarchy unrelated = new ClassHierarchy(Arrays.asList(
+                newHierarchyDex1(),
+                new ImmutableDexFile(Opcodes.getDefault(), Collections.singletonList(classDef("La/X;", "La/A;"))),
+                newHierarchyDex2(interfaceDef("La/I;", Collections.emptyList(), "CONST"))));
+        assertEquals(fingerprint, unrelated.getFingerprint(dex));
+
+        //父类实现的接口里静态域改变
+        final ClassHierarchy fieldChanged = new ClassHierarchy(Arrays.asList(
+                newHierarchyDex1(),
+                newHierarchyDex2(interfaceDef("La/I;", Collections.emptyList(), "OTHER"))));
+        assertFalse(fingerprint.equals(fieldChanged.getFingerprint(dex)));
+
+        //只有父类不同
+        final ClassHierarchy base = new ClassHierarchy(Collections.singletonList(new ImmutableDexFile(
+                Opcodes.getDefault(), Collections.singletonList(classDef("La/A;", "Landroid/app/Activity;")))));
+        final ClassHierarchy changed = new ClassHierarchy(Collections.singletonList(new ImmutableDexFile(
+                Opcodes.getDefault(), Collections.singletonList(classDef("La/A;", "Ljava/lang/Object;")))));
+        final DexBackedDexFile dexA = toDexBacked(new ImmutableDexFile(Opcodes.getDefault(),
+                Collections.singletonList(classDef("La/A;", "Landroid/app/Activity;"))));
+        assertFalse(base.getFingerprint(dexA).equals(changed.getFingerprint(dexA)));
+    }
+
+    public void testInstanceofRule() throws IOException {
+        final SimpleRules rules = new SimpleRules();
+        rules.parse(new StringReader("class * instanceof android.app.Activity { on*; }"));
+        final ClassHierarchy hierarchy = newHierarchy();
+        final ClassDef classC = classDef("La/C;", "La/B;");
+
+        //没有继承关系时只判断直接父类
+        assertNull(rules.match(classC));
+        final MethodMatcher matcher = rules.match(classC, hierarchy);
+        assertNotNull(matcher);
+        assertTrue(matcher.matches("onCreate"));
+        assertNotNull(rules.match(classDef("La/A;", "Landroid/app/Activity;")));
+    }
+
+    private static ImmutableClassDef classDef(String type, String superclass, String... interfaces) {
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, Arrays.asList(interfaces),
+                null, null, null, null);
+    }
+
+    private static ImmutableClassDef interfaceDef(String type, List<String> interfaces, String fieldName) {
+        final int flags = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue() | AccessFlags.FINAL.getValue();
+        return new ImmutableClassDef(type,
+                AccessFlags.PUBLIC.getValue() | AccessFlags.INTERFACE.getValue() | AccessFlags.ABSTRACT.getValue(),
+                "Ljava/lang/Object;", interfaces, null, null,
+                Collections.singletonList(new ImmutableField(type, fieldName, "I", flags, null, null, null)),
+                null);
+    }
+}
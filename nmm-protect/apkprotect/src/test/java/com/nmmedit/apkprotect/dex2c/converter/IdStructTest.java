@@ -0,0 +1,40 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class IdStructTest extends TestCase {
+
+    public void testLayout() {
+        final IdStruct small = new IdStruct("FieldId")
+                .field("classIdx", 100)
+                .field("nameIdx", 0x10000)
+                .field("typeIdx", 10);
+        assertEquals("typedef struct {\n    u2 classIdx;\n    u2 nameIdx;\n    u2 typeIdx;\n} FieldId;\n", small.typedef());
+        assertEquals(6, small.size());
+
+        //u4字段需要4字节对齐,结构体大小也对齐到4
+        final IdStruct wide = new IdStruct("FieldId")
+                .field("classIdx", 100)
+                .field("nameIdx", 0x10001)
+                .field("typeIdx", 10);
+        assertEquals("typedef struct {\n    u2 classIdx;\n    u4 nameIdx;\n    u2 typeIdx;\n} FieldId;\n", wide.typedef());
+        assertEquals(12, wide.size());
+
+        final DataBlob blob = new DataBlob("data");
+        wide.write(blob, 1, 0x10000, 2);
+        assertEquals(wide.size(), blob.size());
+        assertTrue(Arrays.equals(new byte[]{1, 0, 0, 0, 0, 0, 1, 0, 2, 0, 0, 0}, blob.toByteArray()));
+    }
+
+    public void testOverflow() {
+        final IdStruct struct = new IdStruct("MethodId")
+                .field("classIdx", 0x10000);
+        try {
+            struct.write(new DataBlob("data"), 0x10000);
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+    }
+}
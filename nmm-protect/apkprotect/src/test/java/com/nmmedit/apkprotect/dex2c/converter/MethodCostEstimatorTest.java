@@ -0,0 +1,40 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import com.nmmedit.apkprotect.dex2c.converter.MethodCostEstimator.MethodCost;
+import junit.framework.TestCase;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.*;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MethodCostEstimatorTest extends TestCase {
+
+    public void testLoop() {
+        final List<Instruction> instructions = Arrays.asList(
+                //0
+                new ImmutableInstruction11n(Opcode.CONST_4, 0, 0),
+                //1 循环开始
+                new ImmutableInstruction22c(Opcode.IGET, 1, 2,
+                        new ImmutableFieldReference("La/A;", "count", "I")),
+                //3
+                new ImmutableInstruction22b(Opcode.ADD_INT_LIT8, 0, 0, 1),
+                //5 跳回1
+                new ImmutableInstruction22t(Opcode.IF_LT, 0, 1, -4),
+                //7 循环外
+                new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                        new ImmutableMethodReference("La/A;", "done", Collections.emptyList(), "V")),
+                new ImmutableInstruction10x(Opcode.RETURN_VOID)
+        );
+        final MethodCost cost = MethodCostEstimator.estimate(
+                new ImmutableMethodImplementation(3, instructions, null, null));
+        assertEquals(3, cost.getJniCalls());
+        assertEquals(1, cost.getLoops());
+        assertEquals(MethodCostEstimator.LOOP_WEIGHT + 2, cost.getCost());
+    }
+}
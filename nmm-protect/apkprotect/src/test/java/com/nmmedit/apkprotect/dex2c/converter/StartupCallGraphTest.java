@@ -0,0 +1,78 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class StartupCallGraphTest extends TestCase {
+
+    public void testDepth() {
+        final ImmutableDexFile dex = new ImmutableDexFile(Opcodes.getDefault(), Arrays.asList(
+                classDef("La/App;", "Landroid/app/Application;",
+                        method("La/App;", "onCreate", invokeStatic("La/Util;", "init")),
+                        method("La/App;", "unused", invokeStatic("La/Other;", "run"))),
+                //方法定义在父类
+                classDef("La/Util;", "La/BaseUtil;"),
+                classDef("La/BaseUtil;", "Ljava/lang/Object;",
+                        method("La/BaseUtil;", "init", invokeStatic("La/Deep;", "work"),
+                                new ImmutableInstruction21c(Opcode.SGET, 0, new ImmutableFieldReference("La/Conf;", "X", "I")))),
+                classDef("La/Deep;", "Ljava/lang/Object;", method("La/Deep;", "work")),
+                classDef("La/Conf;", "Ljava/lang/Object;", method("La/Conf;", "<clinit>")),
+                classDef("La/Other;", "Ljava/lang/Object;", method("La/Other;", "run"))
+        ));
+
+        final StartupCallGraph shallow = StartupCallGraph.build(Collections.singletonList(dex),
+                Collections.singletonList("La/App;"), 1);
+        assertEquals(Arrays.asList("La/App;->onCreate()V", "La/BaseUtil;->init()V"),
+                new ArrayList<>(shallow.getMethods()));
+
+        final StartupCallGraph graph = StartupCallGraph.build(Collections.singletonList(dex),
+                Collections.singletonList("La/App;"), 3);
+        assertEquals(4, graph.size());
+        assertEquals(0, graph.getDepth("La/App;->onCreate()V"));
+        assertEquals(2, graph.getDepth("La/Deep;->work()V"));
+        //访问静态域触发静态初始化
+        assertEquals(2, graph.getDepth("La/Conf;-><clinit>()V"));
+        assertFalse(graph.contains("La/Other;->run()V"));
+        assertFalse(shallow.getFingerprint(dex).equals(graph.getFingerprint(dex)));
+        //只和dex里的类的启动方法相关
+        final ImmutableDexFile other = new ImmutableDexFile(Opcodes.getDefault(), Collections.singletonList(
+                classDef("La/Other;", "Ljava/lang/Object;", method("La/Other;", "run"))));
+        assertEquals(shallow.getFingerprint(other), graph.getFingerprint(other));
+        assertEquals(3, graph.getMaxDepth());
+    }
+
+    private static Instruction invokeStatic(String type, String name) {
+        return new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                new ImmutableMethodReference(type, name, Collections.emptyList(), "V"));
+    }
+
+    private static ImmutableMethod method(String type, String name, Instruction... instructions) {
+        final List<Instruction> code = new ArrayList<>(Arrays.asList(instructions));
+        code.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        return new ImmutableMethod(type, name, null, "V",
+                AccessFlags.PUBLIC.getValue() | (name.equals("<clinit>") ? AccessFlags.STATIC.getValue() | AccessFlags.CONSTRUCTOR.getValue() : 0),
+                null, null, new ImmutableMethodImplementation(1, code, null, null));
+    }
+
+    private static ImmutableClassDef classDef(String type, String superclass, ImmutableMethod... methods) {
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, null,
+                null, null, null, Arrays.asList(methods));
+    }
+}
@@ -0,0 +1,54 @@
+package com.nmmedit.apkprotect.dex2c.converter;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class StringTableTest extends TestCase {
+
+    public void testIntern() {
+        final StringTable table = new StringTable();
+        final List<String> strings = new ArrayList<>();
+        final Random random = new Random(0);
+        //超过初始容量,触发扩容
+        for (int i = 0; i < 5000; i++) {
+            strings.add("Lcom/test/C" + random.nextInt(3000) + ";");
+        }
+        strings.add("");
+        strings.add("中文");
+        for (String str : strings) {
+            final int id = table.intern(str);
+            assertEquals(id, table.intern(new StringBuilder(str)));
+            assertEquals(str, table.get(id));
+        }
+        assertEquals(new HashSet<>(strings).size(), table.size());
+        assertEquals(-1, table.indexOf("Lnot/Exists;"));
+
+        //排序结果和String.compareTo一致
+        final int[] ranks = table.ranks();
+        final String[] sorted = new String[table.size()];
+        for (int id = 0; id < table.size(); id++) {
+            sorted[ranks[id]] = table.get(id);
+        }
+        final List<String> expected = new ArrayList<>(new HashSet<>(strings));
+        Collections.sort(expected);
+        assertEquals(expected, Arrays.asList(sorted));
+    }
+
+    public void testTripleTable() {
+        final IntTripleTable table = new IntTripleTable();
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(i, table.add(i, i % 7, -i));
+        }
+        assertEquals(1234, table.add(1234, 1234 % 7, -1234));
+        assertEquals(1234, table.indexOf(1234, 1234 % 7, -1234));
+        assertEquals(-1, table.indexOf(1234, 0, 0));
+        assertEquals(3000, table.size());
+        assertEquals(5, table.get(12, 1));
+    }
+}
@@ -0,0 +1,70 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.AnnotationVisibility;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.immutable.ImmutableAnnotation;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+
+import java.util.*;
+
+public class AnnotationFilterTest extends TestCase {
+    private static final String FAST = "Lcom/foo/Fast;";
+    private static final String DEPRECATED = "Ljava/lang/Deprecated;";
+
+    public void testFilterAndStrip() {
+        final AnnotationFilter filter = new AnnotationFilter(null, Collections.singletonList("com.foo.Fast"), true);
+
+        final ClassDef annotatedClass = classDef("La/A;", annotations(FAST), method("La/A;", "run"));
+        assertFalse(filter.acceptClass(annotatedClass));
+
+        final ImmutableMethod fast = method("La/B;", "fast", FAST, DEPRECATED);
+        final ImmutableMethod slow = method("La/B;", "slow");
+        final ClassDef classDef = classDef("La/B;", annotations(DEPRECATED), fast, slow);
+        assertTrue(filter.acceptClass(classDef));
+        assertFalse(filter.acceptMethod(fast));
+        assertTrue(filter.acceptMethod(slow));
+
+        final ClassDef shellClass = filter.rewriteShellClass(classDef);
+        assertEquals(Collections.singleton(DEPRECATED), types(shellClass.getAnnotations()));
+        final Map<String, Method> methods = new HashMap<>();
+        for (Method method : shellClass.getMethods()) {
+            methods.put(method.getName(), method);
+        }
+        //只去掉指定注解
+        assertEquals(Collections.singleton(DEPRECATED), types(methods.get("fast").getAnnotations()));
+        assertSame(slow, methods.get("slow"));
+        assertSame(annotatedClass, new AnnotationFilter(null, Collections.singletonList(FAST), false)
+                .rewriteShellClass(annotatedClass));
+    }
+
+    private static Set<String> types(Set<? extends Annotation> annotations) {
+        final Set<String> types = new HashSet<>();
+        for (Annotation annotation : annotations) {
+            types.add(annotation.getType());
+        }
+        return types;
+    }
+
+    private static List<ImmutableAnnotation> annotations(String... types) {
+        final List<ImmutableAnnotation> annotations = new ArrayList<>();
+        for (String type : types) {
+            annotations.add(new ImmutableAnnotation(AnnotationVisibility.RUNTIME, type, null));
+        }
+        return annotations;
+    }
+
+    private static ImmutableMethod method(String type, String name, String... annotationTypes) {
+        return new ImmutableMethod(type, name, null, "V", AccessFlags.PUBLIC.getValue(),
+                new HashSet<>(annotations(annotationTypes)), null, null);
+    }
+
+    private static ImmutableClassDef classDef(String type, List<ImmutableAnnotation> annotations, ImmutableMethod... methods) {
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null,
+                null, new HashSet<>(annotations), null, Arrays.asList(methods));
+    }
+}
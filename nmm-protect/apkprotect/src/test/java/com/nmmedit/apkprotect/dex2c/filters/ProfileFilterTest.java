@@ -0,0 +1,63 @@
+package com.nmmedit.apkprotect.dex2c.filters;
+
+import junit.framework.TestCase;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ProfileFilterTest extends TestCase {
+
+    private static final String PROFILE = "" +
+            "# baseline profile\n" +
+            "HSPLa/A;->hot()V\n" +
+            "SPLa/A;->startup()V\n" +
+            "PLa/A;->later()V\n" +
+            "La/A;\n" +
+            "HLa/B;->get*()I\n" +
+            "La/A;->counted(I)I, 5000\n" +
+            "La/A;->rare(I)I,3\n";
+
+    public void testExclude() throws IOException {
+        final ProfileFilter filter = new ProfileFilter(null, new StringReader(PROFILE), 1000, true);
+        assertFalse(filter.acceptMethod(method("La/A;", "hot", "V")));
+        assertFalse(filter.acceptMethod(method("La/A;", "startup", "V")));
+        assertTrue(filter.acceptMethod(method("La/A;", "later", "V")));
+        assertFalse(filter.acceptMethod(method("La/B;", "getValue", "I")));
+        assertTrue(filter.acceptMethod(method("La/B;", "setValue", "I")));
+        assertFalse(filter.acceptMethod(method("La/A;", "counted", "I", "I")));
+        assertTrue(filter.acceptMethod(method("La/A;", "rare", "I", "I")));
+
+        assertEquals("hot", filter.getExcluded().get("La/A;->hot()V"));
+        assertEquals("count=5000", filter.getExcluded().get("La/A;->counted(I)I"));
+        assertEquals(4, filter.getExcluded().size());
+
+        final StringWriter report = new StringWriter();
+        filter.writeReport(report);
+        assertTrue(report.toString().startsWith("La/A;->counted(I)I count=5000\n"));
+    }
+
+    public void testThresholds() throws IOException {
+        final ProfileFilter filter = new ProfileFilter(new BasicKeepConfig(), new StringReader(PROFILE), 1, false);
+        assertTrue(filter.acceptMethod(method("La/A;", "startup", "V")));
+        assertFalse(filter.acceptMethod(method("La/A;", "rare", "I", "I")));
+        //上游规则不接受的方法不记录
+        assertFalse(filter.acceptMethod(new ImmutableMethod("La/A;", "hot", null, "V",
+                AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(), null, null, null)));
+        assertEquals(Collections.singletonMap("La/A;->rare(I)I", "count=3"), filter.getExcluded());
+    }
+
+    private static ImmutableMethod method(String type, String name, String returnType, String... params) {
+        final List<ImmutableMethodParameter> parameters = new ArrayList<>();
+        for (String param : params) {
+            parameters.add(new ImmutableMethodParameter(param, null, null));
+        }
+        return new ImmutableMethod(type, name, parameters, returnType, AccessFlags.PUBLIC.getValue(), null, null, null);
+    }
+}
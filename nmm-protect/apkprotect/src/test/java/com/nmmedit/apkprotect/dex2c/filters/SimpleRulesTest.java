@@ -9,6 +9,12 @@ import org.jf.dexlib2.dexbacked.DexBackedMethod;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SimpleRulesTest extends TestCase {
 
@@ -24,10 +30,11 @@ public class SimpleRulesTest extends TestCase {
                         "if*;\n" +
                         "}"));
         for (DexBackedClassDef classDef : dexFile.getClasses()) {
-            if (ruleReader.matchClass(classDef.getType(), classDef.getSuperclass(), classDef.getInterfaces())) {
+            final MethodMatcher matcher = ruleReader.match(classDef);
+            if (matcher != null) {
                 System.out.println(classDef);
                 for (DexBackedMethod method : classDef.getMethods()) {
-                    if (ruleReader.matchMethod(method.getName())) {
+                    if (matcher.matches(method.getName())) {
                         System.out.println(classDef + "   " + method);
                     }
                 }
@@ -36,4 +43,84 @@ public class SimpleRulesTest extends TestCase {
         }
 
     }
-}
\ No newline at end of file
+
+    public void testMatch() throws IOException {
+        final SimpleRules rules = new SimpleRules();
+        rules.parse(new StringReader(
+                "class my.pkg.A$Inner { run; }\n" +
+                        "class my.pkg.* {\n" +
+                        "get*;\n" +
+                        "}\n" +
+                        "class *.*Helper { *Value; }\n" +
+                        "class * extends java.util.ArrayList { add; }\n" +
+                        "class * implements java.io.Serializable"));
+        final List<String> noIfaces = Collections.emptyList();
+
+        final MethodMatcher inner = rules.match("Lmy/pkg/A$Inner;", "Ljava/lang/Object;", noIfaces);
+        assertNotNull(inner);
+        //匹配多个规则时方法规则取并集
+        assertTrue(inner.matches("run"));
+        assertTrue(inner.matches("getName"));
+        assertFalse(inner.matches("set"));
+
+        final MethodMatcher helper = rules.match("Lother/IoHelper;", "Ljava/lang/Object;", noIfaces);
+        assertNotNull(helper);
+        assertTrue(helper.matches("intValue"));
+        assertFalse(helper.matches("intValues"));
+
+        final MethodMatcher list = rules.match("Lother/MyList;", "Ljava/util/ArrayList;", noIfaces);
+        assertNotNull(list);
+        assertTrue(list.matches("add"));
+        assertFalse(list.matches("addAll"));
+
+        final MethodMatcher serializable = rules.match("Lother/Data;", null,
+                Collections.singletonList("Ljava/io/Serializable;"));
+        assertNotNull(serializable);
+        assertTrue(serializable.matches("anything"));
+
+        assertNull(rules.match("Lother/Data;", "Ljava/lang/Object;", noIfaces));
+        assertNull(rules.match("Lmy/pkgx/A;", "Ljava/lang/Object;", noIfaces));
+    }
+
+    public void testConcurrentMatch() throws Exception {
+        final SimpleRules rules = new SimpleRules();
+        rules.parse(new StringReader(
+                "class * extends java.lang.Object { test*; }\n" +
+                        "class tests.* {\n" +
+                        "*;\n" +
+                        "}"));
+        final DexBackedDexFile dexFile = DexBackedDexFile.fromInputStream(Opcodes.getDefault(),
+                new BufferedInputStream(SimpleRulesTest.class.getResourceAsStream("/classes2.dex")));
+        final List<String> expected = matchAll(rules, dexFile);
+        assertFalse(expected.isEmpty());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> matchAll(rules, dexFile)));
+            }
+            for (Future<List<String>> future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<String> matchAll(SimpleRules rules, DexBackedDexFile dexFile) {
+        final List<String> matched = new ArrayList<>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            final MethodMatcher matcher = rules.match(classDef);
+            if (matcher == null) {
+                continue;
+            }
+            for (DexBackedMethod method : classDef.getMethods()) {
+                if (matcher.matches(method.getName())) {
+                    matched.add(classDef.getType() + "->" + method.getName());
+                }
+            }
+        }
+        return matched;
+    }
+}
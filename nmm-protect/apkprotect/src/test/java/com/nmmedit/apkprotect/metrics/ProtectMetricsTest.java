@@ -0,0 +1,60 @@
+package com.nmmedit.apkprotect.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ProtectMetricsTest extends TestCase {
+
+    public void testStages() throws IOException, InterruptedException {
+        final ProtectMetrics metrics = new ProtectMetrics("test.apk");
+        try (ProtectMetrics.Stage stage = metrics.stage("first")) {
+            stage.addBytesRead(10).addBytesWritten(20).addClasses(3).addMethods(4);
+            Thread.sleep(20);
+        }
+        final ProtectMetrics.Stage second = metrics.stage("second");
+        second.close();
+        //重复关闭不重复记录
+        second.close();
+        metrics.addWarning("fallback");
+
+        final List<StageMetrics> stages = metrics.getStages();
+        assertEquals(2, stages.size());
+        final StageMetrics first = stages.get(0);
+        assertEquals("first", first.name);
+        assertEquals(10, first.bytesRead);
+        assertEquals(20, first.bytesWritten);
+        assertEquals(3, first.classes);
+        assertEquals(4, first.methods);
+        assertTrue(first.wallTimeMillis >= 20);
+        assertTrue(first.peakHeapBytes > 0);
+
+        final File file = new File(Files.createTempDirectory("metrics").toFile(), "out/metrics.json");
+        metrics.writeJson(file);
+        final JsonObject report = JsonParser.parseString(
+                new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("test.apk", report.get("apk").getAsString());
+        final JsonArray array = report.getAsJsonArray("stages");
+        assertEquals(2, array.size());
+        assertEquals("second", array.get(1).getAsJsonObject().get("name").getAsString());
+        assertTrue(report.has("note"));
+        assertEquals("fallback", report.getAsJsonArray("warnings").get(0).getAsString());
+    }
+
+    public void testSamplerStops() throws InterruptedException {
+        final ProtectMetrics metrics = new ProtectMetrics("test.apk");
+        metrics.stage("running").close();
+        //没有正在运行的阶段时采样线程退出
+        for (int i = 0; i < 100 && ProtectMetrics.isSampling(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(ProtectMetrics.isSampling());
+    }
+}
@@ -0,0 +1,33 @@
+package com.nmmedit.apkprotect.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class ChangedFileWriterTest extends TestCase {
+
+    public void testWriteOnlyIfChanged() throws IOException {
+        final File file = new File(Files.createTempDirectory("changed").toFile(), "test.c");
+        write(file, "int a;\n");
+        assertEquals("int a;\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+        assertTrue(file.setLastModified(1000000000L));
+        write(file, "int a;\n");
+        //内容相同,不修改文件
+        assertEquals(1000000000L, file.lastModified());
+
+        write(file, "int b;\n");
+        assertTrue(file.lastModified() != 1000000000L);
+        assertEquals("int b;\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (Writer writer = new ChangedFileWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.nmmedit.apkprotect.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class RawZipWriterTest extends TestCase {
+
+    public void testCopyEntries() throws IOException {
+        final File dir = Files.createTempDirectory("rawzip").toFile();
+        final byte[] text = "hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+        final byte[] random = new byte[100 * 1024];
+        new Random(1).nextBytes(random);
+
+        final File src = new File(dir, "src.zip");
+        try (ZipOutputStream zipOutput = new ZipOutputStream(new FileOutputStream(src))) {
+            zipOutput.putNextEntry(new ZipEntry("res/"));
+            zipOutput.closeEntry();
+
+            zipOutput.putNextEntry(new ZipEntry("assets/deflated.txt"));
+            zipOutput.write(text);
+            zipOutput.closeEntry();
+
+            final ZipEntry stored = new ZipEntry("resources.arsc");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(random.length);
+            stored.setCompressedSize(random.length);
+            final CRC32 crc32 = new CRC32();
+            crc32.update(random);
+            stored.setCrc(crc32.getValue());
+            zipOutput.putNextEntry(stored);
+            zipOutput.write(random);
+            zipOutput.closeEntry();
+        }
+
+        final File newFile = new File(dir, "classes.dex");
+        Files.write(newFile.toPath(), random);
+
+        final File out = new File(dir, "out.zip");
+        try (RawZipFile zipInput = new RawZipFile(src);
+             RawZipWriter zipOutput = new RawZipWriter(out)) {
+            assertEquals(3, zipInput.getEntries().size());
+            for (RawZipFile.Entry entry : zipInput.getEntries()) {
+                if (!entry.isDirectory()) {
+                    zipOutput.copyEntry(zipInput, entry);
+                }
+            }
+            zipOutput.putFile("classes.dex", newFile);
+            zipOutput.putFile("lib/x86/libstored.so", newFile, ZipEntry.STORED);
+            try {
+                zipOutput.putFile("classes.dex", newFile);
+                fail("duplicate entry");
+            } catch (IOException ignored) {
+            }
+        }
+
+        try (ZipFile zipFile = new ZipFile(out)) {
+            assertEquals(4, zipFile.size());
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("assets/deflated.txt").getMethod());
+            assertTrue(Arrays.equals(text, read(zipFile, "assets/deflated.txt")));
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("resources.arsc").getMethod());
+            assertTrue(Arrays.equals(random, read(zipFile, "resources.arsc")));
+            assertTrue(Arrays.equals(random, read(zipFile, "classes.dex")));
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("lib/x86/libstored.so").getMethod());
+            assertTrue(Arrays.equals(random, read(zipFile, "lib/x86/libstored.so")));
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        try (InputStream input = zipFile.getInputStream(zipFile.getEntry(name))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FileUtils.copyStream(input, out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package com.nmmedit.dex2c;
 
 import com.nmmedit.apkprotect.dex2c.Dex2c;
+import com.nmmedit.apkprotect.dex2c.DexConfig;
+import com.nmmedit.apkprotect.dex2c.DexConvertCache;
+import com.nmmedit.apkprotect.dex2c.DexConvertOptions;
+import com.nmmedit.apkprotect.dex2c.GlobalDexConfig;
+import com.nmmedit.apkprotect.dex2c.NativeCodeOptions;
 import com.nmmedit.apkprotect.dex2c.converter.MyMethodUtil;
 import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
 import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.NoneInstructionRewriter;
@@ -19,6 +24,16 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class Dex2cTest {
 
@@ -40,6 +55,169 @@ public class Dex2cTest {
                 outdir);
     }
 
+    @Test
+    public void testParallelHandleDexes() throws IOException {
+        final File dexDir = Files.createTempDirectory("dexes").toFile();
+        final List<File> dexFiles = new ArrayList<>();
+        for (String name : new String[]{"classes.dex", "classes2.dex", "classes3.dex"}) {
+            final File file = new File(dexDir, name);
+            try (InputStream input = this.getClass().getResourceAsStream("/classes2.dex")) {
+                Files.copy(input, file.toPath());
+            }
+            dexFiles.add(file);
+        }
+        final InstructionRewriter instructionRewriter = new NoneInstructionRewriter();
+
+        final File seqDir = new File(dexDir, "seq");
+        final GlobalDexConfig seqConfig = Dex2c.handleDexes(dexFiles, testFilter, instructionRewriter, seqDir);
+
+        final File parDir = new File(dexDir, "par");
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final GlobalDexConfig parConfig;
+        try {
+            parConfig = Dex2c.handleDexes(dexFiles, testFilter, instructionRewriter, parDir,
+                    new DexConvertOptions.Builder().setExecutor(executor).build());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(seqConfig.getConfigs().size(), parConfig.getConfigs().size());
+        for (int i = 0; i < seqConfig.getConfigs().size(); i++) {
+            final DexConfig seq = seqConfig.getConfigs().get(i);
+            final DexConfig par = parConfig.getConfigs().get(i);
+            assertEquals(seq.getDexName(), par.getDexName());
+            assertFileEquals(seq.getNativeFunctionsFile(), par.getNativeFunctionsFile());
+            assertFileEquals(seq.getResolverFile(), par.getResolverFile());
+        }
+        assertFileEquals(seqConfig.getInitCodeFile(), parConfig.getInitCodeFile());
+    }
+
+    @Test
+    public void testConvertCache() throws IOException {
+        final File dir = Files.createTempDirectory("dexcache").toFile();
+        final File dexFile = new File(dir, "classes2.dex");
+        try (InputStream input = this.getClass().getResourceAsStream("/classes2.dex")) {
+            Files.copy(input, dexFile.toPath());
+        }
+        final InstructionRewriter instructionRewriter = new NoneInstructionRewriter();
+        final DexConvertCache cache = new DexConvertCache(new File(dir, "cache"), instructionRewriter,
+                "class tests.*".getBytes());
+
+        final String key = cache.getKey(dexFile);
+        assertNull(cache.restore(key, dexFile.getName(), new File(dir, "miss")));
+
+        final File outDir = new File(dir, "first");
+        outDir.mkdirs();
+        final DexConfig first = Dex2c.handleDex(dexFile, testFilter, instructionRewriter, outDir,
+                new DexConvertOptions.Builder().setCache(cache).build());
+
+        final File cachedDir = new File(dir, "second");
+        cachedDir.mkdirs();
+        final DexConfig second = cache.restore(key, dexFile.getName(), cachedDir);
+        assertEquals(first.getHandledNativeClasses(), second.getHandledNativeClasses());
+        assertEquals(first.getNativeMethodOffsets(), second.getNativeMethodOffsets());
+        assertFileEquals(first.getShellDexFile(), second.getShellDexFile());
+        assertFileEquals(first.getImplDexFile(), second.getImplDexFile());
+        assertFileEquals(first.getNativeFunctionsFile(), second.getNativeFunctionsFile());
+        assertFileEquals(first.getResolverFile(), second.getResolverFile());
+
+        //规则不同则key不同
+        final DexConvertCache otherRules = new DexConvertCache(new File(dir, "cache"), instructionRewriter,
+                "class *".getBytes());
+        assertNull(otherRules.restore(otherRules.getKey(dexFile), dexFile.getName(), new File(dir, "miss")));
+    }
+
+    @Test
+    public void testNativeShards() throws IOException {
+        final File dir = Files.createTempDirectory("dexshards").toFile();
+        final File dexFile = new File(dir, "classes2.dex");
+        try (InputStream input = this.getClass().getResourceAsStream("/classes2.dex")) {
+            Files.copy(input, dexFile.toPath());
+        }
+        final InstructionRewriter instructionRewriter = new NoneInstructionRewriter();
+        final File singleDir = new File(dir, "single");
+        final File shardedDir = new File(dir, "sharded");
+        singleDir.mkdirs();
+        shardedDir.mkdirs();
+        final DexConfig single = Dex2c.handleDex(dexFile, testFilter, instructionRewriter, singleDir);
+        final DexConfig sharded = Dex2c.handleDex(dexFile, testFilter, instructionRewriter, shardedDir,
+                codeOptions(new NativeCodeOptions(3, false)));
+
+        final List<File> shardFiles = sharded.getNativeFunctionsFiles();
+        assertEquals(3, shardFiles.size());
+        assertEquals(single.getNativeMethodCount(), sharded.getNativeMethodCount());
+        assertEquals(single.getNativeMethodOffsets(), sharded.getNativeMethodOffsets());
+        assertFileEquals(single.getResolverFile(), sharded.getResolverFile());
+        assertTrue(sharded.getNativeSharedHeaderFile().exists());
+
+        //所有方法都生成了,分片里的函数在主文件里都有声明
+        final String main = new String(Files.readAllBytes(sharded.getNativeFunctionsFile().toPath()));
+        int functions = countOccurrences(main, "static ");
+        for (File file : shardFiles.subList(1, shardFiles.size())) {
+            //CMakeLists.txt根据后缀查找源文件
+            assertTrue(file.getName().endsWith("_functions.c"));
+            final String shard = new String(Files.readAllBytes(file.toPath()));
+            for (String line : shard.split("\n")) {
+                if (line.startsWith("NMMP_HIDDEN ")) {
+                    assertTrue(line, main.contains(line.substring(0, line.length() - 2) + ";\n"));
+                    //符号在so里可见,函数名包含dex名,多个dex有同名类时不会重复定义
+                    assertTrue(line, line.contains(" " + sharded.getDexName() + "_Java_"));
+                    functions++;
+                }
+            }
+        }
+        //主文件里还有注册函数及两个注册表是static的
+        assertEquals(single.getNativeMethodCount() + 3, functions);
+    }
+
+    @Test
+    public void testDataBlob() throws IOException {
+        final File dir = Files.createTempDirectory("dexblob").toFile();
+        final File dexFile = new File(dir, "classes2.dex");
+        try (InputStream input = this.getClass().getResourceAsStream("/classes2.dex")) {
+            Files.copy(input, dexFile.toPath());
+        }
+        final InstructionRewriter instructionRewriter = new NoneInstructionRewriter();
+        final File arrayDir = new File(dir, "array");
+        final File blobDir = new File(dir, "blob");
+        arrayDir.mkdirs();
+        blobDir.mkdirs();
+        final DexConfig array = Dex2c.handleDex(dexFile, testFilter, instructionRewriter, arrayDir);
+        final DexConfig blob = Dex2c.handleDex(dexFile, testFilter, instructionRewriter, blobDir,
+                codeOptions(new NativeCodeOptions(1, true)));
+
+        assertEquals(array.getNativeMethodOffsets(), blob.getNativeMethodOffsets());
+        assertTrue(blob.getDataBlobFile().length() > 0);
+        assertTrue(blob.getGeneratedSourceFiles().contains(blob.getDataBlobFile()));
+
+        //c代码里没有字节码数组及常量池数组
+        final String code = new String(Files.readAllBytes(blob.getNativeFunctionsFile().toPath()));
+        final String resolver = new String(Files.readAllBytes(blob.getResolverFile().toPath()));
+        assertTrue(code.contains(".incbin"));
+        assertEquals(0, countOccurrences(code, "    static const u2 insns[]"));
+        assertTrue(countOccurrences(code, "    const u2 *insns = ") > 0);
+        assertEquals(0, countOccurrences(resolver, "static const MethodId gMethodIds[]"));
+        assertTrue(code.length() < array.getNativeFunctionsFile().length());
+    }
+
+    private static DexConvertOptions codeOptions(NativeCodeOptions codeOptions) {
+        return new DexConvertOptions.Builder().setCodeOptions(codeOptions).build();
+    }
+
+    private static int countOccurrences(String text, String prefix) {
+        int count = 0;
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertFileEquals(File expected, File actual) throws IOException {
+        assertArrayEquals(expected.getName(), Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+    }
+
     public static ClassAndMethodFilter testFilter = new ClassAndMethodFilter() {
 
         @Override
@@ -75,6 +253,42 @@ public class Dex2cTest {
 
     }
 
+    @Test
+    public void testGlobalPool() throws IOException {
+        final File dexDir = Files.createTempDirectory("globalpool").toFile();
+        final List<File> dexFiles = new ArrayList<>();
+        for (String name : new String[]{"classes.dex", "classes2.dex"}) {
+            final File file = new File(dexDir, name);
+            try (InputStream input = this.getClass().getResourceAsStream("/classes2.dex")) {
+                Files.copy(input, file.toPath());
+            }
+            dexFiles.add(file);
+        }
+        final InstructionRewriter instructionRewriter = new NoneInstructionRewriter();
+        final File localDir = new File(dexDir, "local");
+        final GlobalDexConfig local = Dex2c.handleDexes(dexFiles, testFilter, instructionRewriter, localDir);
+        final File globalDir = new File(dexDir, "global");
+        final GlobalDexConfig global = Dex2c.handleDexes(dexFiles, testFilter, instructionRewriter, globalDir,
+                codeOptions(new NativeCodeOptions(1, false, true)));
+
+        assertTrue(global.isGlobalPool());
+        assertTrue(global.getGeneratedSourceFiles().contains(global.getGlobalPoolFile()));
+        //常量池只生成一次,每个dex只引用共用的符号解析器
+        long localSize = 0;
+        for (DexConfig config : local.getConfigs()) {
+            localSize += config.getResolverFile().length();
+        }
+        long globalSize = global.getGlobalPoolFile().length();
+        for (DexConfig config : global.getConfigs()) {
+            final String resolver = new String(Files.readAllBytes(config.getResolverFile().toPath()));
+            assertEquals(0, countOccurrences(resolver, "gMethodIds"));
+            globalSize += config.getResolverFile().length();
+        }
+        assertTrue(globalSize < localSize);
+        final String init = new String(Files.readAllBytes(global.getInitCodeFile().toPath()));
+        assertTrue(init.contains("nmmpGlobalResolverInit(env);"));
+    }
+
     @Test
     public void testDexConvert() throws IOException {
 //        File dexdir = new File("/home/mao/estest/");
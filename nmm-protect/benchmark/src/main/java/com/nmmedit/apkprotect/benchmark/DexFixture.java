@@ -0,0 +1,68 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.google.common.io.ByteStreams;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.DexBackedMethod;
+import org.jf.dexlib2.iface.MethodImplementation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试共用的测试数据,使用apkprotect测试资源里的classes2.dex及mapping.txt
+ */
+final class DexFixture {
+
+    private DexFixture() {
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        try (InputStream input = DexFixture.class.getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return ByteStreams.toByteArray(input);
+        }
+    }
+
+    static DexBackedDexFile loadDex() throws IOException {
+        return new DexBackedDexFile(Opcodes.getDefault(), readResource("/classes2.dex"));
+    }
+
+    //MappingReader只接受文件,先写到临时文件
+    static File copyToTempFile(String name) throws IOException {
+        final File file = File.createTempFile("bench", name.substring(name.lastIndexOf('/') + 1));
+        file.deleteOnExit();
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(readResource(name));
+        }
+        return file;
+    }
+
+    static List<DexBackedMethod> methodsWithCode(DexBackedDexFile dexFile) {
+        final List<DexBackedMethod> methods = new ArrayList<>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            for (DexBackedMethod method : classDef.getMethods()) {
+                if (method.getImplementation() != null) {
+                    methods.add(method);
+                }
+            }
+        }
+        return methods;
+    }
+
+    static List<MethodImplementation> implementations(List<DexBackedMethod> methods) {
+        final List<MethodImplementation> implementations = new ArrayList<>(methods.size());
+        for (DexBackedMethod method : methods) {
+            implementations.add(method.getImplementation());
+        }
+        return implementations;
+    }
+}
@@ -0,0 +1,55 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.nmmedit.apkprotect.dex2c.converter.ClassAnalyzer;
+import com.nmmedit.apkprotect.dex2c.converter.References;
+import com.nmmedit.apkprotect.dex2c.converter.ResolverCodeGenerator;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指令重写及异常表转换
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionRewriterBenchmark {
+
+    private InstructionRewriter rewriter;
+    private References references;
+    private ClassAnalyzer analyzer;
+    private List<MethodImplementation> implementations;
+
+    @Setup
+    public void setup() throws IOException {
+        final DexBackedDexFile dexFile = DexFixture.loadDex();
+        analyzer = new ClassAnalyzer(dexFile);
+        rewriter = new RandomInstructionRewriter(0);
+        references = new ResolverCodeGenerator(dexFile, analyzer).getReferences();
+        implementations = DexFixture.implementations(DexFixture.methodsWithCode(dexFile));
+    }
+
+    @Benchmark
+    public void rewriteInstructions(Blackhole blackhole) {
+        for (MethodImplementation implementation : implementations) {
+            blackhole.consume(rewriter.rewriteInstructions(implementation, references, analyzer));
+        }
+    }
+
+    @Benchmark
+    public void handleTries(Blackhole blackhole) throws IOException {
+        for (MethodImplementation implementation : implementations) {
+            blackhole.consume(rewriter.handleTries(implementation, references));
+        }
+    }
+}
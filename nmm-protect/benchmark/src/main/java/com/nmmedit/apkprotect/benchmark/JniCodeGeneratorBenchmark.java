@@ -0,0 +1,56 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.google.common.io.CharStreams;
+import com.nmmedit.apkprotect.dex2c.converter.CSourceWriter;
+import com.nmmedit.apkprotect.dex2c.converter.ClassAnalyzer;
+import com.nmmedit.apkprotect.dex2c.converter.JniCodeGenerator;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.DexBackedMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把dex里所有方法转换为c代码,包含指令重写及异常表处理
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JniCodeGeneratorBenchmark {
+
+    private DexBackedDexFile dexFile;
+    private ClassAnalyzer analyzer;
+    private List<DexBackedMethod> methods;
+    private JniCodeGenerator codeGenerator;
+
+    @Setup
+    public void setup() throws IOException {
+        dexFile = DexFixture.loadDex();
+        analyzer = new ClassAnalyzer(dexFile);
+        methods = DexFixture.methodsWithCode(dexFile);
+    }
+
+    //JniCodeGenerator会记录已处理的方法,每轮迭代重新创建,避免集合一直增长
+    @Setup(Level.Iteration)
+    public void newGenerator() {
+        final InstructionRewriter rewriter = new RandomInstructionRewriter(0);
+        codeGenerator = new JniCodeGenerator(dexFile, analyzer, rewriter);
+    }
+
+    @Benchmark
+    public void addMethods() throws IOException {
+        final Writer writer = new CSourceWriter(CharStreams.nullWriter());
+        for (DexBackedMethod method : methods) {
+            codeGenerator.addMethod(method, writer);
+        }
+        writer.flush();
+    }
+}
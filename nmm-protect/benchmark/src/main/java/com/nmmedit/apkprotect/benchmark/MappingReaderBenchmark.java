@@ -0,0 +1,53 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.nmmedit.apkprotect.deobfus.MappingProcessor;
+import com.nmmedit.apkprotect.deobfus.MappingReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析proguard生成的mapping.txt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingReaderBenchmark {
+
+    private File mappingFile;
+
+    @Setup
+    public void setup() throws IOException {
+        mappingFile = DexFixture.copyToTempFile("/mapping.txt");
+    }
+
+    @Benchmark
+    public void parse(final Blackhole blackhole) throws IOException {
+        new MappingReader(mappingFile).parse(new MappingProcessor() {
+            @Override
+            public void processClassMapping(String className, String newClassName) {
+                blackhole.consume(newClassName);
+            }
+
+            @Override
+            public void processFieldMapping(String className, String fieldType, String fieldName,
+                                            String newClassName, String newFieldName) {
+                blackhole.consume(newFieldName);
+            }
+
+            @Override
+            public void processMethodMapping(String className, int firstLineNumber, int lastLineNumber,
+                                             String methodReturnType, String methodName, String methodArguments,
+                                             String newClassName, int newFirstLineNumber, int newLastLineNumber,
+                                             String newMethodName) {
+                blackhole.consume(newMethodName);
+            }
+        });
+    }
+}
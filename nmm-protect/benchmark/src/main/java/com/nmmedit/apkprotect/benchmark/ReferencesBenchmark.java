@@ -0,0 +1,44 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.google.common.io.CharStreams;
+import com.nmmedit.apkprotect.dex2c.converter.ClassAnalyzer;
+import com.nmmedit.apkprotect.dex2c.converter.ResolverCodeGenerator;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收集dex引用(References)及生成符号解析代码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReferencesBenchmark {
+
+    private DexBackedDexFile dexFile;
+    private ClassAnalyzer analyzer;
+    private ResolverCodeGenerator resolverCodeGenerator;
+
+    @Setup
+    public void setup() throws IOException {
+        dexFile = DexFixture.loadDex();
+        analyzer = new ClassAnalyzer(dexFile);
+        resolverCodeGenerator = new ResolverCodeGenerator(dexFile, analyzer);
+    }
+
+    //ResolverCodeGenerator构造时收集所有引用
+    @Benchmark
+    public Object buildReferences() {
+        return new ResolverCodeGenerator(dexFile, analyzer).getReferences();
+    }
+
+    @Benchmark
+    public void generateResolver() throws IOException {
+        resolverCodeGenerator.generate(CharStreams.nullWriter());
+    }
+}
@@ -0,0 +1,124 @@
+package com.nmmedit.apkprotect.benchmark;
+
+import com.nmmedit.apkprotect.dex2c.filters.MethodMatcher;
+import com.nmmedit.apkprotect.dex2c.filters.SimpleRules;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.DexBackedMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 转换规则匹配,遍历dex里所有类及方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRulesBenchmark {
+
+    private static final String RULES = "class * extends android.app.Activity\n" +
+            "class * implements java.io.Serializable\n" +
+            "class com.nmmedit.*\n" +
+            "class * extends java.util.ArrayList {\n" +
+            "if*;\n" +
+            "}\n" +
+            "class *.*Helper {\n" +
+            "on*;\n" +
+            "get*;\n" +
+            "}";
+
+    private SimpleRules rules;
+    private final List<ClassInfo> classes = new ArrayList<>();
+    private final List<String> methodNames = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        rules = new SimpleRules();
+        rules.parse(new StringReader(RULES));
+
+        final DexBackedDexFile dexFile = DexFixture.loadDex();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            classes.add(new ClassInfo(classDef.getType(), classDef.getSuperclass(), classDef.getInterfaces()));
+            for (DexBackedMethod method : classDef.getMethods()) {
+                methodNames.add(method.getName());
+            }
+        }
+    }
+
+    //旧接口,和match对比
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public int matchClass() {
+        int matched = 0;
+        for (ClassInfo info : classes) {
+            if (rules.matchClass(info.type, info.superType, info.interfaces)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    //matchMethod使用上一次matchClass匹配到的规则,这里先匹配类再匹配方法
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public int matchClassAndMethod() {
+        int matched = 0;
+        for (ClassInfo info : classes) {
+            if (rules.matchClass(info.type, info.superType, info.interfaces)) {
+                for (String name : methodNames) {
+                    if (rules.matchMethod(name)) {
+                        matched++;
+                    }
+                }
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int match() {
+        int matched = 0;
+        for (ClassInfo info : classes) {
+            if (rules.match(info.type, info.superType, info.interfaces) != null) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public int matchAndMethod() {
+        int matched = 0;
+        for (ClassInfo info : classes) {
+            final MethodMatcher matcher = rules.match(info.type, info.superType, info.interfaces);
+            if (matcher != null) {
+                for (String name : methodNames) {
+                    if (matcher.matches(name)) {
+                        matched++;
+                    }
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static class ClassInfo {
+        final String type;
+        final String superType;
+        final List<String> interfaces;
+
+        ClassInfo(String type, String superType, List<String> interfaces) {
+            this.type = type;
+            this.superType = superType;
+            this.interfaces = interfaces;
+        }
+    }
+}
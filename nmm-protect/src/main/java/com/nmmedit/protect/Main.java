@@ -1,14 +1,12 @@
 package com.nmmedit.protect;
 
-import com.nmmedit.apkprotect.ApkFolders;
-import com.nmmedit.apkprotect.ApkProtect;
-import com.nmmedit.apkprotect.deobfus.MappingReader;
-import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter;
-import com.nmmedit.apkprotect.dex2c.filters.*;
-import com.nmmedit.apkprotect.sign.ApkVerifyCodeGenerator;
+import com.nmmedit.apkprotect.NativeBuildScheduler;
+import com.nmmedit.apkprotect.data.Prefs;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
 
@@ -16,39 +14,46 @@ public class Main {
         if (args.length < 1) {
             System.err.println("No Input apk.");
             System.err.println("<inApk> [<convertRuleFile> [mapping.txt]]");
+            System.err.println("--daemon <spoolDir> [<maxConcurrentJobs>]");
             System.exit(-1);
         }
+        if ("--daemon".equals(args[0])) {
+            runDaemon(args);
+            return;
+        }
         final File apk = new File(args[0]);
         final File outDir = new File(apk.getParentFile(), "build");
 
-        ClassAndMethodFilter filterConfig = new BasicKeepConfig();
-        final SimpleRules simpleRules = new SimpleRules();
-        if (args.length > 1) {
-            simpleRules.parse(new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8));
-        } else {
-            //all classes
-            simpleRules.parse(new StringReader("class *"));
+        final String profile = System.getProperty("nmmp.profile");
+        final ProtectJob job = new ProtectJob(apk, outDir,
+                args.length > 1 ? new File(args[1]) : null,
+                args.length > 2 ? new File(args[2]) : null,
+                profile == null ? null : new File(profile));
+
+        //多个dex同时转换
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            job.run(executor, new NativeBuildScheduler(), Prefs.snapshot());
+        } finally {
+            executor.shutdown();
         }
+    }
 
-        if (args.length > 2) {
-            final MappingReader mappingReader = new MappingReader(new File(args[2]));
-            filterConfig = new ProguardMappingConfig(filterConfig, mappingReader, simpleRules);
-        } else {
-            filterConfig = new SimpleConvertConfig(new BasicKeepConfig(), simpleRules);
+    //常驻进程,从spool目录读取任务,省去每次启动jvm及预热等开销
+    private static void runDaemon(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("No spool directory.");
+            System.exit(-1);
+        }
+        final File spoolDir = new File(args[1]);
+        final int maxConcurrentJobs = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        final ProtectDaemon daemon = new ProtectDaemon(spoolDir, maxConcurrentJobs);
+        try {
+            daemon.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            daemon.shutdown();
         }
-
-
-
-        final ApkFolders apkFolders = new ApkFolders(apk, outDir);
-
-        //apk签名验证相关，不使用
-        final ApkVerifyCodeGenerator apkVerifyCodeGenerator = null;
-
-        final ApkProtect apkProtect = new ApkProtect.Builder(apkFolders)
-                .setInstructionRewriter(new RandomInstructionRewriter())
-                .setApkVerifyCodeGenerator(apkVerifyCodeGenerator)
-                .setFilter(filterConfig)
-                .build();
-        apkProtect.run();
     }
 }
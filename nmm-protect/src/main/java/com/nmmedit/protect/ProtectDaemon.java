@@ -0,0 +1,162 @@
+package com.nmmedit.protect;
+
+import com.nmmedit.apkprotect.NativeBuildScheduler;
+import com.nmmedit.apkprotect.data.Prefs;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻进程,轮询spool目录里的任务文件(*.job,格式见{@link ProtectJob#fromFile(File, File)}),
+ * 最多同时运行maxConcurrentJobs个任务
+ * <p>
+ * 任务文件先重命名为*.running表示正在处理,完成后重命名为*.done,失败则为*.failed同时错误信息写入*.error;
+ * 在spool目录创建stop文件,等待正在运行的任务完成后退出
+ * <p>
+ * 所有任务共用转换dex的线程池,编译本地库的调度器及jvm里缓存的vmsrc等,
+ * 同一个spool目录只能运行一个daemon.
+ * vm运行时依赖每个任务的opcode表,cmake configure及编译结果不在任务间共用,可以在任务里配置compilerLauncher(比如ccache)缓存编译结果
+ */
+public class ProtectDaemon {
+    static final String JOB_SUFFIX = ".job";
+    static final String RUNNING_SUFFIX = ".running";
+    static final String DONE_SUFFIX = ".done";
+    static final String FAILED_SUFFIX = ".failed";
+    static final String ERROR_SUFFIX = ".error";
+    static final String STOP_FILE = "stop";
+
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final File spoolDir;
+    private final Semaphore jobSlots;
+    private final ExecutorService jobExecutor;
+    private final ExecutorService dexExecutor;
+    private final NativeBuildScheduler buildScheduler;
+
+    public ProtectDaemon(@Nonnull File spoolDir, int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) {
+            throw new RuntimeException("maxConcurrentJobs < 1");
+        }
+        this.spoolDir = spoolDir;
+        this.jobSlots = new Semaphore(maxConcurrentJobs);
+        this.jobExecutor = Executors.newFixedThreadPool(maxConcurrentJobs);
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        this.dexExecutor = Executors.newFixedThreadPool(cpus);
+        this.buildScheduler = new NativeBuildScheduler(cpus);
+    }
+
+    /**
+     * 一直处理任务,直到spool目录里出现stop文件
+     */
+    public void run() throws IOException, InterruptedException {
+        if (!spoolDir.exists()) spoolDir.mkdirs();
+        requeueInterruptedJobs();
+        System.out.println("Waiting for jobs in " + spoolDir.getAbsolutePath());
+
+        while (true) {
+            //有空闲位置才领取任务,剩下的任务留在spool目录
+            jobSlots.acquire();
+            final File running;
+            try {
+                running = waitForJob();
+            } catch (InterruptedException | RuntimeException e) {
+                jobSlots.release();
+                throw e;
+            }
+            if (running == null) {
+                jobSlots.release();
+                break;
+            }
+            jobExecutor.execute(() -> {
+                try {
+                    runJob(running);
+                } finally {
+                    jobSlots.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * 不再接收任务,等待正在运行的任务完成
+     */
+    public void shutdown() {
+        jobExecutor.shutdown();
+        try {
+            while (!jobExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for running jobs");
+            }
+        } catch (InterruptedException e) {
+            jobExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            dexExecutor.shutdown();
+        }
+        new File(spoolDir, STOP_FILE).delete();
+    }
+
+    //领取下一个任务,按文件名顺序处理,返回null表示需要退出
+    private File waitForJob() throws InterruptedException {
+        while (true) {
+            if (new File(spoolDir, STOP_FILE).exists()) {
+                return null;
+            }
+            final File[] jobs = spoolDir.listFiles((dir, name) -> name.endsWith(JOB_SUFFIX));
+            if (jobs != null && jobs.length > 0) {
+                Arrays.sort(jobs);
+                for (File job : jobs) {
+                    final File running = new File(spoolDir, jobName(job, JOB_SUFFIX) + RUNNING_SUFFIX);
+                    if (job.renameTo(running)) {
+                        return running;
+                    }
+                }
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private void runJob(File running) {
+        final String name = jobName(running, RUNNING_SUFFIX);
+        final long start = System.currentTimeMillis();
+        System.out.println("Job " + name + " started");
+        try {
+            final ProtectJob job = ProtectJob.fromFile(running, new File(new File(spoolDir, "out"), name));
+            //config.json没有改变时使用缓存的配置
+            job.run(dexExecutor, buildScheduler, Prefs.snapshot());
+
+            running.renameTo(new File(spoolDir, name + DONE_SUFFIX));
+            System.out.printf("Job %s finished in %d ms%n", name, System.currentTimeMillis() - start);
+        } catch (Exception | Error e) {
+            //一个任务失败不影响其他任务
+            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(spoolDir, name + ERROR_SUFFIX)), StandardCharsets.UTF_8))) {
+                e.printStackTrace(writer);
+            } catch (IOException ignored) {
+            }
+            running.renameTo(new File(spoolDir, name + FAILED_SUFFIX));
+            System.err.printf("Job %s failed: %s%n", name, e);
+        }
+    }
+
+    //上次daemon退出时没有完成的任务,重新排队
+    private void requeueInterruptedJobs() {
+        final File[] jobs = spoolDir.listFiles((dir, name) -> name.endsWith(RUNNING_SUFFIX));
+        if (jobs == null) {
+            return;
+        }
+        for (File job : jobs) {
+            job.renameTo(new File(spoolDir, jobName(job, RUNNING_SUFFIX) + JOB_SUFFIX));
+        }
+    }
+
+    private static String jobName(File file, String suffix) {
+        final String name = file.getName();
+        return name.substring(0, name.length() - suffix.length());
+    }
+}
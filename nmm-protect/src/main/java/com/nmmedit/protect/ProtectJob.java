@@ -0,0 +1,279 @@
+package com.nmmedit.protect;
+
+import com.nmmedit.apkprotect.ApkFolders;
+import com.nmmedit.apkprotect.ApkProtect;
+import com.nmmedit.apkprotect.NativeBuildScheduler;
+import com.nmmedit.apkprotect.andres.AxmlEdit;
+import com.nmmedit.apkprotect.data.ConfigSnapshot;
+import com.nmmedit.apkprotect.deobfus.MappingReader;
+import com.nmmedit.apkprotect.dex2c.DexConvertCache;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.InstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.converter.instructionrewriter.RandomInstructionRewriter;
+import com.nmmedit.apkprotect.dex2c.filters.*;
+import com.nmmedit.apkprotect.sign.ApkVerifyCodeGenerator;
+import com.nmmedit.apkprotect.util.ApkUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 一次apk保护任务,命令行及daemon模式共用
+ */
+public class ProtectJob {
+    private final File apk;
+    private final File outDir;
+    @Nullable
+    private final File rulesFile;
+    @Nullable
+    private final File mappingFile;
+    //方法热度profile,热点方法不转换
+    @Nullable
+    private final File profileFile;
+    //任务自己的配置,比如cacheDir,incremental,没有配置的使用系统属性nmmp.xxx
+    private final Properties options;
+
+    public ProtectJob(@Nonnull File apk, @Nonnull File outDir, @Nullable File rulesFile, @Nullable File mappingFile) {
+        this(apk, outDir, rulesFile, mappingFile, null);
+    }
+
+    public ProtectJob(@Nonnull File apk, @Nonnull File outDir,
+                      @Nullable File rulesFile, @Nullable File mappingFile, @Nullable File profileFile) {
+        this(apk, outDir, rulesFile, mappingFile, profileFile, new Properties());
+    }
+
+    public ProtectJob(@Nonnull File apk, @Nonnull File outDir,
+                      @Nullable File rulesFile, @Nullable File mappingFile, @Nullable File profileFile,
+                      @Nonnull Properties options) {
+        this.apk = apk;
+        this.outDir = outDir;
+        this.rulesFile = rulesFile;
+        this.mappingFile = mappingFile;
+        this.profileFile = profileFile;
+        this.options = options;
+    }
+
+    /**
+     * 从任务文件读取配置,格式为properties:
+     * <pre>
+     * apk=/path/to/input.apk
+     * rules=/path/to/rules.txt     #可选
+     * mapping=/path/to/mapping.txt #可选
+     * profile=/path/to/baseline-prof.txt #可选
+     * output=/path/to/outDir       #可选
+     * incremental=true             #可选,其他配置和系统属性nmmp.xxx一样,去掉nmmp.前缀
+     * </pre>
+     * 没有写在任务文件里的配置使用系统属性,同一个daemon里的任务可以使用不同配置
+     *
+     * @param defaultOutDir 没有配置output时使用的输出目录
+     */
+    public static ProtectJob fromFile(@Nonnull File jobFile, @Nonnull File defaultOutDir) throws IOException {
+        final Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(jobFile), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        final String apk = properties.getProperty("apk");
+        if (apk == null) {
+            throw new IOException("No apk in " + jobFile);
+        }
+        final String rules = properties.getProperty("rules");
+        final String mapping = properties.getProperty("mapping");
+        final String output = properties.getProperty("output");
+        final String profile = properties.getProperty("profile");
+        return new ProtectJob(new File(apk),
+                output == null ? defaultOutDir : new File(output),
+                rules == null ? null : new File(rules),
+                mapping == null ? null : new File(mapping),
+                profile == null ? null : new File(profile),
+                properties);
+    }
+
+    public File getOutDir() {
+        return outDir;
+    }
+
+    /**
+     * @param executor       转换dex的线程池
+     * @param buildScheduler 编译本地库调度器,多个任务共用时总编译任务数不超过它的上限
+     * @param config         sdk,ndk等配置
+     */
+    public void run(@Nonnull ExecutorService executor,
+                    @Nonnull NativeBuildScheduler buildScheduler,
+                    @Nonnull ConfigSnapshot config) throws IOException {
+        //过滤规则相关文件内容,用于计算缓存key
+        final List<byte[]> filterConfigs = new ArrayList<>();
+
+        ClassAndMethodFilter filterConfig = new BasicKeepConfig();
+        final SimpleRules simpleRules = new SimpleRules();
+        if (rulesFile != null) {
+            final byte[] rules = Files.readAllBytes(rulesFile.toPath());
+            filterConfigs.add(rules);
+            simpleRules.parse(new InputStreamReader(new ByteArrayInputStream(rules), StandardCharsets.UTF_8));
+        } else {
+            //all classes
+            simpleRules.parse(new StringReader("class *"));
+        }
+
+        if (mappingFile != null) {
+            filterConfigs.add(Files.readAllBytes(mappingFile.toPath()));
+            final MappingReader mappingReader = new MappingReader(mappingFile);
+            filterConfig = new ProguardMappingConfig(filterConfig, mappingReader, simpleRules);
+        } else {
+            filterConfig = new SimpleConvertConfig(new BasicKeepConfig(), simpleRules);
+        }
+
+        //有指定注解的类或方法不转换,默认注解总是有效
+        final List<String> keepAnnotations = new ArrayList<>();
+        keepAnnotations.add(AnnotationFilter.DEFAULT_ANNOTATION);
+        final String annotations = getOption("keepAnnotations");
+        if (annotations != null) {
+            keepAnnotations.addAll(Arrays.asList(annotations.split(",")));
+        }
+        final boolean stripAnnotations = Boolean.parseBoolean(getOption("stripKeepAnnotations"));
+        final AnnotationFilter annotationFilter = new AnnotationFilter(filterConfig, keepAnnotations, stripAnnotations);
+        filterConfigs.add((new TreeSet<>(annotationFilter.getAnnotationTypes()) + ":" + stripAnnotations)
+                .getBytes(StandardCharsets.UTF_8));
+        filterConfig = annotationFilter;
+
+        ProfileFilter profileFilter = null;
+        if (profileFile != null) {
+            final byte[] profile = Files.readAllBytes(profileFile.toPath());
+            final long minCount = getLongOption("profileMinCount", 1000);
+            final boolean excludeStartup = Boolean.parseBoolean(getOption("profileStartup", "true"));
+            //阈值也影响转换结果
+            filterConfigs.add(profile);
+            filterConfigs.add((minCount + ":" + excludeStartup).getBytes(StandardCharsets.UTF_8));
+            profileFilter = new ProfileFilter(filterConfig,
+                    new InputStreamReader(new ByteArrayInputStream(profile), StandardCharsets.UTF_8),
+                    minCount, excludeStartup);
+            filterConfig = profileFilter;
+        }
+
+        //启动路径上的方法不转换,调用关系在ApkProtect里根据manifest计算
+        StartupFilter startupFilter = null;
+        final int startupDepth = getIntOption("startupDepth", 0);
+        if (startupDepth > 0) {
+            startupFilter = new StartupFilter(filterConfig, startupDepth);
+            filterConfig = startupFilter;
+        }
+
+        //估算方法转换后的开销,设置了预算时排除开销大的方法
+        CostBudgetFilter costFilter = null;
+        final String costBudgetOption = getOption("costBudget");
+        final Long costBudget = costBudgetOption == null ? null : Long.valueOf(costBudgetOption.trim());
+        if (costBudget != null || Boolean.parseBoolean(getOption("costReport"))) {
+            if (costBudget != null) {
+                filterConfigs.add(("costBudget:" + costBudget).getBytes(StandardCharsets.UTF_8));
+            }
+            costFilter = new CostBudgetFilter(filterConfig, costBudget == null ? Long.MAX_VALUE : costBudget);
+            filterConfig = costFilter;
+        }
+
+
+        final ApkFolders apkFolders = new ApkFolders(apk, outDir);
+
+        //apk签名验证相关，不使用
+        final ApkVerifyCodeGenerator apkVerifyCodeGenerator = null;
+
+        //设置缓存目录后,随机种子按包名保存在缓存目录里,同一应用每次生成相同的opcode表,没有改变的dex不用重新转换;
+        //不同应用使用不同的opcode表,不会因为一个应用被分析而影响其他应用
+        final String cacheDirPath = getOption("cacheDir");
+        final boolean incrementalBuild = Boolean.parseBoolean(getOption("incremental"));
+        final InstructionRewriter instructionRewriter;
+        DexConvertCache convertCache = null;
+        if (cacheDirPath != null) {
+            final File cacheDir = new File(cacheDirPath);
+            instructionRewriter = new RandomInstructionRewriter(
+                    getSeed(new File(new File(cacheDir, "seeds"), getPackageName(apk))));
+            convertCache = new DexConvertCache(cacheDir, instructionRewriter,
+                    filterConfigs.toArray(new byte[0][]));
+        } else if (incrementalBuild) {
+            //opcode表改变时所有c文件都要重新编译,增量编译需要固定随机种子
+            instructionRewriter = new RandomInstructionRewriter(getSeed(apkFolders.getOpcodeSeedFile()));
+        } else {
+            instructionRewriter = new RandomInstructionRewriter();
+        }
+
+        final ApkProtect apkProtect = new ApkProtect.Builder(apkFolders)
+                .setInstructionRewriter(instructionRewriter)
+                .setApkVerifyCodeGenerator(apkVerifyCodeGenerator)
+                .setFilter(filterConfig)
+                .setExecutor(executor)
+                .setParallelDexWrite(Boolean.parseBoolean(getOption("parallelDexWrite")))
+                .setNativeBuildScheduler(buildScheduler)
+                .setConfig(config)
+                .setConvertCache(convertCache)
+                //大dex的本地方法分散到多个c文件,并行编译
+                .setNativeShards(getIntOption("nativeShards", 1))
+                .setDataBlob(Boolean.parseBoolean(getOption("dataBlob")))
+                .setGlobalPool(Boolean.parseBoolean(getOption("globalPool")))
+                //启动路径上的方法不转换
+                .setStartupFilter(startupFilter)
+                //保留cmake编译目录,只编译改变了的c文件
+                .setIncrementalBuild(incrementalBuild)
+                //比如ccache,缓存编译结果
+                .setCompilerLauncher(getOption("compilerLauncher"))
+                .build();
+        apkProtect.run();
+
+        if (profileFilter != null) {
+            //记录因为profile没有转换的方法
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(new File(outDir, "profile_excluded.txt")), StandardCharsets.UTF_8)) {
+                profileFilter.writeReport(writer);
+            }
+        }
+        if (costFilter != null) {
+            try (Writer writer = new OutputStreamWriter(
+                    new FileOutputStream(new File(outDir, "method_cost.txt")), StandardCharsets.UTF_8)) {
+                costFilter.writeReport(writer);
+            }
+        }
+    }
+
+    //任务文件里的配置优先,没有时使用系统属性
+    @Nullable
+    private String getOption(String name) {
+        return options.getProperty(name, System.getProperty("nmmp." + name));
+    }
+
+    private String getOption(String name, String defaultValue) {
+        final String value = getOption(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private int getIntOption(String name, int defaultValue) {
+        final String value = getOption(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private long getLongOption(String name, long defaultValue) {
+        final String value = getOption(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private static String getPackageName(File apk) throws IOException {
+        final byte[] manifestBytes = ApkUtils.getFile(apk, ApkProtect.ANDROID_MANIFEST_XML);
+        if (manifestBytes == null) {
+            //错误apk文件
+            throw new RuntimeException("Not is apk");
+        }
+        return AxmlEdit.getPackageName(manifestBytes);
+    }
+
+    //多个任务可能同时使用同一个缓存目录
+    private static synchronized long getSeed(File seedFile) throws IOException {
+        if (seedFile.exists()) {
+            return Long.parseLong(new String(Files.readAllBytes(seedFile.toPath()), StandardCharsets.UTF_8).trim());
+        }
+        final File parent = seedFile.getParentFile();
+        if (!parent.exists()) parent.mkdirs();
+        final long seed = new Random().nextLong();
+        Files.write(seedFile.toPath(), Long.toString(seed).getBytes(StandardCharsets.UTF_8));
+        return seed;
+    }
+}